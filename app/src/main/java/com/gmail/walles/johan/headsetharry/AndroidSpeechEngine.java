@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.os.Build;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.speech.tts.Voice;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+/**
+ * A {@link SpeechEngine} backed by Android's {@link TextToSpeech}.
+ */
+public class AndroidSpeechEngine implements SpeechEngine {
+    public static class Factory implements SpeechEngine.Factory {
+        private final Context context;
+
+        public Factory(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public SpeechEngine create(String enginePackage, InitListener listener) {
+            return new AndroidSpeechEngine(context, enginePackage, listener);
+        }
+
+        @Override
+        public void listEngines(final EngineListListener listener) {
+            final TextToSpeech[] someTts = new TextToSpeech[1];
+
+            // We need to initialize some (any) TTS...
+            someTts[0] = new TextToSpeech(context, new TextToSpeech.OnInitListener() {
+                @Override
+                public void onInit(int status) {
+                    // ... so that we can query it for a list of others once it's initialized.
+                    if (status != TextToSpeech.SUCCESS) {
+                        @NonNls String message = "Failed to initialize system default TTS: " + status;
+                        Timber.e(new Exception(message), message);
+                        listener.onListed(Collections.<String>emptyList());
+                        return;
+                    }
+
+                    List<String> engines =
+                        sortEngines(someTts[0].getEngines(), someTts[0].getDefaultEngine());
+
+                    // We only wanted it for listing other installed engines, and we have that list
+                    // now. Bye.
+                    someTts[0].shutdown();
+                    someTts[0] = null;
+
+                    listener.onListed(engines);
+                }
+            });
+        }
+
+        @Override
+        public long getNowMs() {
+            return System.currentTimeMillis();
+        }
+
+        /**
+         * Put the system default TTS first in the list.
+         */
+        private static List<String> sortEngines(List<TextToSpeech.EngineInfo> engines, String defaultEngine) {
+            List<String> returnMe = new ArrayList<>(engines.size());
+            for (TextToSpeech.EngineInfo engine: engines) {
+                String packageName = engine.name;
+                if (defaultEngine.equals(packageName)) {
+                    returnMe.add(0, packageName);
+                } else {
+                    returnMe.add(packageName);
+                }
+            }
+
+            return returnMe;
+        }
+    }
+
+    private final String enginePackage;
+    private final TextToSpeech tts;
+
+    private AndroidSpeechEngine(
+        Context context, String enginePackage, final InitListener listener)
+    {
+        this.enginePackage = enginePackage;
+        this.tts = new TextToSpeech(context, new TextToSpeech.OnInitListener() {
+            @Override
+            public void onInit(int status) {
+                listener.onInit(status == TextToSpeech.SUCCESS);
+            }
+        }, enginePackage);
+    }
+
+    @Override
+    public String getEnginePackage() {
+        return enginePackage;
+    }
+
+    @Override
+    public int isLanguageAvailable(Locale locale) {
+        return tts.isLanguageAvailable(locale);
+    }
+
+    @Override
+    public int setLanguage(Locale locale) {
+        return tts.setLanguage(locale);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("deprecation")
+    public Locale getLanguage() {
+        return tts.getLanguage();
+    }
+
+    @Override
+    public String getVoiceName() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return "";
+        }
+
+        Voice voice = tts.getVoice();
+        return voice == null ? "" : voice.getName();
+    }
+
+    @Override
+    public void setProgressListener(final ProgressListener listener) {
+        tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                listener.onStart(utteranceId);
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                listener.onDone(utteranceId);
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                listener.onError(utteranceId);
+            }
+
+            @Override
+            public void onStop(String utteranceId, boolean interrupted) {
+                listener.onStop(utteranceId, interrupted);
+            }
+        });
+    }
+
+    @Override
+    public int speak(String text, String utteranceId, int audioManagerStream) {
+        //noinspection deprecation
+        return tts.speak(
+            text, TextToSpeech.QUEUE_ADD, createParams(utteranceId, audioManagerStream));
+    }
+
+    @Override
+    public int playFile(File audio, String utteranceId, int audioManagerStream) {
+        @NonNls String earcon = audio.getPath();
+        tts.addEarcon(earcon, earcon);
+
+        //noinspection deprecation
+        return tts.playEarcon(
+            earcon, TextToSpeech.QUEUE_ADD, createParams(utteranceId, audioManagerStream));
+    }
+
+    @Override
+    public int synthesizeToFile(String text, String utteranceId, File file) {
+        @NonNls HashMap<String, String> params = new HashMap<>();
+        params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
+
+        //noinspection deprecation
+        return tts.synthesizeToFile(text, params, file.getPath());
+    }
+
+    @Override
+    public void stop() {
+        tts.stop();
+    }
+
+    @Override
+    public void shutdown() {
+        tts.shutdown();
+    }
+
+    private static HashMap<String, String> createParams(
+        String utteranceId, int audioManagerStream)
+    {
+        @NonNls HashMap<String, String> params = new HashMap<>();
+        params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
+        params.put(
+            TextToSpeech.Engine.KEY_PARAM_STREAM,
+            Integer.toString(audioManagerStream));
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return enginePackage;
+    }
+}
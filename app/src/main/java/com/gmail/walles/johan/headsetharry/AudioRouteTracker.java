@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothHeadset;
+import android.bluetooth.BluetoothProfile;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import timber.log.Timber;
+
+/**
+ * Keeps track of which headsets are connected, by listening to broadcasts rather than asking
+ * {@link AudioManager} every time.
+ * <p/>
+ * The current {@link Route} can be read from any thread at no cost.
+ * <p/>
+ * There's no broadcast for audio mode changes that doesn't need a phone state permission, so
+ * the audio mode isn't tracked here.
+ */
+public class AudioRouteTracker {
+    public interface Listener {
+        /**
+         * Called on the main thread.
+         */
+        void onRouteChanged(Route route);
+    }
+
+    /**
+     * A snapshot of what's connected.
+     */
+    public static class Route {
+        public final boolean wiredHeadset;
+        public final boolean a2dp;
+
+        /**
+         * A Bluetooth headset we could bring up SCO audio on.
+         */
+        public final boolean bluetoothHeadset;
+
+        /**
+         * SCO audio is up.
+         */
+        public final boolean sco;
+
+        public Route(boolean wiredHeadset, boolean a2dp, boolean bluetoothHeadset, boolean sco) {
+            this.wiredHeadset = wiredHeadset;
+            this.a2dp = a2dp;
+            this.bluetoothHeadset = bluetoothHeadset;
+            this.sco = sco;
+        }
+
+        /**
+         * @return true if something is connected that we could speak over
+         */
+        public boolean hasHeadset() {
+            return wiredHeadset || a2dp || bluetoothHeadset || sco;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Route route = (Route)o;
+            return wiredHeadset == route.wiredHeadset
+                && a2dp == route.a2dp
+                && bluetoothHeadset == route.bluetoothHeadset
+                && sco == route.sco;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = wiredHeadset ? 1 : 0;
+            result = 31 * result + (a2dp ? 1 : 0);
+            result = 31 * result + (bluetoothHeadset ? 1 : 0);
+            result = 31 * result + (sco ? 1 : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "wired=" + wiredHeadset //NON-NLS
+                + " a2dp=" + a2dp //NON-NLS
+                + " bluetoothHeadset=" + bluetoothHeadset //NON-NLS
+                + " sco=" + sco; //NON-NLS
+        }
+    }
+
+    @Nullable
+    private static AudioRouteTracker instance;
+
+    private volatile Route route;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            Route updated = update(route, action, getState(intent));
+            if (!updated.equals(route)) {
+                Timber.d("Audio route changed: %s", updated);
+                route = updated;
+                for (Listener listener: listeners) {
+                    listener.onRouteChanged(updated);
+                }
+            }
+        }
+    };
+
+    private AudioRouteTracker(Context context) {
+        AudioManager audioManager = (AudioManager)context.getSystemService(Context.AUDIO_SERVICE);
+
+        // Seed with what we can find out right now, the broadcasts keep us up to date from here
+        //noinspection deprecation
+        route = new Route(
+            audioManager.isWiredHeadsetOn(),
+            audioManager.isBluetoothA2dpOn(),
+            isBluetoothHeadsetConnected(),
+            audioManager.isBluetoothScoOn());
+        Timber.d("Initial audio route: %s", route);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_HEADSET_PLUG);
+        filter.addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
+        filter.addAction(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
+        filter.addAction(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED);
+        context.registerReceiver(receiver, filter);
+    }
+
+    /**
+     * The tracker lives as long as our process, starting with the first call to this method.
+     */
+    public static synchronized AudioRouteTracker getInstance(Context context) {
+        if (instance == null) {
+            instance = new AudioRouteTracker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private static boolean isBluetoothHeadsetConnected() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null) {
+            // No Bluetooth on this device
+            return false;
+        }
+
+        try {
+            return adapter.getProfileConnectionState(BluetoothProfile.HEADSET)
+                == BluetoothProfile.STATE_CONNECTED;
+        } catch (SecurityException e) {
+            Timber.w(e, "Not allowed to ask for Bluetooth headset state");
+            return false;
+        }
+    }
+
+    /**
+     * @return The state extra of a broadcast we listen to, or -1 if it has none
+     */
+    private static int getState(Intent intent) {
+        @NonNls String action = intent.getAction();
+        if (Intent.ACTION_HEADSET_PLUG.equals(action)) {
+            return intent.getIntExtra("state", -1);
+        }
+        if (AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED.equals(action)) {
+            return intent.getIntExtra(AudioManager.EXTRA_SCO_AUDIO_STATE, -1);
+        }
+        return intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+    }
+
+    /**
+     * Apply a broadcast to a route.
+     *
+     * @param state The broadcast's state extra, see {@link #getState(Intent)}
+     */
+    static Route update(Route route, @Nullable @NonNls String action, int state) {
+        if (action == null) {
+            return route;
+        }
+
+        switch (action) {
+            case Intent.ACTION_HEADSET_PLUG:
+                return new Route(state == 1, route.a2dp, route.bluetoothHeadset, route.sco);
+
+            case BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED:
+                return new Route(route.wiredHeadset,
+                    state == BluetoothProfile.STATE_CONNECTED, route.bluetoothHeadset, route.sco);
+
+            case BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED:
+                return new Route(route.wiredHeadset,
+                    route.a2dp, state == BluetoothProfile.STATE_CONNECTED, route.sco);
+
+            case AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED:
+                return new Route(route.wiredHeadset, route.a2dp, route.bluetoothHeadset,
+                    state == AudioManager.SCO_AUDIO_STATE_CONNECTED);
+
+            default:
+                return route;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import timber.log.Timber;
+
+/**
+ * Brings up Bluetooth SCO audio without blocking any thread.
+ * <p/>
+ * We listen for {@link AudioManager#ACTION_SCO_AUDIO_STATE_UPDATED} and report back as soon as
+ * SCO audio is connected, or when it fails or doesn't come up within {@link #TIMEOUT_MS}.
+ * <p/>
+ * Not thread safe. Call {@link #start()} from {@link SpeakerService}'s {@link EventLoop}.
+ * SCO state updates and the timeout are posted there through an {@link EventPoster}, and the
+ * listener is called from there.
+ */
+class BluetoothScoStarter {
+    private static final long TIMEOUT_MS = 3000;
+
+    interface Listener {
+        /**
+         * @param weStartedIt false if SCO audio was already connected when we got here
+         */
+        void onConnected(boolean weStartedIt);
+
+        void onFailed(@NonNls String reason);
+    }
+
+    /**
+     * The parts of the system we need, so that tests can do without it.
+     */
+    interface Audio {
+        /**
+         * Start delivering {@link AudioManager#ACTION_SCO_AUDIO_STATE_UPDATED} to the receiver.
+         *
+         * @return The current SCO audio state, or null if we couldn't get it
+         */
+        @Nullable
+        Integer registerStateReceiver(BroadcastReceiver receiver);
+
+        void unregisterStateReceiver(BroadcastReceiver receiver);
+
+        boolean isBluetoothScoOn();
+
+        void setBluetoothScoOn(boolean on);
+
+        void startBluetoothSco();
+
+        void stopBluetoothSco();
+    }
+
+    private static class SystemAudio implements Audio {
+        private final Context context;
+        private final AudioManager audioManager;
+
+        SystemAudio(Context context) {
+            this.context = context.getApplicationContext();
+            this.audioManager = (AudioManager)context.getSystemService(Context.AUDIO_SERVICE);
+        }
+
+        @Nullable
+        @Override
+        public Integer registerStateReceiver(BroadcastReceiver receiver) {
+            IntentFilter filter = new IntentFilter(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED);
+            Intent sticky = context.registerReceiver(receiver, filter);
+            return sticky == null ? null : getState(sticky);
+        }
+
+        @Override
+        public void unregisterStateReceiver(BroadcastReceiver receiver) {
+            context.unregisterReceiver(receiver);
+        }
+
+        @Override
+        public boolean isBluetoothScoOn() {
+            return audioManager.isBluetoothScoOn();
+        }
+
+        @Override
+        public void setBluetoothScoOn(boolean on) {
+            audioManager.setBluetoothScoOn(on);
+        }
+
+        @Override
+        public void startBluetoothSco() {
+            audioManager.startBluetoothSco();
+        }
+
+        @Override
+        public void stopBluetoothSco() {
+            audioManager.stopBluetoothSco();
+        }
+    }
+
+    /**
+     * What to do after getting a SCO audio state update.
+     */
+    enum Step {
+        CONNECTED,
+        REQUEST,
+        WAIT,
+        FAIL,
+    }
+
+    private final Audio audio;
+    private final Listener listener;
+    private final EventPoster events;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isInitialStickyBroadcast()) {
+                // We got this one when registering already
+                return;
+            }
+            final int state = getState(intent);
+            events.post(new Runnable() {
+                @Override
+                public void run() {
+                    onStateUpdate(state);
+                }
+            });
+        }
+    };
+
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            // Does nothing if we're done already
+            fail("No response to trying to enable SCO audio after " + TIMEOUT_MS + "ms");
+        }
+    };
+
+    private boolean requested;
+
+    /**
+     * True once {@link AudioManager#startBluetoothSco()} has gone through. Only then is it up to
+     * us to stop SCO again, otherwise it may belong to some other app.
+     */
+    private boolean weStartedSco;
+
+    private boolean sawConnecting;
+    private boolean done;
+    private long startMs;
+
+    BluetoothScoStarter(Context context, EventPoster events, Listener listener) {
+        this(new SystemAudio(context), events, listener);
+    }
+
+    BluetoothScoStarter(Audio audio, EventPoster events, Listener listener) {
+        this.audio = audio;
+        this.events = events;
+        this.listener = listener;
+    }
+
+    private static int getState(Intent intent) {
+        return intent.getIntExtra(
+            AudioManager.EXTRA_SCO_AUDIO_STATE, AudioManager.SCO_AUDIO_STATE_ERROR);
+    }
+
+    /**
+     * Must be called from the event loop.
+     */
+    void start() {
+        startMs = System.currentTimeMillis();
+        Integer state = audio.registerStateReceiver(receiver);
+        if (state == null) {
+            fail("Got null Intent when asking for ACTION_SCO_AUDIO_STATE_UPDATED");
+            return;
+        }
+
+        events.postDelayed(timeout, TIMEOUT_MS);
+        onStateUpdate(state);
+    }
+
+    private void onStateUpdate(int state) {
+        if (done) {
+            return;
+        }
+
+        if (state == AudioManager.SCO_AUDIO_STATE_CONNECTING) {
+            sawConnecting = true;
+        }
+
+        boolean scoOn = audio.isBluetoothScoOn();
+        switch (getStep(requested, sawConnecting, state, scoOn)) {
+            case CONNECTED:
+                finish();
+                Timber.d("Bluetooth SCO audio connected after %dms",
+                    System.currentTimeMillis() - startMs);
+                listener.onConnected(requested);
+                return;
+
+            case REQUEST:
+                if (state == AudioManager.SCO_AUDIO_STATE_CONNECTED) {
+                    Timber.w("Bluetooth audio connected but not enabled, requesting it");
+                }
+                request();
+                return;
+
+            case FAIL:
+                fail("Bluetooth SCO audio state " + state + ", connecting seen: " + sawConnecting);
+                return;
+
+            case WAIT:
+                Timber.v("Bluetooth SCO audio state %d, waiting...", state);
+                return;
+
+            default:
+                throw new UnsupportedOperationException("Unhandled step");
+        }
+    }
+
+    private void request() {
+        Timber.v("Requesting Bluetooth SCO audio output");
+        requested = true;
+        try {
+            // From: http://stackoverflow.com/a/17150250/473672
+            audio.startBluetoothSco();
+        } catch (NullPointerException e) {
+            // We get this on some versions of Android if there is no headset:
+            // http://stackoverflow.com/a/26914789/473672
+            fail("Got NPE from AudioManager.startBluetoothSco() => no headset available");
+            return;
+        }
+        weStartedSco = true;
+        audio.setBluetoothScoOn(true);
+    }
+
+    /**
+     * Decide what to do about a SCO audio state update.
+     *
+     * @param requested Whether we have asked for SCO audio yet
+     * @param sawConnecting Whether we have seen {@link AudioManager#SCO_AUDIO_STATE_CONNECTING}
+     * @param state One of the SCO_AUDIO_STATE_* values
+     * @param scoOn What {@link AudioManager#isBluetoothScoOn()} says
+     */
+    static Step getStep(boolean requested, boolean sawConnecting, int state, boolean scoOn) {
+        if (state == AudioManager.SCO_AUDIO_STATE_ERROR) {
+            return Step.FAIL;
+        }
+
+        if (state == AudioManager.SCO_AUDIO_STATE_CONNECTED && scoOn) {
+            return Step.CONNECTED;
+        }
+
+        if (!requested) {
+            return Step.REQUEST;
+        }
+
+        if (state == AudioManager.SCO_AUDIO_STATE_DISCONNECTED && sawConnecting) {
+            // We tried, and it went back down again
+            return Step.FAIL;
+        }
+
+        return Step.WAIT;
+    }
+
+    private void finish() {
+        done = true;
+        try {
+            audio.unregisterStateReceiver(receiver);
+        } catch (IllegalArgumentException e) {
+            // Never registered
+            Timber.v("SCO state receiver wasn't registered");
+        }
+    }
+
+    private void fail(@NonNls String reason) {
+        if (done) {
+            return;
+        }
+        finish();
+
+        Timber.w("%s", reason);
+        if (weStartedSco) {
+            audio.setBluetoothScoOn(false);
+            audio.stopBluetoothSco();
+        } else {
+            Timber.d("Leaving SCO alone, we never started it");
+        }
+        listener.onFailed(reason);
+    }
+}
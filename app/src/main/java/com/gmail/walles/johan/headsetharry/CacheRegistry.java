@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.ComponentCallbacks2;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * All caches in the app, so that we can trim them when the system runs low on memory, and see how
+ * much memory each of them holds on to.
+ */
+public class CacheRegistry {
+    private static final Map<String, TrimmableCache> CACHES = new LinkedHashMap<>();
+
+    private CacheRegistry() {
+        throw new UnsupportedOperationException("Utility class, please don't instantiate");
+    }
+
+    /**
+     * Register a cache. Registering another cache with the same name replaces the old one.
+     */
+    public static synchronized void register(@NonNls String name, TrimmableCache cache) {
+        CACHES.put(name, cache);
+    }
+
+    @TestOnly
+    public static synchronized void unregister(String name) {
+        CACHES.remove(name);
+    }
+
+    /**
+     * How many bytes each registered cache holds on to right now, by name.
+     */
+    public static synchronized Map<String, Long> getBytesPerCache() {
+        Map<String, Long> bytesPerCache = new LinkedHashMap<>();
+        for (Map.Entry<String, TrimmableCache> entry: CACHES.entrySet()) {
+            bytesPerCache.put(entry.getKey(), entry.getValue().getBytes());
+        }
+        return bytesPerCache;
+    }
+
+    /**
+     * Let all registered caches respond to a {@link ComponentCallbacks2} trim level.
+     */
+    public static synchronized void onTrimMemory(int level) {
+        long totalBefore = 0;
+        long totalAfter = 0;
+        for (Map.Entry<String, TrimmableCache> entry: CACHES.entrySet()) {
+            TrimmableCache cache = entry.getValue();
+            long before = cache.getBytes();
+            cache.onTrimMemory(level);
+            long after = cache.getBytes();
+
+            Timber.i("Trim level %d: %s cache %d -> %d bytes", level, entry.getKey(), before, after);
+            totalBefore += before;
+            totalAfter += after;
+        }
+        Timber.i("Trim level %d: all caches %d -> %d bytes", level, totalBefore, totalAfter);
+    }
+
+    /**
+     * How large part of its contents a cache should drop at a given trim level.
+     * <p/>
+     * While we're running, drop half when memory is getting low and everything when it's
+     * critical. While in the background, drop half at first and everything when we risk getting
+     * killed. We have no UI state, so {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN} means
+     * nothing to us.
+     */
+    public static float getDropFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 1f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.5f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 0f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 1f;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        }
+        return 0f;
+    }
+}
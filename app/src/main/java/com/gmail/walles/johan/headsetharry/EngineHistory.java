@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What engine lookups have learned so far; the {@link TtsEngineIndex} and the
+ * {@link EngineScores}.
+ * <p/>
+ * Lookups use {@link TtsUtils#getEngineHistory(android.content.Context)}, unit tests can keep
+ * this in memory instead.
+ */
+interface EngineHistory {
+    @Nullable
+    TtsEngineIndex.Entry getIndexed(Locale locale);
+
+    void putIndexed(Locale locale, TtsEngineIndex.Entry entry);
+
+    void removeIndexed(Locale locale);
+
+    /**
+     * @see TtsEngineIndex#getSupported(android.content.Context, Locale)
+     */
+    Map<String, Integer> getSupported(Locale locale);
+
+    void putSupported(String enginePackage, Locale locale, int precision);
+
+    void removeSupported(String enginePackage, Locale locale);
+
+    /**
+     * @see EngineScore#getCostMs()
+     */
+    double getCostMs(String enginePackage, Locale locale);
+
+    boolean isDemoted(String enginePackage, Locale locale);
+
+    /**
+     * Sort engines with the best one for a locale first.
+     */
+    void sort(List<String> enginePackages, Locale locale);
+
+    void recordInitialized(String enginePackage, Locale locale, long initMs);
+
+    void recordFailure(String enginePackage, Locale locale);
+}
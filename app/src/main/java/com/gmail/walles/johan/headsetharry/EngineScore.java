@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.support.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * How fast and reliable a TTS engine has been for some locale lately.
+ * <p/>
+ * All weights decay exponentially with time, with a half life of {@link #HALF_LIFE_MS}. Recent
+ * measurements count more than old ones, and an engine that has been failing will recover once
+ * its failures are old enough, even if we haven't used it since.
+ * <p/>
+ * Not thread safe.
+ */
+public class EngineScore {
+    static final long HALF_LIFE_MS = 6 * 60 * 60 * 1000;
+
+    /**
+     * Engines with less failure weight than this are never demoted. Three recent failures in a
+     * row and you're out.
+     */
+    static final double DEMOTION_FAILURE_WEIGHT = 2.5;
+
+    /**
+     * Engines failing more often than this are demoted.
+     */
+    static final double MAX_FAILURE_RATE = 0.5;
+
+    /**
+     * Assumed until measured. Pessimistic enough that an engine we've seen doing better stays
+     * ahead, optimistic enough that unknown engines beat the ones we've seen doing badly.
+     */
+    private static final double DEFAULT_INIT_MS = 1000;
+    private static final double DEFAULT_START_WAIT_MS = 500;
+    private static final double DEFAULT_REAL_TIME_FACTOR = 0.5;
+
+    /**
+     * How much audio an announcement segment typically is, for weighing in the real time factor.
+     */
+    private static final double TYPICAL_AUDIO_MS = 3000;
+
+    private long updatedMs;
+
+    private double successWeight;
+    private double failureWeight;
+
+    private double initMsSum;
+    private double initWeight;
+    private double startWaitMsSum;
+    private double startWaitWeight;
+    private double realTimeFactorSum;
+    private double realTimeFactorWeight;
+
+    public EngineScore(long nowMs) {
+        this.updatedMs = nowMs;
+    }
+
+    private double getDecay(long nowMs) {
+        if (nowMs <= updatedMs) {
+            return 1;
+        }
+        return Math.pow(0.5, (nowMs - updatedMs) / (double)HALF_LIFE_MS);
+    }
+
+    private void decay(long nowMs) {
+        double decay = getDecay(nowMs);
+        successWeight *= decay;
+        failureWeight *= decay;
+        initMsSum *= decay;
+        initWeight *= decay;
+        startWaitMsSum *= decay;
+        startWaitWeight *= decay;
+        realTimeFactorSum *= decay;
+        realTimeFactorWeight *= decay;
+        updatedMs = Math.max(updatedMs, nowMs);
+    }
+
+    public void recordSuccess(long nowMs) {
+        decay(nowMs);
+        successWeight++;
+    }
+
+    public void recordFailure(long nowMs) {
+        decay(nowMs);
+        failureWeight++;
+    }
+
+    public void recordInitMs(long nowMs, long initMs) {
+        decay(nowMs);
+        initMsSum += initMs;
+        initWeight++;
+    }
+
+    public void recordStartWaitMs(long nowMs, long startWaitMs) {
+        decay(nowMs);
+        startWaitMsSum += startWaitMs;
+        startWaitWeight++;
+    }
+
+    /**
+     * @param realTimeFactor Synthesis time divided by the duration of the synthesized audio
+     */
+    public void recordRealTimeFactor(long nowMs, double realTimeFactor) {
+        decay(nowMs);
+        realTimeFactorSum += realTimeFactor;
+        realTimeFactorWeight++;
+    }
+
+    public double getFailureRate() {
+        double total = successWeight + failureWeight;
+        if (total == 0) {
+            return 0;
+        }
+        return failureWeight / total;
+    }
+
+    /**
+     * A demoted engine should only be used if no other engine will do.
+     */
+    public boolean isDemoted(long nowMs) {
+        return failureWeight * getDecay(nowMs) >= DEMOTION_FAILURE_WEIGHT
+            && getFailureRate() > MAX_FAILURE_RATE;
+    }
+
+    private static double average(double sum, double weight, double fallback) {
+        return weight > 0 ? sum / weight : fallback;
+    }
+
+    /**
+     * Roughly how long this engine makes people wait, lower is better. Failures count as
+     * having to try again.
+     */
+    public double getCostMs() {
+        double costMs = average(initMsSum, initWeight, DEFAULT_INIT_MS)
+            + average(startWaitMsSum, startWaitWeight, DEFAULT_START_WAIT_MS)
+            + average(realTimeFactorSum, realTimeFactorWeight, DEFAULT_REAL_TIME_FACTOR)
+                * TYPICAL_AUDIO_MS;
+        return costMs / Math.max(0.1, 1 - getFailureRate());
+    }
+
+    String encode() {
+        return String.format(Locale.ROOT, "%d:%s:%s:%s:%s:%s:%s:%s:%s",
+            updatedMs,
+            successWeight, failureWeight,
+            initMsSum, initWeight,
+            startWaitMsSum, startWaitWeight,
+            realTimeFactorSum, realTimeFactorWeight);
+    }
+
+    /**
+     * @return null if the string couldn't be decoded
+     */
+    @Nullable
+    static EngineScore decode(@Nullable String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+
+        String[] parts = encoded.split(":", -1);
+        if (parts.length != 9) {
+            return null;
+        }
+
+        try {
+            EngineScore score = new EngineScore(Long.parseLong(parts[0]));
+            score.successWeight = Double.parseDouble(parts[1]);
+            score.failureWeight = Double.parseDouble(parts[2]);
+            score.initMsSum = Double.parseDouble(parts[3]);
+            score.initWeight = Double.parseDouble(parts[4]);
+            score.startWaitMsSum = Double.parseDouble(parts[5]);
+            score.startWaitWeight = Double.parseDouble(parts[6]);
+            score.realTimeFactorSum = Double.parseDouble(parts[7]);
+            score.realTimeFactorWeight = Double.parseDouble(parts[8]);
+            return score;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "cost=%.0fms failures=%.0f%%",
+            getCostMs(), getFailureRate() * 100);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Persisted {@link EngineScore}s, per TTS engine and locale.
+ * <p/>
+ * {@link TtsUtils} reports how engines do here, and asks which engines to prefer.
+ */
+public class EngineScores {
+    @NonNls
+    private static final String PREFERENCES_NAME = "ttsEngineScores";
+
+    private EngineScores() {
+        throw new UnsupportedOperationException("Utility class, please don't instantiate");
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String getKey(String enginePackage, Locale locale) {
+        return enginePackage + " " + locale;
+    }
+
+    private static EngineScore get(Context context, String enginePackage, Locale locale) {
+        EngineScore score = EngineScore.decode(
+            getPreferences(context).getString(getKey(enginePackage, locale), null));
+        if (score == null) {
+            score = new EngineScore(System.currentTimeMillis());
+        }
+        return score;
+    }
+
+    private static void put(
+        Context context, String enginePackage, Locale locale, EngineScore score)
+    {
+        getPreferences(context).edit()
+            .putString(getKey(enginePackage, locale), score.encode())
+            .apply();
+    }
+
+    public static synchronized void recordSuccess(
+        Context context, String enginePackage, Locale locale)
+    {
+        EngineScore score = get(context, enginePackage, locale);
+        score.recordSuccess(System.currentTimeMillis());
+        put(context, enginePackage, locale, score);
+    }
+
+    public static synchronized void recordFailure(
+        Context context, String enginePackage, Locale locale)
+    {
+        EngineScore score = get(context, enginePackage, locale);
+        boolean wasDemoted = score.isDemoted(System.currentTimeMillis());
+        score.recordFailure(System.currentTimeMillis());
+        put(context, enginePackage, locale, score);
+
+        if (!wasDemoted && score.isDemoted(System.currentTimeMillis())) {
+            Timber.w("Demoting TTS engine %s for %s: %s", enginePackage, locale, score);
+        }
+    }
+
+    public static synchronized void recordInitMs(
+        Context context, String enginePackage, Locale locale, long initMs)
+    {
+        EngineScore score = get(context, enginePackage, locale);
+        score.recordInitMs(System.currentTimeMillis(), initMs);
+        put(context, enginePackage, locale, score);
+    }
+
+    public static synchronized void recordStartWaitMs(
+        Context context, String enginePackage, Locale locale, long startWaitMs)
+    {
+        EngineScore score = get(context, enginePackage, locale);
+        score.recordStartWaitMs(System.currentTimeMillis(), startWaitMs);
+        put(context, enginePackage, locale, score);
+    }
+
+    public static synchronized void recordRealTimeFactor(
+        Context context, String enginePackage, Locale locale, double realTimeFactor)
+    {
+        EngineScore score = get(context, enginePackage, locale);
+        score.recordRealTimeFactor(System.currentTimeMillis(), realTimeFactor);
+        put(context, enginePackage, locale, score);
+    }
+
+    public static synchronized double getCostMs(
+        Context context, String enginePackage, Locale locale)
+    {
+        return get(context, enginePackage, locale).getCostMs();
+    }
+
+    public static synchronized boolean isDemoted(
+        Context context, String enginePackage, Locale locale)
+    {
+        return get(context, enginePackage, locale).isDemoted(System.currentTimeMillis());
+    }
+
+    /**
+     * Sort engines with the best one for a locale first.
+     */
+    public static synchronized void sort(Context context, List<String> engines, Locale locale) {
+        Map<String, EngineScore> scores = new HashMap<>();
+        for (String engine: engines) {
+            scores.put(engine, get(context, engine, locale));
+        }
+        sort(engines, scores, System.currentTimeMillis());
+        Timber.d("TTS engines for %s by preference: %s, scores %s", locale, engines, scores);
+    }
+
+    /**
+     * Sort engines by score, demoted engines last. The sort is stable, so engines with equal
+     * scores stay in the order they were.
+     */
+    static void sort(List<String> engines, final Map<String, EngineScore> scores, final long nowMs) {
+        Collections.sort(engines, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                EngineScore lhsScore = scores.get(lhs);
+                EngineScore rhsScore = scores.get(rhs);
+                boolean lhsDemoted = lhsScore.isDemoted(nowMs);
+                boolean rhsDemoted = rhsScore.isDemoted(nowMs);
+                if (lhsDemoted != rhsDemoted) {
+                    return lhsDemoted ? 1 : -1;
+                }
+                return Double.compare(lhsScore.getCostMs(), rhsScore.getCostMs());
+            }
+        });
+    }
+}
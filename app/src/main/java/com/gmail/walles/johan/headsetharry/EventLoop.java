@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Runs events one at a time, in the order they were posted.
+ * <p/>
+ * Any thread may {@link #post(Runnable)}, but events only ever run from the executor passed to
+ * the constructor, and never more than one at a time. State touched only by events therefore
+ * has a single writer and needs no locking.
+ * <p/>
+ * Posting is lock free. The executor is only poked when the loop goes from idle to busy, so a
+ * burst of events costs one wakeup.
+ */
+class EventLoop {
+    private static class Event {
+        public final Runnable runnable;
+        public final long postedNs;
+
+        public Event(Runnable runnable, long postedNs) {
+            this.runnable = runnable;
+            this.postedNs = postedNs;
+        }
+    }
+
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Executor executor;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong totalWaitNs = new AtomicLong();
+    private final AtomicLong maxWaitNs = new AtomicLong();
+
+    /**
+     * @param executor Where to run events. Must run things one at a time, in order, like a
+     *                 {@link android.os.Handler} does.
+     */
+    public EventLoop(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void post(Runnable runnable) {
+        events.add(new Event(runnable, System.nanoTime()));
+        updateMax(maxDepth, depth.incrementAndGet());
+
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Event event = events.poll();
+            if (event == null) {
+                break;
+            }
+            depth.decrementAndGet();
+
+            long waitNs = System.nanoTime() - event.postedNs;
+            eventCount.incrementAndGet();
+            totalWaitNs.addAndGet(waitNs);
+            updateMax(maxWaitNs, waitNs);
+
+            try {
+                event.runnable.run();
+            } catch (RuntimeException e) {
+                // One bad event shouldn't take the rest of the queue down with it
+                Timber.e(e, "Event failed: %s", event.runnable);
+            }
+        }
+
+        drainScheduled.set(false);
+
+        // Something may have been posted after our last poll() but before we cleared the flag,
+        // and that poster will have seen the flag set and not scheduled anything
+        if (!events.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Events posted but not yet run.
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    public long getMaxWaitMs() {
+        return maxWaitNs.get() / 1_000_000;
+    }
+
+    public String dump() {
+        long count = eventCount.get();
+        long averageWaitUs = count == 0 ? 0 : totalWaitNs.get() / count / 1000;
+        return String.format(Locale.ROOT,
+            "Event loop: %d events, depth now %d, max depth %d," //NON-NLS
+                + " wait avg %dus, max %dms\n", //NON-NLS
+            count, depth.get(), maxDepth.get(), averageWaitUs, getMaxWaitMs());
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+/**
+ * Posts events to {@link SpeakerService}'s {@link EventLoop}.
+ * <p/>
+ * Timers and callbacks that touch speech state go through here, so that they run on the same
+ * thread as everything else touching that state.
+ */
+interface EventPoster {
+    /**
+     * Run an event in the loop. May be called from any thread.
+     */
+    void post(Runnable event);
+
+    /**
+     * Run an event in the loop after a delay. May be called from any thread.
+     */
+    void postDelayed(Runnable event, long delayMs);
+}
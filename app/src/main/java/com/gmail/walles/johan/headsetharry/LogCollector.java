@@ -256,6 +256,9 @@ public class LogCollector {
         }
 
         StringBuilder returnMe = new StringBuilder();
+        returnMe.append(TtsLatency.dump());
+        returnMe.append(SpeakerService.dumpStats());
+        returnMe.append('\n');
         for (File logFile : logFiles) {
             returnMe.append("Log file: ");
             returnMe.append(logFile.getAbsolutePath());
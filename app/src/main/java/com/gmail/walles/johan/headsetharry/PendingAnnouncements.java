@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Events that arrived while no headset was connected.
+ * <p/>
+ * Rather than building announcements nobody will hear, {@link SpeakerService} parks events
+ * here. If a headset connects within {@link #MAX_AGE_MS}, the events are handed back for
+ * presenting. Older events are dropped, that's most of them.
+ * <p/>
+ * Also counts how much presenter work this has saved us.
+ *
+ * @param <T> The type of event
+ */
+class PendingAnnouncements<T> {
+    /**
+     * Events older than this are too old to announce when a headset connects.
+     */
+    static final long MAX_AGE_MS = 10_000;
+
+    static final int MAX_SIZE = 10;
+
+    private static class Pending<T> {
+        public final T event;
+        public final long timestampMs;
+
+        public Pending(T event, long timestampMs) {
+            this.event = event;
+            this.timestampMs = timestampMs;
+        }
+    }
+
+    /**
+     * Oldest first.
+     */
+    private final LinkedList<Pending<T>> pending = new LinkedList<>();
+
+    /**
+     * Number of skipped events per kind of event.
+     */
+    private final Map<String, Integer> skipped = new TreeMap<>();
+    private int replayed;
+    private int expired;
+
+    /**
+     * Park an event we aren't presenting because no headset is connected.
+     *
+     * @param kind What kind of event this is, for counting
+     */
+    public synchronized void add(T event, @NonNls String kind, long nowMs) {
+        Integer count = skipped.get(kind);
+        skipped.put(kind, count == null ? 1 : count + 1);
+
+        prune(nowMs);
+        pending.add(new Pending<>(event, nowMs));
+        while (pending.size() > MAX_SIZE) {
+            pending.removeFirst();
+            expired++;
+        }
+    }
+
+    /**
+     * Get all events recent enough to still be worth announcing, and forget about them.
+     */
+    public synchronized List<T> drain(long nowMs) {
+        prune(nowMs);
+
+        List<T> events = new ArrayList<>(pending.size());
+        for (Pending<T> entry: pending) {
+            events.add(entry.event);
+        }
+        pending.clear();
+
+        replayed += events.size();
+        return events;
+    }
+
+    private void prune(long nowMs) {
+        Iterator<Pending<T>> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            if (nowMs - iterator.next().timestampMs <= MAX_AGE_MS) {
+                // The rest are newer
+                break;
+            }
+            iterator.remove();
+            expired++;
+        }
+    }
+
+    public synchronized int getSkippedCount() {
+        int total = 0;
+        for (int count: skipped.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized int getReplayedCount() {
+        return replayed;
+    }
+
+    public synchronized int getExpiredCount() {
+        return expired;
+    }
+
+    public synchronized String dump() {
+        return "Events skipped without a headset: " + skipped //NON-NLS
+            + ", replayed when a headset connected: " + replayed //NON-NLS
+            + ", dropped: " + expired //NON-NLS
+            + '\n';
+    }
+}
@@ -0,0 +1,679 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.speech.tts.TextToSpeech;
+import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
+
+import com.gmail.walles.johan.headsetharry.settings.LanguagesPreference;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import timber.log.Timber;
+
+/**
+ * Audio for announcement phrases that never change, rendered ahead of time.
+ * <p/>
+ * Phrases like "Wireless network disconnected" and "SMS from unknown sender:", and the fixed
+ * beginnings of phrases like "Email from %s", are synthesized to files once per configured
+ * language and TTS engine. When a text to speak starts with one of those phrases, the file is
+ * played as an earcon and only the rest of the text needs synthesizing.
+ * <p/>
+ * Files live in app private storage, one directory per engine and locale, each with an index
+ * file listing the phrases in it. Everything is regenerated when the set of configured languages
+ * or the system default TTS engine changes, and when a TTS engine is installed, updated or
+ * removed.
+ */
+public class PhraseCache {
+    /**
+     * Phrases that are spoken as they are.
+     */
+    @StringRes
+    private static final int[] PHRASES = {
+        R.string.wifi_disconnected,
+        R.string.sms,
+        R.string.empty_sms,
+        R.string.unknown_language_sms,
+    };
+
+    /**
+     * Format strings, the part before the first format specifier gets cached.
+     */
+    @StringRes
+    private static final int[] PREFIXES = {
+        R.string.email_from_whom,
+        R.string.email_from_who_colon_subject,
+        R.string.mms_from_x,
+        R.string.calendar_event_colon_what,
+        R.string.connected_to_networkname,
+    };
+
+    /**
+     * Kinds of SMS, see {@link #getUnknownSenderIntro(Locale, String, String, String)}.
+     */
+    @StringRes
+    private static final int[] SMS_KINDS = {
+        R.string.sms,
+        R.string.empty_sms,
+        R.string.unknown_language_sms,
+    };
+
+    /**
+     * Strings we need for building phrases, but don't cache by themselves.
+     */
+    @StringRes
+    private static final int[] BUILDING_BLOCKS = {
+        R.string.unknown_sender,
+        R.string.what_from_where_colon_body,
+    };
+
+    /**
+     * Bump when changing what phrases we cache, so that existing caches get regenerated.
+     */
+    private static final int PHRASES_VERSION = 2;
+
+    /**
+     * Give up on a locale if its engine hasn't finished in this time.
+     */
+    private static final long LOCALE_TIMEOUT_MS = 30_000;
+
+    @NonNls
+    private static final String DIRECTORY = "phrases";
+    @NonNls
+    private static final String INDEX_FILE = "index";
+    @NonNls
+    private static final String SIGNATURE_FILE = "signature";
+    @NonNls
+    private static final String AUDIO_SUFFIX = ".wav";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A cached phrase at the start of some text.
+     */
+    public static class Match {
+        public final String phrase;
+        public final File audio;
+
+        /**
+         * What's left of the text after the phrase, empty if nothing.
+         */
+        public final String remainder;
+
+        public Match(String phrase, File audio, String remainder) {
+            this.phrase = phrase;
+            this.audio = audio;
+            this.remainder = remainder;
+        }
+    }
+
+    @Nullable
+    private static PhraseCache instance;
+
+    private final File root;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Cached phrases by directory path, longest first. Loaded lazily from the index files.
+     */
+    private final Map<String, List<String>> phrases = new HashMap<>();
+
+    private boolean generating;
+
+    /**
+     * Somebody asked for a refresh while we were generating.
+     */
+    private boolean refreshAgain;
+
+    private PhraseCache(File root) {
+        this.root = root;
+    }
+
+    public static synchronized PhraseCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new PhraseCache(new File(context.getFilesDir(), DIRECTORY));
+        }
+        return instance;
+    }
+
+    /**
+     * Find a cached phrase that the given text starts with.
+     *
+     * @return null if no phrase matched
+     */
+    @Nullable
+    public synchronized Match match(String enginePackage, Locale locale, String text) {
+        if (generating) {
+            // Files are being replaced
+            return null;
+        }
+
+        File directory = getDirectory(enginePackage, locale);
+        int length = findPrefix(getPhrases(directory), text);
+        if (length == 0) {
+            return null;
+        }
+
+        String phrase = text.substring(0, length);
+        File audio = new File(directory, getFileName(phrase));
+        if (!audio.isFile()) {
+            Timber.w("Cached phrase audio missing, ignoring %s: %s", directory, audio);
+            phrases.put(directory.getPath(), Collections.<String>emptyList());
+            return null;
+        }
+
+        return new Match(phrase, audio, text.substring(length).trim());
+    }
+
+    /**
+     * Regenerate the cache if the configured languages or the default TTS engine have changed.
+     *
+     * @param force Regenerate even if nothing seems to have changed, use when TTS engines have
+     *              been installed, updated or removed
+     */
+    public synchronized void refresh(Context context, boolean force) {
+        context = context.getApplicationContext();
+        if (generating) {
+            refreshAgain = true;
+            return;
+        }
+
+        Set<String> localeCodes = new TreeSet<>(LanguagesPreference.getValues(context));
+        String defaultEngine = Settings.Secure.getString(
+            context.getContentResolver(), Settings.Secure.TTS_DEFAULT_SYNTH);
+        @NonNls String signature = PHRASES_VERSION + " " + localeCodes + " " + defaultEngine;
+        if (!force && signature.equals(readSignature())) {
+            return;
+        }
+
+        Timber.i("Regenerating phrase cache for %s", signature);
+        generating = true;
+        deleteRecursively(root);
+        phrases.clear();
+
+        List<Locale> locales = new LinkedList<>();
+        for (String localeCode: localeCodes) {
+            locales.add(LocaleUtils.parseLocaleString(localeCode));
+        }
+        new Generator(context, locales, signature).next();
+    }
+
+    /**
+     * Renders the phrases for one locale at a time.
+     */
+    private class Generator {
+        private final Context context;
+        private final List<Locale> remainingLocales;
+        private final String signature;
+        private final Set<Locale> doneLocales = new HashSet<>();
+
+        /**
+         * Bumped for each locale, callbacks for locales we have moved on from are ignored.
+         */
+        private int step;
+
+        /**
+         * What the current locale is working on, for cleaning up on timeout.
+         */
+        @Nullable
+        private SpeechEngine currentTts;
+        @Nullable
+        private File currentDirectory;
+
+        Generator(Context context, List<Locale> locales, String signature) {
+            this.context = context;
+            this.remainingLocales = locales;
+            this.signature = signature;
+        }
+
+        /**
+         * Continue with the next locale on the main thread, rather than from inside the TTS
+         * callback that finished the previous one.
+         */
+        private void postNext(final int fromStep) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (PhraseCache.this) {
+                        if (fromStep == step) {
+                            next();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * If an engine never calls back, skip its locale rather than blocking {@link #match}
+         * forever.
+         */
+        private void scheduleTimeout(final int forStep, final Locale locale) {
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (PhraseCache.this) {
+                        if (forStep != step) {
+                            // Done with that locale already
+                            return;
+                        }
+
+                        Timber.w("Caching phrases for %s timed out, skipping it", locale);
+                        if (currentTts != null) {
+                            TtsPool.getInstance().discard(currentTts);
+                        }
+                        if (currentDirectory != null) {
+                            deleteRecursively(currentDirectory);
+                        }
+                        next();
+                    }
+                }
+            }, LOCALE_TIMEOUT_MS);
+        }
+
+        void next() {
+            synchronized (PhraseCache.this) {
+                final int myStep = ++step;
+                currentTts = null;
+                currentDirectory = null;
+                if (remainingLocales.isEmpty()) {
+                    finish();
+                    return;
+                }
+                Locale requested = remainingLocales.remove(0);
+
+                Translations translations = new Translations(
+                    context, requested, concat(PHRASES, PREFIXES, SMS_KINDS, BUILDING_BLOCKS));
+                final Locale locale = translations.getLocale();
+                if (!doneLocales.add(locale)) {
+                    // Happens when we have no translations for some language and fall back
+                    next();
+                    return;
+                }
+
+                final List<String> texts = getTexts(translations);
+                scheduleTimeout(myStep, locale);
+                SpeechEngine pooled = TtsPool.getInstance().acquire(locale);
+                if (pooled != null) {
+                    synthesize(myStep, pooled,
+                        TtsPool.getInstance().getEnginePackage(pooled), locale, texts);
+                    return;
+                }
+
+                TtsUtils.getEngineForLocale(context, locale, new TtsUtils.EngineResultListener() {
+                    @Override
+                    public void onFound(SpeechEngine tts, String enginePackage) {
+                        synchronized (PhraseCache.this) {
+                            TtsPool.getInstance().add(enginePackage, locale, tts);
+                            if (myStep != step) {
+                                // Timed out, let somebody else use it
+                                TtsPool.getInstance().release(tts);
+                                return;
+                            }
+                            synthesize(myStep, tts, enginePackage, locale, texts);
+                        }
+                    }
+
+                    @Override
+                    public void onNotFound() {
+                        Timber.w("No TTS engine for %s, not caching any phrases for it", locale);
+                        postNext(myStep);
+                    }
+                });
+            }
+        }
+
+        private void synthesize(final int myStep,
+                                final SpeechEngine tts,
+                                @Nullable String enginePackage,
+                                final Locale locale,
+                                final List<String> texts)
+        {
+            synchronized (PhraseCache.this) {
+                if (enginePackage == null || texts.isEmpty()) {
+                    TtsPool.getInstance().release(tts);
+                    postNext(myStep);
+                    return;
+                }
+
+                final File directory = getDirectory(enginePackage, locale);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    Timber.w("Failed to create phrase cache directory %s", directory);
+                    TtsPool.getInstance().release(tts);
+                    postNext(myStep);
+                    return;
+                }
+                currentTts = tts;
+                currentDirectory = directory;
+
+                final long startMs = System.currentTimeMillis();
+                final Set<String> remaining = new HashSet<>();
+                tts.setProgressListener(new SpeechEngine.ProgressListener() {
+                    @Override
+                    public void onStart(String utteranceId) {
+                        // This method intentionally left blank
+                    }
+
+                    @Override
+                    public void onDone(String utteranceId) {
+                        synchronized (PhraseCache.this) {
+                            if (myStep != step) {
+                                // Timed out, the engine has been discarded
+                                return;
+                            }
+
+                            String text = texts.get(Integer.parseInt(utteranceId));
+                            File audio = new File(directory, getFileName(text));
+                            if (!getTempFile(audio).renameTo(audio)) {
+                                Timber.w("Renaming synthesized phrase to %s failed", audio);
+                            }
+
+                            remaining.remove(utteranceId);
+                            if (!remaining.isEmpty()) {
+                                return;
+                            }
+
+                            writeIndex(directory, texts);
+                            Timber.i("Cached %d phrases in %s in %dms",
+                                texts.size(), directory, System.currentTimeMillis() - startMs);
+                            TtsPool.getInstance().release(tts);
+                            currentTts = null;
+                            postNext(myStep);
+                        }
+                    }
+
+                    @Override
+                    public void onError(String utteranceId) {
+                        synchronized (PhraseCache.this) {
+                            if (myStep != step || remaining.isEmpty()) {
+                                return;
+                            }
+                            remaining.clear();
+
+                            Timber.w("Synthesizing phrases into %s failed", directory);
+                            deleteRecursively(directory);
+                            TtsPool.getInstance().discard(tts);
+                            currentTts = null;
+                            postNext(myStep);
+                        }
+                    }
+
+                    @Override
+                    public void onStop(String utteranceId, boolean interrupted) {
+                        onError(utteranceId);
+                    }
+                });
+
+                for (int i = 0; i < texts.size(); i++) {
+                    remaining.add(Integer.toString(i));
+                }
+                for (int i = 0; i < texts.size(); i++) {
+                    String text = texts.get(i);
+                    File tempFile = getTempFile(new File(directory, getFileName(text)));
+                    int status = tts.synthesizeToFile(text, Integer.toString(i), tempFile);
+                    if (status != TextToSpeech.SUCCESS) {
+                        Timber.w("Enqueueing phrase synthesis failed: %d", status);
+                        remaining.clear();
+                        deleteRecursively(directory);
+                        TtsPool.getInstance().discard(tts);
+                        currentTts = null;
+                        postNext(myStep);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void finish() {
+            writeSignature(signature);
+            generating = false;
+            Timber.i("Phrase cache regenerated");
+
+            if (refreshAgain) {
+                refreshAgain = false;
+                refresh(context, true);
+            }
+        }
+    }
+
+    private static int[] concat(int[]... arrays) {
+        int length = 0;
+        for (int[] array: arrays) {
+            length += array.length;
+        }
+
+        int[] result = new int[length];
+        int offset = 0;
+        for (int[] array: arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+
+    private static List<String> getTexts(Translations translations) {
+        Set<String> texts = new HashSet<>();
+        for (int id: PHRASES) {
+            texts.add(translations.getString(id));
+        }
+        for (int id: PREFIXES) {
+            texts.add(getFixedPrefix(translations.getString(id)));
+        }
+
+        String unknownSender = translations.getString(R.string.unknown_sender);
+        for (int id: SMS_KINDS) {
+            texts.add(getUnknownSenderIntro(translations.getLocale(),
+                translations.getString(R.string.what_from_where_colon_body),
+                translations.getString(id), unknownSender));
+        }
+        texts.add(String.format(translations.getLocale(),
+            translations.getString(R.string.mms_from_x), unknownSender));
+
+        texts.remove("");
+        return new ArrayList<>(texts);
+    }
+
+    /**
+     * Without a known sender, everything before an SMS body is fixed: "SMS from unknown sender:".
+     *
+     * @param format {@link R.string#what_from_where_colon_body}
+     */
+    static String getUnknownSenderIntro(
+        Locale locale, String format, String kind, String unknownSender)
+    {
+        return String.format(locale, format, kind, unknownSender, "").trim();
+    }
+
+    /**
+     * The part of a format string before its first format specifier, without trailing
+     * whitespace.
+     */
+    static String getFixedPrefix(String format) {
+        int percent = format.indexOf('%');
+        if (percent >= 0) {
+            format = format.substring(0, percent);
+        }
+        return format.trim();
+    }
+
+    /**
+     * Find the longest phrase the text starts with. Phrases must end on a word boundary in the
+     * text, "SMS" doesn't match "SMSes".
+     *
+     * @return The length of the matching phrase, or 0 if none matched
+     */
+    static int findPrefix(List<String> phrases, String text) {
+        int best = 0;
+        for (String phrase: phrases) {
+            if (phrase.length() <= best || !text.startsWith(phrase)) {
+                continue;
+            }
+            if (text.length() > phrase.length()
+                && Character.isLetterOrDigit(text.charAt(phrase.length())))
+            {
+                continue;
+            }
+            best = phrase.length();
+        }
+        return best;
+    }
+
+    private File getDirectory(String enginePackage, Locale locale) {
+        return new File(new File(root, enginePackage), locale.toString());
+    }
+
+    static String getFileName(String phrase) {
+        return SpeechAudioCache.sha1(phrase) + AUDIO_SUFFIX;
+    }
+
+    private static File getTempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private List<String> getPhrases(File directory) {
+        List<String> known = phrases.get(directory.getPath());
+        if (known != null) {
+            return known;
+        }
+
+        known = readIndex(directory);
+        phrases.put(directory.getPath(), known);
+        return known;
+    }
+
+    private static List<String> readIndex(File directory) {
+        List<String> known = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(new File(directory, INDEX_FILE)), UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    known.add(line);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached for this engine and locale
+            return Collections.emptyList();
+        } catch (IOException e) {
+            Timber.w(e, "Reading phrase index from %s failed", directory);
+            return Collections.emptyList();
+        }
+
+        // Longest first
+        Collections.sort(known, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return rhs.length() - lhs.length();
+            }
+        });
+        return known;
+    }
+
+    private void writeIndex(File directory, List<String> texts) {
+        if (!writeLines(new File(directory, INDEX_FILE), texts)) {
+            deleteRecursively(directory);
+        }
+        phrases.remove(directory.getPath());
+    }
+
+    @Nullable
+    private String readSignature() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(new File(root, SIGNATURE_FILE)), UTF_8)))
+        {
+            return reader.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeSignature(String signature) {
+        if (!root.isDirectory() && !root.mkdirs()) {
+            Timber.w("Failed to create phrase cache directory %s", root);
+            return;
+        }
+        writeLines(new File(root, SIGNATURE_FILE), Collections.singletonList(signature));
+    }
+
+    /**
+     * Write to a temporary file and rename, so that we never leave a half written file behind.
+     *
+     * @return true on success
+     */
+    private static boolean writeLines(File file, List<String> lines) {
+        File tempFile = getTempFile(file);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(tempFile), UTF_8)))
+        {
+            for (String line: lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Writing %s failed", file);
+            return false;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            Timber.w("Renaming %s to %s failed", tempFile, file);
+            return false;
+        }
+        return true;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Timber.w("Failed to delete %s", file);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts results from parallel work back into the order the work arrived in.
+ * <p/>
+ * Call {@link #reserve()} when work arrives, and {@link #complete(long, Object)} when it's
+ * done. Results are released only once everything that arrived before them is done as well.
+ *
+ * @param <T> The type of result
+ */
+class ReorderBuffer<T> {
+    private long nextReserved;
+    private long nextReleased;
+
+    /**
+     * Completed results we can't release yet, by sequence number. Null values are work that
+     * didn't produce anything.
+     */
+    private final Map<Long, T> completed = new HashMap<>();
+
+    /**
+     * @return A sequence number to pass to {@link #complete(long, Object)}
+     */
+    public synchronized long reserve() {
+        return nextReserved++;
+    }
+
+    /**
+     * @param result Null if this work didn't produce anything, it will still unblock later
+     *               results
+     * @return Results that can now be released, in arrival order. May be empty.
+     */
+    public synchronized List<T> complete(long sequence, @Nullable T result) {
+        boolean reserved = sequence >= nextReleased && sequence < nextReserved;
+        if (!reserved || completed.containsKey(sequence)) {
+            throw new IllegalArgumentException("Not waiting for " + sequence);
+        }
+        completed.put(sequence, result);
+
+        List<T> released = new ArrayList<>();
+        while (completed.containsKey(nextReleased)) {
+            T next = completed.remove(nextReleased);
+            nextReleased++;
+            if (next != null) {
+                released.add(next);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * How many results we're waiting for, or holding back.
+     */
+    public synchronized int getInFlightCount() {
+        return (int)(nextReserved - nextReleased);
+    }
+}
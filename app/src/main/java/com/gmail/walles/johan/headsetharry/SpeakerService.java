@@ -22,7 +22,10 @@ package com.gmail.walles.johan.headsetharry;
 import android.app.Service;
 import android.content.ComponentCallbacks2;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 
 import com.crashlytics.android.answers.CustomEvent;
@@ -37,23 +40,121 @@ import com.google.common.base.Optional;
 import org.jetbrains.annotations.NonNls;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import timber.log.Timber;
 
+/**
+ * Turns incoming events into speech.
+ * <p/>
+ * Events go through three stages:<ol>
+ * <li>Intake, on the main thread. Picks a presenter and drops events nobody will hear. Must be
+ * quick.
+ * <li>Preparation, on a pool of background threads. Presenters build announcements here, which
+ * can mean contact lookups and language detection. Events for different presenters may be
+ * prepared in parallel, and a {@link ReorderBuffer} puts them back in arrival order afterwards.
+ * Events for the same presenter are prepared one at a time in arrival order, since presenters
+ * keep duplicate detection state that isn't thread safe.
+ * <li>Speech, in an {@link EventLoop} on a single speech thread. Owns the announcement queue
+ * and talks to {@link SpeechSession}. Prepared announcements, callbacks from TTS and audio
+ * routing, and timers are all posted here as events.
+ * </ol>
+ */
 public class SpeakerService extends Service {
+    /**
+     * Preparing is mostly waiting for content providers and disk, no point in more threads than
+     * this.
+     */
+    private static final int PREPARE_THREADS = 2;
+
     /**
      * After this much time it's OK to say the same thing again.
      */
     private static final long MAX_DUPLICATE_AGE_MS = 30_000;
 
+    /**
+     * If we haven't heard back from TTS after this long, we assume it's done.
+     */
+    private static final long MAX_SPEECH_MS = 60_000;
+
     @NonNls
     public static final String SPEAK_ACTION = "com.gmail.walles.johan.headsetharry.speak_action";
 
+    /**
+     * Events that arrived without a headset, see {@link #onStartCommand(Intent, int, int)}.
+     * Static so that the counts survive service restarts.
+     */
+    private static final PendingAnnouncements<Intent> PENDING = new PendingAnnouncements<>();
+
+    /**
+     * Runs {@link Presenter#getAnnouncement(Intent)}.
+     */
+    @Nullable
+    private ExecutorService preparer;
+
+    /**
+     * One queue per presenter, all sharing {@link #preparer}. Only touched on the main thread.
+     */
+    private final Map<Presenter, SerialExecutor> presenterQueues = new HashMap<>();
+
+    private final ReorderBuffer<TimestampedAnnouncement> arrivalOrder = new ReorderBuffer<>();
+
+    @Nullable
+    private HandlerThread speechThread;
+
+    @Nullable
+    private Handler speechHandler;
+
+    /**
+     * Runs on {@link #speechThread}. The announcement queue, {@link #lastAnnouncement},
+     * {@link #session} and {@link #speechStartTimestamp} are only ever touched by events in
+     * here, see {@link #postEvent(Runnable)}.
+     */
+    @Nullable
+    private EventLoop eventLoop;
+
+    /**
+     * For {@link #dumpStats()}, outlives the service.
+     */
+    @Nullable
+    private static volatile EventLoop latestEventLoop;
+
+    /**
+     * For {@link SpeechSession}'s timers and callbacks.
+     */
+    private final EventPoster events = new EventPoster() {
+        @Override
+        public void post(Runnable event) {
+            postEvent(event);
+        }
+
+        @Override
+        public void postDelayed(Runnable event, long delayMs) {
+            postEventDelayed(event, delayMs);
+        }
+    };
+
+    /**
+     * Set by {@link #onDestroy()}, after which no new sessions are opened.
+     */
+    private boolean destroyed;
+
+    private final Runnable dequeueEvent = new Runnable() {
+        @Override
+        public void run() {
+            dequeue();
+        }
+    };
+
     @Nullable
     private TimestampedAnnouncement lastAnnouncement;
 
@@ -61,15 +162,45 @@ public class SpeakerService extends Service {
 
     private final Set<Presenter> presenters;
 
+    /**
+     * Kept open while we have things to say, see {@link SpeechSession}.
+     */
+    @Nullable
+    private SpeechSession session;
+
+    private final AudioRouteTracker.Listener routeListener = new AudioRouteTracker.Listener() {
+        @Override
+        public void onRouteChanged(AudioRouteTracker.Route route) {
+            if (!route.hasHeadset()) {
+                return;
+            }
+
+            List<Intent> pending = PENDING.drain(System.currentTimeMillis());
+            if (!pending.isEmpty()) {
+                Timber.i("Headset connected, presenting %d recent events", pending.size());
+            }
+            for (Intent intent: pending) {
+                Optional<Presenter> presenter = getPresenter(intent);
+                if (presenter.isPresent()) {
+                    present(presenter.get(), intent);
+                }
+            }
+        }
+    };
+
     private static class TimestampedAnnouncement {
         public final long timestamp;
         public final List<TextWithLocale> announcement;
         public final String presenterName;
+        public final boolean mayCacheSpeech;
 
-        public TimestampedAnnouncement(List<TextWithLocale> announcement, String presenterName) {
+        public TimestampedAnnouncement(
+            List<TextWithLocale> announcement, String presenterName, boolean mayCacheSpeech)
+        {
             this.timestamp = System.currentTimeMillis();
             this.announcement = announcement;
             this.presenterName = presenterName;
+            this.mayCacheSpeech = mayCacheSpeech;
         }
     }
 
@@ -96,11 +227,57 @@ public class SpeakerService extends Service {
         super.onCreate();
         LoggingUtils.setUpLogging(this);
         Timber.d("SpeakerService started");
+
+        preparer = Executors.newFixedThreadPool(PREPARE_THREADS);
+        speechThread = new HandlerThread("Speech"); //NON-NLS
+        speechThread.start();
+        final Handler speechHandler = new Handler(speechThread.getLooper());
+        this.speechHandler = speechHandler;
+        eventLoop = new EventLoop(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                if (!speechHandler.post(runnable)) {
+                    Timber.w("Speech thread gone, not running events");
+                }
+            }
+        });
+        latestEventLoop = eventLoop;
+
+        TtsPool.getInstance().setPreferences(PreferenceManager.getDefaultSharedPreferences(this));
+
+        // Start tracking headsets now, so that we know what's connected once we need to
+        AudioRouteTracker.getInstance(this).addListener(routeListener);
+
+        PhraseCache.getInstance(this).refresh(this, false);
     }
 
     @Override
     public void onDestroy() {
         Timber.d("SpeakerService stopping");
+        AudioRouteTracker.getInstance(this).removeListener(routeListener);
+
+        if (preparer != null) {
+            preparer.shutdownNow();
+            preparer = null;
+        }
+        presenterQueues.clear();
+
+        postEvent(new Runnable() {
+            @Override
+            public void run() {
+                destroyed = true;
+                if (session != null) {
+                    session.close();
+                    session = null;
+                }
+            }
+        });
+        if (speechThread != null) {
+            // Let the session close before quitting
+            speechThread.quitSafely();
+            speechThread = null;
+        }
+
         super.onDestroy();
     }
 
@@ -108,6 +285,7 @@ public class SpeakerService extends Service {
     public void onTrimMemory(int level) {
         Timber.d("SpeakerService notified of low memory, level %d/%d",
             level, ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        CacheRegistry.onTrimMemory(level);
         super.onTrimMemory(level);
     }
 
@@ -123,26 +301,146 @@ public class SpeakerService extends Service {
             return START_NOT_STICKY;
         }
 
+        if (!mayHaveHeadset()) {
+            // Nobody will hear this, don't bother building an announcement. Keep it around for a
+            // bit though, in case a headset is being connected right now.
+            Timber.d("No headset, not presenting %s", intent);
+            PENDING.add(
+                intent, presenter.get().getClass().getSimpleName(), System.currentTimeMillis());
+            return START_NOT_STICKY;
+        }
+
+        present(presenter.get(), intent);
+
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Cheap check based on {@link AudioRouteTracker}, false means there's definitely nobody
+     * listening.
+     */
+    private boolean mayHaveHeadset() {
+        return AudioRouteTracker.getInstance(this).getRoute().hasHeadset()
+            || EmulatorUtils.isRunningOnEmulator();
+    }
+
+    /**
+     * Build an announcement in the background and queue it for speaking. Call on the main
+     * thread.
+     */
+    private void present(final Presenter presenter, final Intent intent) {
+        ExecutorService preparer = this.preparer;
+        if (preparer == null) {
+            Timber.w("Not presenting %s, shutting down", intent);
+            return;
+        }
+
+        SerialExecutor presenterQueue = presenterQueues.get(presenter);
+        if (presenterQueue == null) {
+            presenterQueue = new SerialExecutor(preparer);
+            presenterQueues.put(presenter, presenterQueue);
+        }
+
+        final long sequence = arrivalOrder.reserve();
+        presenterQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                TimestampedAnnouncement prepared = null;
+                try {
+                    prepared = prepare(presenter, intent);
+                } catch (RuntimeException e) {
+                    Timber.e(e, "Preparing announcement failed: %s", intent);
+                } finally {
+                    // Always, or everything arriving after this would be held back forever
+                    complete(sequence, prepared);
+                }
+            }
+        });
+    }
+
+    /**
+     * Release a prepared announcement in arrival order from the event loop. Releasing from the
+     * preparer thread would let two preparer threads race each other to the event loop.
+     *
+     * @param prepared Null if there's nothing to say
+     */
+    private void complete(final long sequence, @Nullable final TimestampedAnnouncement prepared) {
+        postEvent(new Runnable() {
+            @Override
+            public void run() {
+                List<TimestampedAnnouncement> released = arrivalOrder.complete(sequence, prepared);
+                for (TimestampedAnnouncement entry: released) {
+                    enqueue(entry);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on a preparer thread.
+     *
+     * @return null if there's nothing to say
+     */
+    @Nullable
+    private static TimestampedAnnouncement prepare(Presenter presenter, Intent intent) {
         Optional<List<TextWithLocale>> announcement;
         try {
-            announcement = presenter.get().getAnnouncement(intent);
+            announcement = presenter.getAnnouncement(intent);
         } catch (IllegalArgumentException e) {
             Timber.w(e, "Failed to parse incoming intent");
-            return START_NOT_STICKY;
+            return null;
         }
         if (!announcement.isPresent()) {
-            return START_NOT_STICKY;
+            return null;
         }
         if (announcement.get().isEmpty()) {
-            return START_NOT_STICKY;
+            return null;
         }
 
-        enqueue(announcement.get(), presenter.get().getClass().getSimpleName());
+        return new TimestampedAnnouncement(
+            announcement.get(), presenter.getClass().getSimpleName(), presenter.mayCacheSpeech());
+    }
 
-        return START_NOT_STICKY;
+    /**
+     * Run something in the event loop, where the announcement queue lives. Call from any
+     * thread.
+     */
+    private void postEvent(Runnable event) {
+        EventLoop eventLoop = this.eventLoop;
+        if (eventLoop == null) {
+            Timber.w("No event loop, dropping %s", event);
+            return;
+        }
+        eventLoop.post(event);
     }
 
-    private void enqueue(List<TextWithLocale> announcement, String presenterName) {
+    /**
+     * Post an event to the event loop after a delay.
+     */
+    private void postEventDelayed(final Runnable event, long delayMs) {
+        Handler speechHandler = this.speechHandler;
+        if (speechHandler == null) {
+            Timber.w("No speech thread, dropping %s", event);
+            return;
+        }
+        speechHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                postEvent(event);
+            }
+        }, delayMs);
+    }
+
+    /**
+     * How much presenter work we've skipped for lack of a headset, and how the event loop is
+     * keeping up.
+     */
+    public static String dumpStats() {
+        EventLoop eventLoop = latestEventLoop;
+        return PENDING.dump() + (eventLoop == null ? "" : eventLoop.dump());
+    }
+
+    private void enqueue(TimestampedAnnouncement announcement) {
         if (!announcementQueue.isEmpty()) {
             long oldestAnnouncementAgeMs = System.currentTimeMillis() - announcementQueue.get(0).timestamp;
             if (oldestAnnouncementAgeMs > 30_000) {
@@ -150,7 +448,7 @@ public class SpeakerService extends Service {
                 Timber.w(new Exception(message), "%s", message);
             }
         }
-        announcementQueue.add(new TimestampedAnnouncement(announcement, presenterName));
+        announcementQueue.add(announcement);
         dequeue();
     }
 
@@ -179,41 +477,129 @@ public class SpeakerService extends Service {
     }
 
     private void dequeue() {
+        if (destroyed) {
+            return;
+        }
         if (isSpeaking()) {
             return;
         }
         if (announcementQueue.isEmpty()) {
+            if (session != null) {
+                session.closeAfterLinger();
+            }
             return;
         }
 
         final TimestampedAnnouncement entry = announcementQueue.remove(0);
         if (isDuplicate(entry)) {
             Timber.i("Dropping duplicate %s announcement: %s", entry.presenterName, entry.announcement);
+            dequeue();
             return;
         }
 
-        boolean speechStarted = AudioUtils.speakOverHeadset(this, entry.announcement, new TtsUtils.CompletionListener() {
+        // Set before starting, the listeners may be called before we return from here
+        speechStartTimestamp = System.currentTimeMillis();
+
+        // In case TTS never calls us back. With some margin, isSpeaking() uses the wall clock.
+        postEventDelayed(dequeueEvent, MAX_SPEECH_MS + 1000);
+
+        speakOverSession(entry);
+    }
+
+    /**
+     * Speak over the open session if it's still usable, or open a new one.
+     */
+    private void speakOverSession(final TimestampedAnnouncement entry) {
+        if (session != null && session.isUsable()) {
+            Timber.v("Re-using open speech session");
+            speak(session, entry);
+            return;
+        }
+
+        if (session != null) {
+            // The route changed under our feet
+            session.close();
+        }
+        final SpeechSession newSession = new SpeechSession(this, events);
+        session = newSession;
+        boolean mayHaveHeadset = newSession.open(new SpeechSession.OpenListener() {
             @Override
-            public void onSuccess() {
-                speechStartTimestamp = 0;
-                dequeue();
+            public void onOpened() {
+                postEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        speak(newSession, entry);
+                    }
+                });
             }
 
             @Override
-            public void onFailure(@Nullable Locale locale, @NonNls String errorMessage) {
-                speechStartTimestamp = 0;
-                Timber.e(new Exception(errorMessage), "%s", errorMessage);
-                dequeue();
+            public void onNoHeadset() {
+                postEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (session == newSession) {
+                            session = null;
+                        }
+                        speechStartTimestamp = 0;
+                        dequeue();
+                    }
+                });
             }
         });
 
-        if (speechStarted) {
-            speechStartTimestamp = System.currentTimeMillis();
+        if (!mayHaveHeadset) {
+            Timber.i("No headset, dropping %s announcement", entry.presenterName);
+            session = null;
+            speechStartTimestamp = 0;
+
+            // Like onNoHeadset(), move on to whatever is queued behind this one
+            postEvent(dequeueEvent);
+        }
+    }
+
+    private void speak(SpeechSession session, TimestampedAnnouncement entry) {
+        TtsUtils.CompletionListener completionListener = new TtsUtils.CompletionListener() {
+            @Override
+            public void onSuccess() {
+                postEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        speechStartTimestamp = 0;
+                        dequeue();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(@Nullable Locale locale, @NonNls final String errorMessage) {
+                postEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        speechStartTimestamp = 0;
+                        Timber.e(new Exception(errorMessage), "%s", errorMessage);
+                        dequeue();
+                    }
+                });
+            }
+        };
 
-            LoggingUtils.logCustom(
-                new CustomEvent("Announcement Sent to TTS"). //NON-NLS
-                    putCustomAttribute("Presenter", entry.presenterName)); //NON-NLS
+        if (!session.speak(entry.announcement, entry.mayCacheSpeech, completionListener)) {
+            // Closed before we got to it
+            if (this.session == session) {
+                this.session = null;
+            }
+            if (destroyed) {
+                speechStartTimestamp = 0;
+                return;
+            }
+            speakOverSession(entry);
+            return;
         }
+
+        LoggingUtils.logCustom(
+            new CustomEvent("Announcement Sent to TTS"). //NON-NLS
+                putCustomAttribute("Presenter", entry.presenterName)); //NON-NLS
     }
 
     private boolean isSpeaking() {
@@ -221,7 +607,7 @@ public class SpeakerService extends Service {
             return false;
         }
         long speechDurationMs = System.currentTimeMillis() - speechStartTimestamp;
-        if (speechDurationMs > 60000) {
+        if (speechDurationMs >= MAX_SPEECH_MS) {
             @NonNls String message = "Still speaking after " + speechDurationMs + "ms, pretending we're done";
             Timber.w(new Exception(message), "%s", message);
             return false;
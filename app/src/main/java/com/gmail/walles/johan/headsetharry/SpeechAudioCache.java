@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Synthesized speech for recently spoken texts, on disk.
+ * <p/>
+ * Files are named by a hash of engine, voice, locale and text, so the same text spoken the same
+ * way always ends up in the same file. The cache has a byte budget; the least recently used
+ * files are deleted to stay within it. Recency survives restarts through the files' last
+ * modified timestamps.
+ * <p/>
+ * A text is cached the second time we miss it, texts that are only ever spoken once aren't worth
+ * synthesizing twice.
+ * <p/>
+ * Only texts without personal data go in here, like network names and our own phrases. Message
+ * contents are never cached, see {@link TtsUtils#speak}.
+ * <p/>
+ * Files are checked before being used: the size must be what we recorded when the file was
+ * added, and it must have started out as a WAV file.
+ */
+public class SpeechAudioCache {
+    private static final long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+
+    /**
+     * How many missed keys to remember when deciding what's worth caching.
+     */
+    private static final int MAX_REMEMBERED_MISSES = 100;
+
+    /**
+     * Size of a canonical WAV header. Anything this small contains no audio.
+     */
+    private static final int WAV_HEADER_BYTES = 44;
+
+    @NonNls
+    private static final String DIRECTORY = "speech";
+    @NonNls
+    private static final String AUDIO_SUFFIX = ".wav";
+    @NonNls
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Nullable
+    private static SpeechAudioCache instance;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * File sizes by key, least recently used first. Null until loaded.
+     */
+    @Nullable
+    private LinkedHashMap<String, Long> entries;
+    private long bytes;
+
+    private final LinkedHashMap<String, Boolean> recentMisses =
+        new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_REMEMBERED_MISSES;
+            }
+        };
+
+    private int hitCount;
+    private int missCount;
+
+    public SpeechAudioCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized SpeechAudioCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new SpeechAudioCache(
+                new File(context.getCacheDir(), DIRECTORY), DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Content address for some text spoken in a particular way.
+     *
+     * @param voice Voice name, or empty if the engine can't tell
+     */
+    public static String getKey(String enginePackage, String voice, Locale locale, String text) {
+        return sha1(enginePackage + '\n' + voice + '\n' + locale + '\n' + text);
+    }
+
+    /**
+     * Lower case hex SHA-1 of a string's UTF-8 bytes.
+     */
+    public static String sha1(String string) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder hex = new StringBuilder();
+            for (byte b: digest.digest(string.getBytes(UTF_8))) {
+                hex.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnsupportedOperationException("Every Java implementation must support SHA-1", e);
+        }
+    }
+
+    /**
+     * @return The cached audio for this key, or null if we don't have any
+     */
+    @Nullable
+    public synchronized File get(String key) {
+        Map<String, Long> entries = getEntries();
+        Long size = entries.get(key);
+        File file = getFile(key);
+        if (size == null) {
+            missCount++;
+            return null;
+        }
+
+        if (file.length() != size) {
+            Timber.w("Cached speech %s changed size from %d to %d, dropping it",
+                file, size, file.length());
+            remove(key);
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            Timber.v("Failed to touch %s", file);
+        }
+        return file;
+    }
+
+    /**
+     * Note that we didn't have a key.
+     *
+     * @return true if we missed this key recently as well, so it's worth caching
+     */
+    public synchronized boolean recordMiss(String key) {
+        return recentMisses.put(key, Boolean.TRUE) != null;
+    }
+
+    /**
+     * Where to synthesize audio before calling {@link #put(String)}.
+     */
+    public synchronized File getTempFile(String key) {
+        // Loading cleans up temp files, make sure that's done before we hand any out
+        getEntries();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Timber.w("Failed to create speech cache directory %s", directory);
+        }
+        return new File(directory, key + TEMP_SUFFIX);
+    }
+
+    /**
+     * Move a synthesized {@link #getTempFile(String)} into the cache.
+     *
+     * @return true if the file was added
+     */
+    public synchronized boolean put(String key) {
+        File tempFile = getTempFile(key);
+        if (!isWav(tempFile)) {
+            Timber.w("Not caching %s, it doesn't look like a WAV file", tempFile);
+            delete(tempFile);
+            return false;
+        }
+        if (tempFile.length() > maxBytes) {
+            Timber.d("Not caching %s, it's bigger than the whole cache", tempFile);
+            delete(tempFile);
+            return false;
+        }
+
+        Map<String, Long> entries = getEntries();
+        if (entries.containsKey(key)) {
+            remove(key);
+        }
+
+        File file = getFile(key);
+        if (!tempFile.renameTo(file)) {
+            Timber.w("Renaming %s to %s failed", tempFile, file);
+            delete(tempFile);
+            return false;
+        }
+
+        long size = file.length();
+        entries.put(key, size);
+        bytes += size;
+        recentMisses.remove(key);
+        evict();
+        return true;
+    }
+
+    /**
+     * Throw away a {@link #getTempFile(String)} that won't be {@link #put(String)}.
+     */
+    public void discard(String key) {
+        delete(getTempFile(key));
+    }
+
+    public synchronized int size() {
+        return getEntries().size();
+    }
+
+    public synchronized long getBytes() {
+        getEntries();
+        return bytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key + AUDIO_SUFFIX);
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = getEntries().entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.getValue();
+            delete(getFile(eldest.getKey()));
+            Timber.v("Evicted cached speech %s", eldest.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        Long size = getEntries().remove(key);
+        if (size != null) {
+            bytes -= size;
+        }
+        delete(getFile(key));
+    }
+
+    private Map<String, Long> getEntries() {
+        if (entries != null) {
+            return entries;
+        }
+
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        bytes = 0;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return entries;
+        }
+
+        // Least recently used first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file: files) {
+            String name = file.getName();
+            if (!name.endsWith(AUDIO_SUFFIX) || !isWav(file)) {
+                // Left over from some synthesis that never finished, or broken
+                delete(file);
+                continue;
+            }
+
+            long size = file.length();
+            entries.put(name.substring(0, name.length() - AUDIO_SUFFIX.length()), size);
+            bytes += size;
+        }
+        Timber.d("Loaded %d cached speech files, %d bytes", entries.size(), bytes);
+
+        evict();
+        return entries;
+    }
+
+    private static boolean isWav(File file) {
+        if (file.length() <= WAV_HEADER_BYTES) {
+            return false;
+        }
+
+        byte[] magic = new byte[4];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            if (inputStream.read(magic) != magic.length) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return magic[0] == 'R' && magic[1] == 'I' && magic[2] == 'F' && magic[3] == 'F';
+    }
+
+    /**
+     * How long a WAV file plays, based on the byte rate in its header.
+     *
+     * @return 0 if the file isn't a WAV file we understand
+     */
+    static long getWavDurationMs(File file) {
+        if (!isWav(file)) {
+            return 0;
+        }
+
+        byte[] header = new byte[WAV_HEADER_BYTES];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            if (inputStream.read(header) != header.length) {
+                return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+
+        // Little endian int at offset 28
+        long byteRate = (header[28] & 0xff)
+            | (header[29] & 0xff) << 8
+            | (header[30] & 0xff) << 16
+            | (long)(header[31] & 0xff) << 24;
+        if (byteRate == 0) {
+            return 0;
+        }
+        return (file.length() - WAV_HEADER_BYTES) * 1000 / byteRate;
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Timber.w("Failed to delete %s", file);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.speech.tts.TextToSpeech;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Synthesizes texts into the {@link SpeechAudioCache} once we've stopped talking.
+ * <p/>
+ * Engines run synthesis in the same queue as speech. Synthesizing in between utterances would make
+ * the next utterance wait for it, and borrowing engines between announcements would make the next
+ * announcement bind a fresh engine. So announcements only {@link #schedule(List)} their jobs, and
+ * {@link SpeechSession} calls {@link #writePending(Context)} once it closes for lack of anything
+ * more to say.
+ * <p/>
+ * Writes borrow idle engines from the {@link TtsPool}. If there's no idle engine for a locale,
+ * that locale's writes are skipped; the texts will be cached next time they're spoken.
+ */
+class SpeechCacheWriter {
+    /**
+     * Jobs past this many are dropped, they will come back if their texts keep being spoken.
+     */
+    private static final int MAX_PENDING_JOBS = 20;
+
+    private static final AtomicInteger lastId = new AtomicInteger();
+
+    private static final List<Job> pending = new ArrayList<>();
+
+    static class Job {
+        public final Locale locale;
+        public final String text;
+        public final String cacheKey;
+
+        Job(Locale locale, String text, String cacheKey) {
+            this.locale = locale;
+            this.text = text;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    private SpeechCacheWriter() {
+        throw new UnsupportedOperationException("Utility class, please don't instantiate");
+    }
+
+    /**
+     * Remember some jobs for the next {@link #writePending(Context)}.
+     */
+    static synchronized void schedule(List<Job> jobs) {
+        for (Job job: jobs) {
+            if (pending.size() >= MAX_PENDING_JOBS) {
+                Timber.d("Too many pending speech cache writes, dropping some");
+                return;
+            }
+            pending.add(job);
+        }
+    }
+
+    /**
+     * Start synthesizing everything {@link #schedule(List)}d so far. Call when we're done
+     * speaking for now.
+     */
+    static void writePending(Context context) {
+        List<Job> jobs;
+        synchronized (SpeechCacheWriter.class) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            jobs = new ArrayList<>(pending);
+            pending.clear();
+        }
+        write(context, jobs);
+    }
+
+    private static void write(Context context, List<Job> jobs) {
+        Map<Locale, List<Job>> byLocale = new LinkedHashMap<>();
+        for (Job job: jobs) {
+            List<Job> localeJobs = byLocale.get(job.locale);
+            if (localeJobs == null) {
+                localeJobs = new ArrayList<>();
+                byLocale.put(job.locale, localeJobs);
+            }
+            localeJobs.add(job);
+        }
+
+        for (Map.Entry<Locale, List<Job>> entry: byLocale.entrySet()) {
+            SpeechEngine tts = TtsPool.getInstance().acquire(entry.getKey());
+            if (tts == null) {
+                Timber.d("No idle TTS for %s, not caching %d texts",
+                    entry.getKey(), entry.getValue().size());
+                continue;
+            }
+            new Batch(context, entry.getKey(), tts).start(entry.getValue());
+        }
+    }
+
+    /**
+     * Cache writes for one locale, on one engine.
+     */
+    private static class Batch implements SpeechEngine.ProgressListener {
+        private final Context context;
+        private final Locale locale;
+        private final SpeechEngine tts;
+        private final SpeechAudioCache speechCache;
+
+        /**
+         * Cache keys by utterance ID.
+         */
+        private final Map<String, String> pending = new HashMap<>();
+
+        /**
+         * When synthesis started, for measuring the engine's real time factor.
+         */
+        private final Map<String, Long> startMs = new HashMap<>();
+
+        private boolean released;
+
+        Batch(Context context, Locale locale, SpeechEngine tts) {
+            this.context = context;
+            this.locale = locale;
+            this.tts = tts;
+            this.speechCache = SpeechAudioCache.getInstance(context);
+        }
+
+        synchronized void start(List<Job> jobs) {
+            String enginePackage = TtsPool.getInstance().getEnginePackage(tts);
+            String voice = tts.getVoiceName();
+            tts.setProgressListener(this);
+
+            for (Job job: jobs) {
+                String key = enginePackage == null
+                    ? null : SpeechAudioCache.getKey(enginePackage, voice, locale, job.text);
+                if (!job.cacheKey.equals(key)) {
+                    // The pool gave us some other engine or voice
+                    continue;
+                }
+
+                @NonNls String utteranceId = "cache-" + lastId.incrementAndGet();
+                int status = tts.synthesizeToFile(
+                    job.text, utteranceId, speechCache.getTempFile(job.cacheKey));
+                if (status != TextToSpeech.SUCCESS) {
+                    Timber.w("Enqueueing speech cache synthesis failed: %d", status);
+                    speechCache.discard(job.cacheKey);
+                    continue;
+                }
+                pending.put(utteranceId, job.cacheKey);
+            }
+
+            releaseIfDone();
+        }
+
+        @Override
+        public synchronized void onStart(String utteranceId) {
+            if (pending.containsKey(utteranceId)) {
+                startMs.put(utteranceId, System.currentTimeMillis());
+            }
+        }
+
+        @Override
+        public synchronized void onDone(String utteranceId) {
+            String cacheKey = pending.remove(utteranceId);
+            if (cacheKey == null) {
+                // Not ours
+                return;
+            }
+
+            recordRealTimeFactor(utteranceId, cacheKey);
+            speechCache.put(cacheKey);
+            releaseIfDone();
+        }
+
+        @Override
+        public void onError(String utteranceId) {
+            onFailed(utteranceId, "failed");
+        }
+
+        @Override
+        public void onStop(String utteranceId, boolean interrupted) {
+            onFailed(utteranceId, interrupted ? "interrupted" : "dropped");
+        }
+
+        private synchronized void onFailed(String utteranceId, @NonNls String notCompleted) {
+            String cacheKey = pending.remove(utteranceId);
+            if (cacheKey == null) {
+                return;
+            }
+
+            Timber.w("Synthesizing speech for the cache %s", notCompleted);
+            startMs.remove(utteranceId);
+            speechCache.discard(cacheKey);
+            releaseIfDone();
+        }
+
+        /**
+         * How long synthesizing took compared to how long the result is tells us how fast the
+         * engine is, without any audio playback in the way.
+         */
+        private void recordRealTimeFactor(String utteranceId, String cacheKey) {
+            Long started = startMs.remove(utteranceId);
+            String enginePackage = TtsPool.getInstance().getEnginePackage(tts);
+            if (started == null || enginePackage == null) {
+                return;
+            }
+
+            long audioMs = SpeechAudioCache.getWavDurationMs(speechCache.getTempFile(cacheKey));
+            if (audioMs <= 0) {
+                return;
+            }
+
+            long synthesisMs = System.currentTimeMillis() - started;
+            EngineScores.recordRealTimeFactor(
+                context, enginePackage, locale, synthesisMs / (double)audioMs);
+        }
+
+        private void releaseIfDone() {
+            if (released || !pending.isEmpty()) {
+                return;
+            }
+            released = true;
+            TtsPool.getInstance().release(tts);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A text to speech engine.
+ * <p/>
+ * {@link AndroidSpeechEngine} is the real thing. {@link TtsUtils} only talks to engines through
+ * this interface, so that engine lookup and queueing can be exercised against simulated engines
+ * in unit tests.
+ * <p/>
+ * Return codes and precision values are the ones from
+ * {@link android.speech.tts.TextToSpeech}.
+ */
+public interface SpeechEngine {
+    interface InitListener {
+        /**
+         * May be called before {@link Factory#create(String, InitListener)} has returned.
+         */
+        void onInit(boolean success);
+    }
+
+    interface ProgressListener {
+        void onStart(String utteranceId);
+        void onDone(String utteranceId);
+        void onError(String utteranceId);
+
+        /**
+         * @param interrupted true if the utterance was stopped while in progress, false if it was
+         * dropped from the queue before starting
+         */
+        void onStop(String utteranceId, boolean interrupted);
+    }
+
+    interface EngineListListener {
+        /**
+         * @param enginePackages All installed engines with the system default first, empty if
+         * listing them failed
+         */
+        void onListed(List<String> enginePackages);
+    }
+
+    interface Factory {
+        /**
+         * Start initializing an engine. Use the engine once the listener has been told it
+         * succeeded.
+         */
+        SpeechEngine create(String enginePackage, InitListener listener);
+
+        void listEngines(EngineListListener listener);
+
+        /**
+         * The clock engines from this factory run on, for timing them.
+         */
+        long getNowMs();
+    }
+
+    String getEnginePackage();
+
+    /**
+     * @return One of the LANG_* codes
+     */
+    int isLanguageAvailable(Locale locale);
+
+    /**
+     * @return One of the LANG_* codes
+     */
+    int setLanguage(Locale locale);
+
+    /**
+     * For logging.
+     */
+    @Nullable
+    Locale getLanguage();
+
+    /**
+     * @return The name of the current voice, or an empty string if we can't tell
+     */
+    String getVoiceName();
+
+    void setProgressListener(ProgressListener listener);
+
+    /**
+     * Add some text to the end of the speech queue.
+     *
+     * @param audioManagerStream The stream to speak on
+     * @return SUCCESS or ERROR
+     */
+    int speak(String text, @NonNls String utteranceId, int audioManagerStream);
+
+    /**
+     * Add an audio file to the end of the speech queue.
+     *
+     * @param audioManagerStream The stream to play it on
+     * @return SUCCESS or ERROR
+     */
+    int playFile(File audio, @NonNls String utteranceId, int audioManagerStream);
+
+    /**
+     * Add synthesizing some text into a WAV file to the end of the speech queue.
+     *
+     * @return SUCCESS or ERROR
+     */
+    int synthesizeToFile(String text, @NonNls String utteranceId, File file);
+
+    /**
+     * Drop everything queued, and stop whatever is in progress.
+     */
+    void stop();
+
+    void shutdown();
+}
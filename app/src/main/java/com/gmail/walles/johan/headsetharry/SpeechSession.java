@@ -0,0 +1,290 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * An audio route to a headset, held open across back-to-back announcements.
+ * <p/>
+ * Opening a session finds out where our speech should go, bringing up Bluetooth SCO if that's
+ * what it takes. The first announcement requests audio focus. Both the SCO link and audio focus
+ * are then kept until the session is closed, so a burst of announcements costs one SCO
+ * setup and ducks other audio once.
+ * <p/>
+ * {@link SpeakerService} asks for the session to be closed with
+ * {@link #closeAfterLinger()} when its queue runs empty. If more announcements come in before
+ * {@link #LINGER_MS} has passed, the session is re-used.
+ * <p/>
+ * Not thread safe. All methods must be called from {@link SpeakerService}'s {@link EventLoop},
+ * and our own timers and callbacks are posted there through the {@link EventPoster}.
+ */
+class SpeechSession {
+    /**
+     * How long to keep the route open after the last announcement.
+     */
+    private static final long LINGER_MS = 3000;
+
+    interface OpenListener {
+        /**
+         * The session is ready for {@link #speak(List, boolean, TtsUtils.CompletionListener)}.
+         */
+        void onOpened();
+
+        /**
+         * No headset turned out to be connected, the session is closed.
+         */
+        void onNoHeadset();
+    }
+
+    private enum Route {
+        A2DP,
+        WIRED,
+        SCO,
+        EMULATOR,
+    }
+
+    private final Context context;
+    private final AudioManager audioManager;
+    private final EventPoster events;
+
+    // With A2DP enabled, STREAM_MUSIC goes to the headset only. STREAM_NOTIFICATION goes to
+    // the phone's speaker as well, and we don't want that.
+    private int audioManagerStream = AudioManager.STREAM_MUSIC;
+    private boolean weEnabledBluetoothSco = false;
+
+    /**
+     * Null until the session is open.
+     */
+    @Nullable
+    private Route route;
+    private boolean hasFocus;
+    private boolean closed;
+
+    /**
+     * Bumped to cancel any pending {@link #closeAfterLinger()}.
+     */
+    private int lingerGeneration;
+
+    SpeechSession(Context context, EventPoster events) {
+        this.context = context;
+        this.events = events;
+        this.audioManager = (AudioManager)context.getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    /**
+     * Find a headset to speak over. Must be called from the event loop, the listener will be
+     * called from there as well.
+     * <p/>
+     * If a Bluetooth SCO headset may be connected, we return right away and bring SCO audio up
+     * in the background.
+     *
+     * @return false if no headset was connected, true if the listener will be called
+     */
+    boolean open(final OpenListener listener) {
+        int audioMode = audioManager.getMode();
+        if (audioMode != AudioManager.MODE_NORMAL) {
+            Timber.i("Not speaking, audio mode not MODE_NORMAL: %d", audioMode);
+            closed = true;
+            return false;
+        }
+
+        AudioRouteTracker.Route connected = AudioRouteTracker.getInstance(context).getRoute();
+        if (connected.a2dp) {
+            Timber.d("Speaking, A2DP enabled");
+            onOpened(Route.A2DP, listener);
+            return true;
+        }
+
+        if (connected.wiredHeadset) {
+            Timber.d("Speaking, wired headphones connected");
+            onOpened(Route.WIRED, listener);
+            return true;
+        }
+
+        if (!connected.bluetoothHeadset && !connected.sco) {
+            Timber.d("No Bluetooth headset connected, not trying SCO");
+        } else if (!audioManager.isBluetoothScoAvailableOffCall()) {
+            Timber.d("Bluetooth SCO not available off call, not trying it");
+        } else {
+            new BluetoothScoStarter(context, events, new BluetoothScoStarter.Listener() {
+                @Override
+                public void onConnected(boolean weStartedIt) {
+                    // Was it by our request or anyway?
+                    weEnabledBluetoothSco = weStartedIt;
+                    if (closed) {
+                        // Closed while we were waiting for SCO, never mind
+                        release();
+                        return;
+                    }
+                    audioManagerStream = AudioManager.STREAM_VOICE_CALL;
+                    Timber.d("Speaking, SCO enabled");
+                    onOpened(Route.SCO, listener);
+                }
+
+                @Override
+                public void onFailed(@NonNls String reason) {
+                    if (!openOnEmulator(listener)) {
+                        listener.onNoHeadset();
+                    }
+                }
+            }).start();
+            return true;
+        }
+
+        return openOnEmulator(listener);
+    }
+
+    /**
+     * @return true if we're open, false if no headset was found
+     */
+    private boolean openOnEmulator(OpenListener listener) {
+        if (EmulatorUtils.isRunningOnEmulator()) {
+            Timber.d("Speaking, running in emulator");
+            onOpened(Route.EMULATOR, listener);
+            return true;
+        }
+
+        Timber.i("Not speaking; no headphones detected");
+        closed = true;
+        return false;
+    }
+
+    private void onOpened(Route route, OpenListener listener) {
+        this.route = route;
+        listener.onOpened();
+    }
+
+    /**
+     * @return true if the session is open and its route still goes to a headset
+     */
+    boolean isUsable() {
+        if (closed || route == null) {
+            return false;
+        }
+        if (audioManager.getMode() != AudioManager.MODE_NORMAL) {
+            return false;
+        }
+
+        AudioRouteTracker.Route connected = AudioRouteTracker.getInstance(context).getRoute();
+        switch (route) {
+            case A2DP:
+                return connected.a2dp;
+            case WIRED:
+                return connected.wiredHeadset;
+            case SCO:
+                return connected.sco;
+            case EMULATOR:
+                return true;
+            default:
+                throw new UnsupportedOperationException("Unhandled route: " + route);
+        }
+    }
+
+    /**
+     * Say something over this session's headset.
+     *
+     * @param mayCache True if the speech may be kept in the {@link SpeechAudioCache}
+     * @return false if the session is closed, nothing will be said and the listener won't be
+     * called
+     */
+    boolean speak(
+        List<TextWithLocale> announcement,
+        boolean mayCache,
+        TtsUtils.CompletionListener completionListener)
+    {
+        if (closed) {
+            // Requesting focus now would leave it requested forever, and with SCO stopped our
+            // STREAM_VOICE_CALL output could end up in the earpiece
+            Timber.w("Not speaking over closed session");
+            return false;
+        }
+
+        lingerGeneration++;
+        if (!hasFocus) {
+            audioManager.requestAudioFocus(
+                null, audioManagerStream, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK);
+            hasFocus = true;
+        }
+
+        TtsUtils.speak(context, announcement, mayCache, audioManagerStream, completionListener);
+        return true;
+    }
+
+    /**
+     * Close the session unless {@link #speak(List, boolean, TtsUtils.CompletionListener)} is called
+     * again soon.
+     */
+    void closeAfterLinger() {
+        if (closed) {
+            return;
+        }
+
+        // Through the event loop, so that we can't close between isUsable() and speak()
+        final int generation = ++lingerGeneration;
+        events.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != lingerGeneration) {
+                    // Used again, or closed already
+                    return;
+                }
+                Timber.d("No announcements for %dms, closing speech session", LINGER_MS);
+                close();
+
+                // Nothing left to say, so the engines are free for synthesis
+                SpeechCacheWriter.writePending(context);
+            }
+        }, LINGER_MS);
+    }
+
+    /**
+     * Give up audio focus and any SCO link we brought up.
+     */
+    void close() {
+        lingerGeneration++;
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+    }
+
+    private void release() {
+        if (hasFocus) {
+            audioManager.abandonAudioFocus(null);
+            hasFocus = false;
+        }
+        if (weEnabledBluetoothSco) {
+            @NonNls String status = audioManager.isBluetoothScoOn() ? "enabled": "disabled";
+            Timber.d("Disabling SCO, was %s", status);
+            audioManager.setBluetoothScoOn(false);
+            audioManager.stopBluetoothSco();
+        }
+    }
+}
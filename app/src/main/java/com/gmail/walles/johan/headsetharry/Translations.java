@@ -50,47 +50,50 @@ public class Translations {
      * <li>If that fails, we use strings from the fallback locale ("en")
      * </ol>
      */
-    // From: http://stackoverflow.com/a/9475663/473672
     public Translations(Context context, Locale locale, @StringRes int ... resourceIds) {
         idToStrings = new HashMap<>();
 
-        Resources res = context.getResources();
-        Configuration conf = res.getConfiguration();
-        Locale savedLocale = conf.locale;
+        // Resources for another locale in a context of their own, rather than switching the
+        // locale of the shared resources back and forth. Presenters run on several threads.
+        Resources res = getResources(context, locale);
+        Locale foundLocale = LocaleUtils.parseLocaleString(res.getString(R.string.locale));
 
-        try {
-            conf.locale = locale;
-            res.updateConfiguration(conf, null); // second arg null means don't change display metrics
-            Locale foundLocale = LocaleUtils.parseLocaleString(res.getString(R.string.locale));
+        if (!foundLocale.getLanguage().equals(locale.getLanguage())) {
+            LoggingUtils.logCustom(
+                new CustomEvent("Retrieve Translations"). //NON-NLS
+                    putCustomAttribute("Requested Translations Missing", locale.toString())); //NON-NLS
 
-            if (!foundLocale.getLanguage().equals(conf.locale.getLanguage())) {
+            Locale systemLocale = Locale.getDefault();
+            res = getResources(context, systemLocale);
+            foundLocale = LocaleUtils.parseLocaleString(res.getString(R.string.locale));
+
+            if (!foundLocale.getLanguage().equals(systemLocale.getLanguage())) {
                 LoggingUtils.logCustom(
                     new CustomEvent("Retrieve Translations"). //NON-NLS
-                        putCustomAttribute("Requested Translations Missing", conf.locale.toString())); //NON-NLS
-
-                conf.locale = Locale.getDefault();
-                res.updateConfiguration(conf, null); // second arg null means don't change display metrics
-                foundLocale = LocaleUtils.parseLocaleString(res.getString(R.string.locale));
-
-                if (!foundLocale.getLanguage().equals(conf.locale.getLanguage())) {
-                    LoggingUtils.logCustom(
-                        new CustomEvent("Retrieve Translations"). //NON-NLS
-                            putCustomAttribute("System Locale Translations Missing", conf.locale.toString())); //NON-NLS
-                }
+                        putCustomAttribute("System Locale Translations Missing", systemLocale.toString())); //NON-NLS
             }
-            this.locale = foundLocale;
+        }
+        this.locale = foundLocale;
 
-            // retrieve resources from desired locale
-            for (int resourceId: resourceIds) {
-                idToStrings.put(resourceId, res.getString(resourceId));
-            }
-        } finally {
-            // restore original locale
-            conf.locale = savedLocale;
-            res.updateConfiguration(conf, null);
+        // retrieve resources from desired locale
+        for (int resourceId: resourceIds) {
+            idToStrings.put(resourceId, res.getString(resourceId));
         }
     }
 
+    private static Resources getResources(Context context, Locale locale) {
+        Configuration conf = new Configuration(context.getResources().getConfiguration());
+        conf.setLocale(locale);
+        return context.createConfigurationContext(conf).getResources();
+    }
+
+    /**
+     * The locale we actually found strings for, may differ from the one asked for.
+     */
+    public Locale getLocale() {
+        return locale;
+    }
+
     /**
      * Retrieve a string for {@link #locale}.
      */
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+/**
+ * Something that holds on to memory it could let go of, see {@link CacheRegistry}.
+ */
+public interface TrimmableCache {
+    /**
+     * Approximately how many bytes this cache holds on to right now.
+     */
+    long getBytes();
+
+    /**
+     * Free memory as appropriate for a {@link android.content.ComponentCallbacks2} trim level.
+     * <p/>
+     * Caches without an opinion of their own can use {@link CacheRegistry#getDropFraction(int)}.
+     */
+    void onTrimMemory(int level);
+}
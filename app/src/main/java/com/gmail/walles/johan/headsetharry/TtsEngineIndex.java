@@ -0,0 +1,271 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.provider.Settings;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Remembers which TTS engine supports which locale, and how well.
+ * <p/>
+ * Finding an engine for a locale means initializing engines one by one and asking them. With
+ * this index we only need to do that once per locale, as long as the set of installed engines
+ * stays the same. The index is cleared when an engine is installed, updated or removed (see
+ * {@link TtsPackageReceiver}), and when the system default engine changes.
+ * <p/>
+ * Apart from the engine to use, we also remember all engines we've seen supporting a locale.
+ * That way a faster engine can take over from the indexed one, see
+ * {@link #getSupported(Context, Locale)}.
+ */
+public class TtsEngineIndex {
+    @NonNls
+    private static final String PREFERENCES_NAME = "ttsEngineIndex";
+
+    /**
+     * Locale strings never start with '#', so this can't collide with any of them.
+     */
+    @NonNls
+    private static final String DEFAULT_ENGINE_KEY = "#defaultEngine";
+
+    /**
+     * Followed by a locale, for {@link #getSupported(Context, Locale)}.
+     */
+    @NonNls
+    private static final String SUPPORTED_KEY_PREFIX = "#supported:";
+
+    public static class Entry {
+        public final String enginePackage;
+
+        /**
+         * The locale from the fallback chain to set on the engine, may be less precise than the
+         * locale this entry is indexed under.
+         */
+        public final Locale resolvedLocale;
+
+        /**
+         * What {@link android.speech.tts.TextToSpeech#setLanguage(Locale)} said about the
+         * resolved locale.
+         */
+        public final int precision;
+
+        public Entry(String enginePackage, Locale resolvedLocale, int precision) {
+            this.enginePackage = enginePackage;
+            this.resolvedLocale = resolvedLocale;
+            this.precision = precision;
+        }
+
+        String encode() {
+            return precision + ":" + resolvedLocale + ":" + enginePackage;
+        }
+
+        /**
+         * @return null if the string couldn't be decoded
+         */
+        @Nullable
+        static Entry decode(@Nullable String encoded) {
+            if (encoded == null) {
+                return null;
+            }
+
+            // Locale strings and package names never contain any colons
+            String[] parts = encoded.split(":", -1);
+            if (parts.length != 3 || parts[1].isEmpty() || parts[2].isEmpty()) {
+                return null;
+            }
+
+            try {
+                return new Entry(parts[2],
+                    LocaleUtils.parseLocaleString(parts[1]),
+                    Integer.parseInt(parts[0]));
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException is an IllegalArgumentException
+                return null;
+            }
+        }
+    }
+
+    private TtsEngineIndex() {
+        throw new UnsupportedOperationException("Utility class, please don't instantiate");
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        SharedPreferences preferences =
+            context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+
+        String defaultEngine = Settings.Secure.getString(
+            context.getContentResolver(), Settings.Secure.TTS_DEFAULT_SYNTH);
+        String indexedDefaultEngine = preferences.getString(DEFAULT_ENGINE_KEY, null);
+        if (!TextUtils.equals(defaultEngine, indexedDefaultEngine)) {
+            Timber.i("Default TTS engine changed from <%s> to <%s>, clearing TTS engine index",
+                indexedDefaultEngine, defaultEngine);
+            preferences.edit().clear().putString(DEFAULT_ENGINE_KEY, defaultEngine).apply();
+        }
+
+        return preferences;
+    }
+
+    /**
+     * @return null if we don't know what engine supports this locale
+     */
+    @Nullable
+    public static Entry get(Context context, Locale locale) {
+        return Entry.decode(getPreferences(context).getString(locale.toString(), null));
+    }
+
+    /**
+     * Remember that an engine supports a locale, or at least a lower precision version of it.
+     */
+    public static void put(Context context, Locale locale,
+                           String enginePackage, Locale resolvedLocale, int precision)
+    {
+        getPreferences(context).edit()
+            .putString(locale.toString(),
+                new Entry(enginePackage, resolvedLocale, precision).encode())
+            .apply();
+    }
+
+    /**
+     * Forget what we know about a locale, use when an indexed engine turned out not to work.
+     */
+    public static void remove(Context context, Locale locale) {
+        getPreferences(context).edit().remove(locale.toString()).apply();
+    }
+
+    /**
+     * All engines we've seen supporting a locale, or a lower precision version of it.
+     *
+     * @return Engine packages and what {@link android.speech.tts.TextToSpeech#setLanguage(Locale)}
+     * said about their best match for the locale
+     */
+    public static Map<String, Integer> getSupported(Context context, Locale locale) {
+        return decodeSupported(
+            getPreferences(context).getString(SUPPORTED_KEY_PREFIX + locale, null));
+    }
+
+    /**
+     * Remember that we've seen an engine supporting a locale.
+     */
+    public static synchronized void putSupported(
+        Context context, Locale locale, String enginePackage, int precision)
+    {
+        Map<String, Integer> supported = getSupported(context, locale);
+        Integer old = supported.put(enginePackage, precision);
+        if (old != null && old == precision) {
+            return;
+        }
+        getPreferences(context).edit()
+            .putString(SUPPORTED_KEY_PREFIX + locale, encodeSupported(supported))
+            .apply();
+    }
+
+    public static synchronized void removeSupported(
+        Context context, Locale locale, String enginePackage)
+    {
+        Map<String, Integer> supported = getSupported(context, locale);
+        if (supported.remove(enginePackage) == null) {
+            return;
+        }
+        getPreferences(context).edit()
+            .putString(SUPPORTED_KEY_PREFIX + locale, encodeSupported(supported))
+            .apply();
+    }
+
+    static String encodeSupported(Map<String, Integer> supported) {
+        StringBuilder encoded = new StringBuilder();
+        for (Map.Entry<String, Integer> entry: supported.entrySet()) {
+            if (encoded.length() > 0) {
+                encoded.append(',');
+            }
+            encoded.append(entry.getValue()).append(':').append(entry.getKey());
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Broken entries are skipped.
+     */
+    static Map<String, Integer> decodeSupported(@Nullable String encoded) {
+        Map<String, Integer> supported = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return supported;
+        }
+
+        // Package names never contain any commas or colons
+        for (String entry: encoded.split(",")) {
+            String[] parts = entry.split(":", -1);
+            if (parts.length != 2 || parts[1].isEmpty()) {
+                continue;
+            }
+            try {
+                supported.put(parts[1], Integer.parseInt(parts[0]));
+            } catch (NumberFormatException e) {
+                // Skip it
+            }
+        }
+        return supported;
+    }
+
+    /**
+     * @return true if the given engine is indexed for, or has been seen supporting, any locale
+     */
+    public static boolean mentions(Context context, String enginePackage) {
+        for (Map.Entry<String, ?> entry: getPreferences(context).getAll().entrySet()) {
+            if (DEFAULT_ENGINE_KEY.equals(entry.getKey())) {
+                continue;
+            }
+
+            Object value = entry.getValue();
+            String encoded = value instanceof String ? (String)value : null;
+            if (entry.getKey().startsWith(SUPPORTED_KEY_PREFIX)) {
+                if (decodeSupported(encoded).containsKey(enginePackage)) {
+                    return true;
+                }
+                continue;
+            }
+
+            Entry indexed = Entry.decode(encoded);
+            if (indexed != null && indexed.enginePackage.equals(enginePackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget everything, the set of TTS engines has changed.
+     */
+    public static void clear(Context context, @NonNls String reason) {
+        Timber.i("Clearing TTS engine index: %s", reason);
+        SharedPreferences preferences = getPreferences(context);
+        String defaultEngine = preferences.getString(DEFAULT_ENGINE_KEY, null);
+        preferences.edit().clear().putString(DEFAULT_ENGINE_KEY, defaultEngine).apply();
+    }
+}
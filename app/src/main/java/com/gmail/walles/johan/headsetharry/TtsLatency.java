@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import timber.log.Timber;
+
+/**
+ * Where time goes between asking for speech and hearing it.
+ * <p/>
+ * {@link TtsUtils} reports the duration of each stage here, tagged with engine package, locale
+ * and text length. We keep a latency histogram per stage, both overall and per engine and per
+ * locale. {@link #dump()} renders them all, and is included with the app logs.
+ * <p/>
+ * Everything is in memory only and starts over when the process does.
+ */
+public class TtsLatency {
+    public enum Stage {
+        /**
+         * Initializing some engine just to get the list of installed engines.
+         */
+        LIST_ENGINES,
+
+        /**
+         * Creating a TextToSpeech until its onInit() callback.
+         */
+        INIT,
+
+        /**
+         * A {@link android.speech.tts.TextToSpeech#setLanguage(Locale)} call.
+         */
+        SET_LANGUAGE,
+
+        /**
+         * From enqueueing a group of texts until the engine starts speaking it.
+         */
+        START_WAIT,
+
+        /**
+         * From the end of one spoken segment until the start of the next one.
+         */
+        SEGMENT_GAP,
+
+        /**
+         * Speaking one segment, onStart() to onDone().
+         */
+        SPEAKING,
+
+        /**
+         * From being asked to speak an announcement until its first sound.
+         */
+        FIRST_AUDIO,
+    }
+
+    /**
+     * Counts durations into buckets with exponentially growing upper bounds.
+     */
+    public static class Histogram {
+        /**
+         * Upper bounds of all buckets but the last, which has none.
+         */
+        static final long[] BUCKET_LIMITS_MS = {10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+        private final int[] counts = new int[BUCKET_LIMITS_MS.length + 1];
+        private int count;
+        private long sumMs;
+        private long maxMs;
+
+        public void record(long durationMs) {
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS_MS.length && durationMs > BUCKET_LIMITS_MS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            sumMs += durationMs;
+            maxMs = Math.max(maxMs, durationMs);
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getBucketCount(int bucket) {
+            return counts[bucket];
+        }
+
+        public long getMeanMs() {
+            return count == 0 ? 0 : sumMs / count;
+        }
+
+        public long getMaxMs() {
+            return maxMs;
+        }
+
+        /**
+         * Upper bound of the bucket containing the given percentile. Long.MAX_VALUE if that's the
+         * last bucket, 0 if nothing has been recorded.
+         */
+        public long getPercentileLimitMs(int percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            int wanted = (count * percentile + 99) / 100;
+            int seen = 0;
+            for (int bucket = 0; bucket < BUCKET_LIMITS_MS.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= wanted) {
+                    return BUCKET_LIMITS_MS[bucket];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            @NonNls StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.ENGLISH, "n=%d mean=%dms max=%dms p50<=%s p90<=%s",
+                count, getMeanMs(), maxMs,
+                formatLimit(getPercentileLimitMs(50)), formatLimit(getPercentileLimitMs(90))));
+            builder.append(" [");
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                if (bucket > 0) {
+                    builder.append(' ');
+                }
+                builder.append(counts[bucket]);
+            }
+            builder.append(']');
+            return builder.toString();
+        }
+
+        private static String formatLimit(long limitMs) {
+            return limitMs == Long.MAX_VALUE ? "inf" : limitMs + "ms"; //NON-NLS
+        }
+    }
+
+    private static final Map<Stage, Histogram> OVERALL = new EnumMap<>(Stage.class);
+    private static final Map<String, Map<Stage, Histogram>> BY_ENGINE = new TreeMap<>();
+    private static final Map<String, Map<Stage, Histogram>> BY_LOCALE = new TreeMap<>();
+
+    private TtsLatency() {
+        throw new UnsupportedOperationException("Utility class, please don't instantiate");
+    }
+
+    /**
+     * Record how long a stage took.
+     *
+     * @param enginePackage null if not known or not applicable
+     * @param locale null if not known or not applicable
+     * @param textLength Length of the text involved, 0 if not applicable
+     */
+    public static synchronized void record(Stage stage,
+                                           @Nullable String enginePackage,
+                                           @Nullable Locale locale,
+                                           int textLength,
+                                           long durationMs)
+    {
+        Timber.v("TTS latency: %s engine=%s locale=%s chars=%d: %dms",
+            stage, enginePackage, locale, textLength, durationMs);
+
+        getHistogram(OVERALL, stage).record(durationMs);
+        if (enginePackage != null) {
+            getHistogram(getStages(BY_ENGINE, enginePackage), stage).record(durationMs);
+        }
+        if (locale != null) {
+            getHistogram(getStages(BY_LOCALE, locale.toString()), stage).record(durationMs);
+        }
+    }
+
+    private static Map<Stage, Histogram> getStages(
+        Map<String, Map<Stage, Histogram>> byKey, String key)
+    {
+        Map<Stage, Histogram> stages = byKey.get(key);
+        if (stages == null) {
+            stages = new EnumMap<>(Stage.class);
+            byKey.put(key, stages);
+        }
+        return stages;
+    }
+
+    private static Histogram getHistogram(Map<Stage, Histogram> stages, Stage stage) {
+        Histogram histogram = stages.get(stage);
+        if (histogram == null) {
+            histogram = new Histogram();
+            stages.put(stage, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * All histograms as human readable text.
+     */
+    public static synchronized String dump() {
+        @NonNls StringBuilder builder = new StringBuilder();
+        builder.append("TTS latencies, bucket limits ms:");
+        for (long limit: Histogram.BUCKET_LIMITS_MS) {
+            builder.append(' ').append(limit);
+        }
+        builder.append('\n');
+
+        dump(builder, "Overall", OVERALL);
+        for (Map.Entry<String, Map<Stage, Histogram>> entry: BY_ENGINE.entrySet()) {
+            dump(builder, "Engine " + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Map<Stage, Histogram>> entry: BY_LOCALE.entrySet()) {
+            dump(builder, "Locale " + entry.getKey(), entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    private static void dump(StringBuilder builder, String title, Map<Stage, Histogram> stages) {
+        builder.append(title).append(":\n");
+        for (Map.Entry<Stage, Histogram> entry: stages.entrySet()) {
+            builder.append("  ").append(entry.getKey()).append(": ");
+            builder.append(entry.getValue()).append('\n');
+        }
+    }
+
+    @TestOnly
+    static synchronized void clear() {
+        OVERALL.clear();
+        BY_ENGINE.clear();
+        BY_LOCALE.clear();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.speech.tts.TextToSpeech;
+
+import timber.log.Timber;
+
+/**
+ * Keeps {@link TtsEngineIndex} and {@link TtsPool} up to date when TTS engines are installed,
+ * updated or removed.
+ */
+public class TtsPackageReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        LoggingUtils.setUpLogging(context);
+
+        Uri data = intent.getData();
+        if (data == null) {
+            Timber.w("Got %s without any package", intent.getAction());
+            return;
+        }
+        String packageName = data.getSchemeSpecificPart();
+
+        boolean isTtsEngine;
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+            // The package is gone, so we can't ask it whether it's a TTS engine
+            isTtsEngine = TtsEngineIndex.mentions(context, packageName);
+        } else {
+            Intent ttsService = new Intent(TextToSpeech.Engine.INTENT_ACTION_TTS_SERVICE);
+            ttsService.setPackage(packageName);
+            isTtsEngine =
+                !context.getPackageManager().queryIntentServices(ttsService, 0).isEmpty();
+        }
+        if (!isTtsEngine) {
+            return;
+        }
+
+        TtsEngineIndex.clear(context, intent.getAction() + " " + packageName);
+        TtsPool.getInstance().shutdownEngine(packageName);
+        PhraseCache.getInstance(context).refresh(context, true);
+    }
+}
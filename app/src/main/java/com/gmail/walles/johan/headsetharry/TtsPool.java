@@ -0,0 +1,329 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+/**
+ * Initialized {@link SpeechEngine} instances, kept around between utterances.
+ * <p/>
+ * Initializing an engine means binding to its service, which takes hundreds of
+ * milliseconds. So rather than shutting instances down after speaking, we hand them back here
+ * and re-use them for the next utterance in the same locale.
+ * <p/>
+ * Instances are keyed by engine package and locale. Instances that have been idle for longer
+ * than the idle timeout are shut down, and so are idle instances when memory is low. The idle
+ * timeout is a user preference, see {@link #setPreferences(SharedPreferences)}.
+ */
+public class TtsPool implements TrimmableCache {
+    /**
+     * Must match the ListPreference in preferences.xml.
+     */
+    @NonNls
+    private static final String IDLE_TIMEOUT_PREFERENCE = "ttsIdleTimeoutMs";
+
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 30_000;
+
+    /**
+     * Rough memory cost of keeping an engine bound. Most of it is in the engine's process, but
+     * it's our binding that keeps that process alive.
+     */
+    private static final long INSTANCE_BYTES = 50_000;
+
+    private static class Entry {
+        public final String enginePackage;
+        public final Locale locale;
+        public final SpeechEngine tts;
+
+        /**
+         * 0 while in use.
+         */
+        public long idleSinceMs;
+
+        public Entry(String enginePackage, Locale locale, SpeechEngine tts) {
+            this.enginePackage = enginePackage;
+            this.locale = locale;
+            this.tts = tts;
+        }
+
+        public boolean isIdle() {
+            return idleSinceMs != 0;
+        }
+
+        @Override
+        public String toString() {
+            return enginePackage + "/" + locale;
+        }
+    }
+
+    @Nullable
+    private static TtsPool instance;
+
+    /**
+     * Most recently used first.
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    @Nullable
+    private SharedPreferences preferences;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable expireIdle = new Runnable() {
+        @Override
+        public void run() {
+            expireIdle();
+        }
+    };
+
+    private TtsPool() {
+        // Use getInstance()
+    }
+
+    public static synchronized TtsPool getInstance() {
+        if (instance == null) {
+            instance = new TtsPool();
+            CacheRegistry.register("TTS engines", instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Where to read the idle timeout from. Until this has been called we use a default.
+     */
+    public synchronized void setPreferences(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    /**
+     * Read on every use, so that preference changes take effect without a restart.
+     */
+    private long getIdleTimeoutMs() {
+        if (preferences == null) {
+            return DEFAULT_IDLE_TIMEOUT_MS;
+        }
+
+        String value = preferences.getString(
+            IDLE_TIMEOUT_PREFERENCE, Long.toString(DEFAULT_IDLE_TIMEOUT_MS));
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Timber.w(e, "Bad TTS idle timeout preference, using the default: <%s>", value);
+            return DEFAULT_IDLE_TIMEOUT_MS;
+        }
+    }
+
+    /**
+     * Get an idle instance already set up for a locale.
+     * <p/>
+     * Call {@link #release(SpeechEngine)} or {@link #discard(SpeechEngine)} when done with it.
+     *
+     * @return null if we have no idle instance for this locale
+     */
+    @Nullable
+    public synchronized SpeechEngine acquire(Locale locale) {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.isIdle() || !entry.locale.equals(locale)) {
+                continue;
+            }
+
+            entry.idleSinceMs = 0;
+
+            // Move to the front of the list, it's the most recently used now
+            iterator.remove();
+            entries.add(0, entry);
+
+            Timber.d("Re-using TTS %s", entry);
+            return entry.tts;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if {@link #acquire(Locale)} would return an instance right now
+     */
+    public synchronized boolean hasIdle(Locale locale) {
+        for (Entry entry: entries) {
+            if (entry.isIdle() && entry.locale.equals(locale)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a freshly initialized instance to the pool. The instance is considered in use, call
+     * {@link #release(SpeechEngine)} or {@link #discard(SpeechEngine)} when done with it.
+     */
+    public synchronized void add(String enginePackage, Locale locale, SpeechEngine tts) {
+        entries.add(0, new Entry(enginePackage, locale, tts));
+        Timber.d("TTS pool now contains: %s", entries);
+    }
+
+    /**
+     * Hand back an instance after use, so that it can be re-used.
+     */
+    public synchronized void release(SpeechEngine tts) {
+        Entry entry = find(tts);
+        if (entry == null) {
+            Timber.w("Unknown TTS released, shutting it down");
+            tts.shutdown();
+            return;
+        }
+
+        entry.idleSinceMs = System.currentTimeMillis();
+        scheduleExpiry();
+    }
+
+    /**
+     * Remove an instance from the pool and shut it down. Use this for instances that didn't
+     * behave.
+     */
+    public synchronized void discard(SpeechEngine tts) {
+        Entry entry = find(tts);
+        if (entry != null) {
+            entries.remove(entry);
+            Timber.d("Discarded TTS %s", entry);
+        }
+        tts.shutdown();
+    }
+
+    /**
+     * Shut down all idle instances of an engine, use when the engine has been updated or
+     * removed. Instances in use are discarded when released.
+     */
+    public synchronized void shutdownEngine(String enginePackage) {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.enginePackage.equals(enginePackage)) {
+                continue;
+            }
+
+            if (entry.isIdle()) {
+                Timber.d("Shutting down TTS %s, engine changed", entry);
+                entry.tts.shutdown();
+            } else {
+                Timber.d("Forgetting TTS %s, engine changed", entry);
+            }
+            iterator.remove();
+        }
+        scheduleExpiry();
+    }
+
+    /**
+     * @return null if the instance isn't in the pool
+     */
+    @Nullable
+    public synchronized String getEnginePackage(SpeechEngine tts) {
+        Entry entry = find(tts);
+        return entry == null ? null : entry.enginePackage;
+    }
+
+    @Nullable
+    private Entry find(SpeechEngine tts) {
+        for (Entry entry: entries) {
+            if (entry.tts == tts) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void scheduleExpiry() {
+        handler.removeCallbacks(expireIdle);
+
+        long oldestIdleSinceMs = Long.MAX_VALUE;
+        for (Entry entry: entries) {
+            if (entry.isIdle()) {
+                oldestIdleSinceMs = Math.min(oldestIdleSinceMs, entry.idleSinceMs);
+            }
+        }
+        if (oldestIdleSinceMs == Long.MAX_VALUE) {
+            // Nothing is idle
+            return;
+        }
+
+        long delayMs = oldestIdleSinceMs + getIdleTimeoutMs() - System.currentTimeMillis();
+        handler.postDelayed(expireIdle, Math.max(0, delayMs));
+    }
+
+    private synchronized void expireIdle() {
+        long now = System.currentTimeMillis();
+        long idleTimeoutMs = getIdleTimeoutMs();
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isIdle() && now - entry.idleSinceMs >= idleTimeoutMs) {
+                Timber.d("Shutting down TTS %s, idle for %dms", entry, now - entry.idleSinceMs);
+                entry.tts.shutdown();
+                iterator.remove();
+            }
+        }
+
+        scheduleExpiry();
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        return entries.size() * INSTANCE_BYTES;
+    }
+
+    /**
+     * Shuts down the least recently used idle instances. Instances in use are left alone.
+     */
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        int idleCount = 0;
+        for (Entry entry: entries) {
+            if (entry.isIdle()) {
+                idleCount++;
+            }
+        }
+
+        int dropCount = (int)Math.ceil(idleCount * CacheRegistry.getDropFraction(level));
+        for (int i = entries.size() - 1; i >= 0 && dropCount > 0; i--) {
+            Entry entry = entries.get(i);
+            if (!entry.isIdle()) {
+                continue;
+            }
+
+            Timber.d("Shutting down idle TTS %s to save memory", entry);
+            entry.tts.shutdown();
+            entries.remove(i);
+            dropCount--;
+        }
+
+        scheduleExpiry();
+    }
+}
@@ -21,18 +21,20 @@ package com.gmail.walles.johan.headsetharry;
 
 import android.content.Context;
 import android.speech.tts.TextToSpeech;
-import android.speech.tts.UtteranceProgressListener;
 import android.support.annotation.Nullable;
 
 import com.google.common.base.Optional;
 
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.TestOnly;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import timber.log.Timber;
 
@@ -43,115 +45,437 @@ public class TtsUtils {
     }
 
     /**
-     * Speak the given text using the given TTS, then shut down the TTS.
-     *
-     * @param completionListener If non-null, will be called if speech fails
+     * @param mayCache True if the texts may be kept in the {@link SpeechAudioCache}. Must be false
+     *                 for anything containing message contents or other personal data.
      */
-    private static void speakAndShutdown(final Context context,
-                                         final TextToSpeech tts,
-                                         final List<TextWithLocale> texts,
-                                         final int audioManagerStream,
-                                         final CompletionListener completionListener)
+    public static void speak(final Context context,
+                             final List<TextWithLocale> texts,
+                             final boolean mayCache,
+                             final int audioManagerStream,
+                             final CompletionListener completionListener)
     {
         if (texts.isEmpty()) {
-            @NonNls String message = "Got empty speech request internally";
-            Timber.e(new Exception(message), message);
-            completionListener.onFailure(null, message); //NON-NLS
-            tts.shutdown();
+            completionListener.onFailure(null, "Nothing to say, never mind");
             return;
         }
 
-        final TextWithLocale toSpeak = texts.get(0);
+        Timber.i("Speaking: %s", texts);
+        new Announcement(
+            context, groupByLocale(texts), mayCache, audioManagerStream, completionListener)
+            .start();
+    }
 
-        tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
-            @Override
-            public void onStart(String utteranceId) {
-                Timber.v("Speech started...");
+    /**
+     * Split texts into runs of consecutive texts with the same locale. Each such run can be
+     * spoken by one engine.
+     */
+    static List<List<TextWithLocale>> groupByLocale(List<TextWithLocale> texts) {
+        List<List<TextWithLocale>> groups = new ArrayList<>();
+        List<TextWithLocale> group = null;
+        for (TextWithLocale text: texts) {
+            if (group == null || !group.get(0).locale.equals(text.locale)) {
+                group = new ArrayList<>();
+                groups.add(group);
             }
+            group.add(text);
+        }
+        return groups;
+    }
 
-            @Override
-            public void onDone(String utteranceId) {
-                Timber.v("One phrase done, shutting down TTS");
-                tts.shutdown();
+    /**
+     * Speaks a list of texts one locale group at a time.
+     * <p/>
+     * All texts of a group are queued on the group's engine up front, each with its own utterance
+     * ID. While they are being spoken, we look up and initialize the engine for the next group.
+     * When the last utterance of the last group is done we tell our {@link CompletionListener}.
+     * <p/>
+     * Texts found in the {@link PhraseCache} or the {@link SpeechAudioCache} are played from
+     * file rather than synthesized. If the announcement may be cached, texts the speech cache says
+     * are worth caching are handed to {@link SpeechCacheWriter} once the whole announcement is
+     * done. It synthesizes them when we have stopped talking, doing that in between utterances
+     * would delay the next utterance.
+     * <p/>
+     * Engine lookups report back on the main thread, and utterance progress on TTS binder
+     * threads. All state is guarded by this object's lock.
+     */
+    private static class Announcement {
+        private static final AtomicInteger lastId = new AtomicInteger();
 
-                List<TextWithLocale> remainingTexts = new LinkedList<>(texts);
-                remainingTexts.remove(0);
-                if (!remainingTexts.isEmpty()) {
-                    Timber.v("Speaking remaining texts: %s", remainingTexts);
-                    speak(context, remainingTexts, audioManagerStream, completionListener);
-                    return;
+        private final Context context;
+        private final List<List<TextWithLocale>> groups;
+
+        /**
+         * False for announcements with personal data, those never touch the
+         * {@link SpeechAudioCache}.
+         */
+        private final boolean mayCache;
+        private final int audioManagerStream;
+        private final CompletionListener completionListener;
+
+        @NonNls
+        private final String id = "announcement-" + lastId.incrementAndGet();
+
+        /**
+         * Utterances queued on {@link #currentTts} that haven't finished yet.
+         */
+        private final Map<String, TextWithLocale> pendingUtterances = new HashMap<>();
+
+        /**
+         * Texts worth caching, synthesized by {@link SpeechCacheWriter} once we're done speaking.
+         */
+        private final List<SpeechCacheWriter.Job> cacheJobs = new ArrayList<>();
+
+        private int currentGroup = -1;
+
+        /**
+         * The engine speaking the current group, null between groups.
+         */
+        @Nullable
+        private SpeechEngine currentTts;
+
+        /**
+         * Whether the engine lookup for the group after the current one is done.
+         */
+        private boolean nextLookedUp;
+
+        /**
+         * The engine for the group after the current one, null if not looked up or not found.
+         */
+        @Nullable
+        private SpeechEngine nextTts;
+
+        private boolean finished;
+
+        /**
+         * For {@link TtsLatency}.
+         */
+        private final long createdMs = System.currentTimeMillis();
+        @Nullable
+        private String currentEngine;
+        private long groupEnqueuedMs;
+        private boolean anyStarted;
+        private boolean groupStarted;
+        private long utteranceStartMs;
+
+        /**
+         * When the last spoken segment ended, 0 if none has yet.
+         */
+        private long lastDoneMs;
+
+        Announcement(Context context,
+                     List<List<TextWithLocale>> groups,
+                     boolean mayCache,
+                     int audioManagerStream,
+                     CompletionListener completionListener)
+        {
+            this.context = context;
+            this.groups = groups;
+            this.mayCache = mayCache;
+            this.audioManagerStream = audioManagerStream;
+            this.completionListener = completionListener;
+        }
+
+        synchronized void start() {
+            TtsWarmup.setLastLocale(groups.get(0).get(0).locale);
+            lookUp(0);
+        }
+
+        private void lookUp(final int groupIndex) {
+            final Locale locale = groups.get(groupIndex).get(0).locale;
+            SpeechEngine pooled = TtsPool.getInstance().acquire(locale);
+            if (pooled != null) {
+                TtsWarmup.onAcquired(pooled);
+                onEngine(groupIndex, pooled);
+                return;
+            }
+
+            EngineResultListener listener = new EngineResultListener() {
+                @Override
+                public void onFound(SpeechEngine tts, String enginePackage) {
+                    TtsPool.getInstance().add(enginePackage, locale, tts);
+                    onEngine(groupIndex, tts);
                 }
 
-                Timber.v("Speech successfully completed");
-                completionListener.onSuccess();
+                @Override
+                public void onNotFound() {
+                    onEngine(groupIndex, null);
+                }
+            };
+            if (TtsWarmup.join(locale, listener)) {
+                // Already being initialized
+                return;
             }
+            getEngineForLocale(context, locale, listener);
+        }
 
-            @Override
-            public void onError(String utteranceId) {
-                @NonNls String errorMessage = "Speech failed: <" + toSpeak + ">";
-                tts.shutdown();
+        /**
+         * @param tts null if no engine was found for the group
+         */
+        private synchronized void onEngine(int groupIndex, @Nullable SpeechEngine tts) {
+            if (finished) {
+                if (tts != null) {
+                    TtsPool.getInstance().release(tts);
+                }
+                return;
+            }
 
-                completionListener.onFailure(toSpeak.locale, errorMessage);
+            if (groupIndex == currentGroup + 1 && currentTts == null) {
+                // Nothing is speaking, go right ahead
+                speakGroup(groupIndex, tts);
+                return;
             }
 
-            @Override
-            public void onStop(String utteranceId, boolean interrupted) {
-                @NonNls String notCompleted = interrupted ? "interrupted" : "dropped";
-                @NonNls String errorMessage = "Speech " + notCompleted + ": <" + toSpeak + ">";
-                tts.shutdown();
+            // The current group is still speaking, we'll get to this one when it's done
+            nextLookedUp = true;
+            nextTts = tts;
+        }
+
+        private void speakGroup(int groupIndex, @Nullable SpeechEngine tts) {
+            currentGroup = groupIndex;
+            nextLookedUp = false;
+            nextTts = null;
 
-                completionListener.onFailure(toSpeak.locale, errorMessage);
+            List<TextWithLocale> group = groups.get(groupIndex);
+            Locale locale = group.get(0).locale;
+            if (tts == null) {
+                fail(locale, "No speech engine found for " + locale);
+                return;
             }
-        });
 
-        @NonNls HashMap<String, String> params = new HashMap<>();
-        params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, "oh, the uniqueness");
-        params.put(
-            TextToSpeech.Engine.KEY_PARAM_STREAM,
-            Integer.toString(audioManagerStream));
+            currentTts = tts;
+            tts.setProgressListener(new SpeechEngine.ProgressListener() {
+                @Override
+                public void onStart(String utteranceId) {
+                    Timber.v("Speech started: %s", utteranceId);
+                    onUtteranceStart(utteranceId);
+                }
+
+                @Override
+                public void onDone(String utteranceId) {
+                    onUtteranceDone(utteranceId);
+                }
+
+                @Override
+                public void onError(String utteranceId) {
+                    onUtteranceFailed(utteranceId, "failed", true);
+                }
+
+                @Override
+                public void onStop(String utteranceId, boolean interrupted) {
+                    onUtteranceFailed(utteranceId, interrupted ? "interrupted" : "dropped", false);
+                }
+            });
+
+            String enginePackage = TtsPool.getInstance().getEnginePackage(tts);
+            currentEngine = enginePackage;
+            groupEnqueuedMs = System.currentTimeMillis();
+            groupStarted = false;
+            String voice = tts.getVoiceName();
+            SpeechAudioCache speechCache = SpeechAudioCache.getInstance(context);
+            for (int i = 0; i < group.size(); i++) {
+                TextWithLocale toSpeak = group.get(i);
+                String text = toSpeak.text;
+                @NonNls String utteranceId = id + ":" + groupIndex + ":" + i;
+
+                PhraseCache.Match phrase = null;
+                if (enginePackage != null) {
+                    phrase = PhraseCache.getInstance(context).match(enginePackage, locale, text);
+                }
+                if (phrase != null) {
+                    // Play the pre-synthesized start of the text, then deal with the rest
+                    if (!playFile(tts, phrase.audio, utteranceId + ":phrase", toSpeak)) {
+                        return;
+                    }
+
+                    text = phrase.remainder;
+                    if (text.isEmpty()) {
+                        continue;
+                    }
+                }
 
-        //noinspection deprecation
-        int speechStatus = tts.speak(toSpeak.text, TextToSpeech.QUEUE_ADD, params);
-        if (speechStatus != TextToSpeech.SUCCESS) {
-            completionListener.onFailure(
-                toSpeak.locale, "Speech enqueueing operation failed: " + speechStatus);
-            tts.shutdown();
+                String cacheKey = null;
+                if (enginePackage != null && mayCache) {
+                    cacheKey = SpeechAudioCache.getKey(enginePackage, voice, locale, text);
+                    File cached = speechCache.get(cacheKey);
+                    if (cached != null) {
+                        if (!playFile(tts, cached, utteranceId, toSpeak)) {
+                            return;
+                        }
+                        continue;
+                    }
+                }
+
+                pendingUtterances.put(utteranceId, toSpeak);
+
+                int speechStatus = tts.speak(text, utteranceId, audioManagerStream);
+                if (speechStatus != TextToSpeech.SUCCESS) {
+                    TtsPool.getInstance().discard(tts);
+                    currentTts = null;
+                    fail(locale, "Speech enqueueing operation failed: " + speechStatus);
+                    return;
+                }
+
+                if (cacheKey != null && speechCache.recordMiss(cacheKey)) {
+                    // Spoken before, synthesize it for next time once we're done speaking
+                    cacheJobs.add(new SpeechCacheWriter.Job(locale, text, cacheKey));
+                }
+            }
+
+            if (groupIndex + 1 < groups.size()) {
+                // Get the next engine ready while this group is speaking
+                lookUp(groupIndex + 1);
+            }
         }
-    }
 
-    public static void speak(final Context context,
-                             final List<TextWithLocale> texts,
-                             final int audioManagerStream,
-                             final CompletionListener completionListener)
-    {
-        if (texts.isEmpty()) {
-            completionListener.onFailure(null, "Nothing to say, never mind");
-            return;
+        /**
+         * Queue up playing an audio file as part of the current group.
+         *
+         * @return false if that failed, and the announcement with it
+         */
+        private boolean playFile(
+            SpeechEngine tts, File audio, String utteranceId, TextWithLocale toSpeak)
+        {
+            pendingUtterances.put(utteranceId, toSpeak);
+
+            int status = tts.playFile(audio, utteranceId, audioManagerStream);
+            if (status != TextToSpeech.SUCCESS) {
+                TtsPool.getInstance().discard(tts);
+                currentTts = null;
+                fail(toSpeak.locale, "Audio file enqueueing operation failed: " + status);
+                return false;
+            }
+            return true;
         }
 
-        final TextWithLocale text = texts.get(0);
+        private synchronized void onUtteranceStart(String utteranceId) {
+            if (finished) {
+                return;
+            }
+            TextWithLocale spoken = pendingUtterances.get(utteranceId);
+            if (spoken == null) {
+                // Not ours
+                return;
+            }
 
-        Timber.i("Speaking in locale <%s>: <%s>", text.locale, text.text);
-        getEngineForLocale(context, text.locale, new EngineResultListener() {
-            @Override
-            public void onFound(TextToSpeech textToSpeech) {
-                speakAndShutdown(context, textToSpeech, texts, audioManagerStream, completionListener);
+            long now = System.currentTimeMillis();
+            utteranceStartMs = now;
+            int length = spoken.text.length();
+            if (!anyStarted) {
+                anyStarted = true;
+                TtsLatency.record(TtsLatency.Stage.FIRST_AUDIO,
+                    currentEngine, spoken.locale, length, now - createdMs);
+            }
+            if (!groupStarted) {
+                groupStarted = true;
+                TtsLatency.record(TtsLatency.Stage.START_WAIT,
+                    currentEngine, spoken.locale, length, now - groupEnqueuedMs);
+                if (currentEngine != null) {
+                    EngineScores.recordStartWaitMs(
+                        context, currentEngine, spoken.locale, now - groupEnqueuedMs);
+                }
             }
+            if (lastDoneMs != 0) {
+                TtsLatency.record(TtsLatency.Stage.SEGMENT_GAP,
+                    currentEngine, spoken.locale, length, now - lastDoneMs);
+            }
+        }
 
-            @Override
-            public void onNotFound() {
-                Optional<Locale> lowerPrecisionLocale = getLowerPrecisionLocale(text.locale);
-                if (lowerPrecisionLocale.isPresent()) {
-                    Timber.i("No engine found for locale <%s>, trying <%s>",
-                        text.locale, lowerPrecisionLocale.get());
+        private synchronized void onUtteranceDone(String utteranceId) {
+            if (finished) {
+                return;
+            }
 
-                    speak(context, texts, audioManagerStream, completionListener);
-                    return;
+            TextWithLocale spoken = pendingUtterances.remove(utteranceId);
+            if (spoken == null) {
+                return;
+            }
+
+            lastDoneMs = System.currentTimeMillis();
+            TtsLatency.record(TtsLatency.Stage.SPEAKING, currentEngine, spoken.locale,
+                spoken.text.length(), lastDoneMs - utteranceStartMs);
+            if (currentEngine != null) {
+                EngineScores.recordSuccess(context, currentEngine, spoken.locale);
+            }
+
+            onGroupProgress();
+        }
+
+        /**
+         * Move on to the next group if the current one is done.
+         */
+        private void onGroupProgress() {
+            if (!pendingUtterances.isEmpty()) {
+                return;
+            }
+
+            Timber.v("Group done, releasing TTS");
+            SpeechEngine doneTts = currentTts;
+            currentTts = null;
+            if (doneTts != null) {
+                TtsPool.getInstance().release(doneTts);
+            }
+
+            if (currentGroup + 1 >= groups.size()) {
+                finished = true;
+                Timber.v("Speech successfully completed");
+                completionListener.onSuccess();
+
+                // Synthesized once the speech session closes, so that it won't hold up any speech
+                if (!cacheJobs.isEmpty()) {
+                    SpeechCacheWriter.schedule(cacheJobs);
                 }
+                return;
+            }
+
+            if (nextLookedUp) {
+                speakGroup(currentGroup + 1, nextTts);
+            }
+
+            // If the next engine isn't there yet, onEngine() will start the next group
+        }
+
+        private synchronized void onUtteranceFailed(
+            String utteranceId, @NonNls String notCompleted, boolean engineBroken)
+        {
+            if (finished) {
+                return;
+            }
+
+            TextWithLocale toSpeak = pendingUtterances.get(utteranceId);
+            if (toSpeak == null) {
+                // Not ours, pooled engines may report late on what their previous user queued
+                return;
+            }
 
-                completionListener.onFailure(text.locale, "No speech engine found for " + text.locale);
+            SpeechEngine failedTts = currentTts;
+            currentTts = null;
+            if (engineBroken && currentEngine != null) {
+                EngineScores.recordFailure(context, currentEngine, toSpeak.locale);
             }
-        });
+            if (failedTts != null) {
+                if (engineBroken) {
+                    // Something is wrong with this engine, don't re-use it
+                    TtsPool.getInstance().discard(failedTts);
+                } else {
+                    // Don't leave the rest of this group playing for the engine's next user
+                    failedTts.stop();
+                    TtsPool.getInstance().release(failedTts);
+                }
+            }
+
+            fail(toSpeak.locale, "Speech " + notCompleted + ": <" + toSpeak + ">");
+        }
+
+        private void fail(@Nullable Locale locale, @NonNls String errorMessage) {
+            finished = true;
+            pendingUtterances.clear();
+            cacheJobs.clear();
+            if (nextTts != null) {
+                TtsPool.getInstance().release(nextTts);
+                nextTts = null;
+            }
+            completionListener.onFailure(locale, errorMessage);
+        }
     }
 
     static Optional<Locale> getLowerPrecisionLocale(Locale higherPrecision) {
@@ -170,114 +494,550 @@ public class TtsUtils {
         return Optional.absent();
     }
 
-    private interface EngineResultListener {
-        void onFound(TextToSpeech tts);
+    /**
+     * A locale followed by all its lower precision versions, language_COUNTRY_variant →
+     * language_COUNTRY → language.
+     */
+    static List<Locale> getFallbackChain(Locale locale) {
+        List<Locale> chain = new ArrayList<>(3);
+        Optional<Locale> current = Optional.of(locale);
+        while (current.isPresent()) {
+            chain.add(current.get());
+            current = getLowerPrecisionLocale(current.get());
+        }
+        return chain;
+    }
+
+    /**
+     * How precise a locale is, expressed as the {@link TextToSpeech#setLanguage(Locale)} return
+     * code an engine supporting it fully would give.
+     */
+    static int getSpecificity(Locale locale) {
+        if (!locale.getVariant().isEmpty()) {
+            return TextToSpeech.LANG_COUNTRY_VAR_AVAILABLE;
+        }
+        if (!locale.getCountry().isEmpty()) {
+            return TextToSpeech.LANG_COUNTRY_AVAILABLE;
+        }
+        return TextToSpeech.LANG_AVAILABLE;
+    }
+
+    /**
+     * The best some engine can do for a locale.
+     */
+    private static class ChainMatch {
+        /**
+         * The locale from the fallback chain to set on the engine.
+         */
+        public final Locale locale;
+
+        /**
+         * One of the {@link TextToSpeech} LANG_*_AVAILABLE codes, higher is better.
+         */
+        public final int precision;
+
+        public ChainMatch(Locale locale, int precision) {
+            this.locale = locale;
+            this.precision = precision;
+        }
+    }
+
+    /**
+     * Ask an initialized engine about all locales in a fallback chain.
+     *
+     * @return null if the engine supports none of them
+     */
+    @Nullable
+    private static ChainMatch findBestMatch(SpeechEngine tts, List<Locale> chain) {
+        ChainMatch best = null;
+        for (Locale candidate: chain) {
+            int result = tts.isLanguageAvailable(candidate);
+            if (!isSetLanguageOk(result)) {
+                continue;
+            }
+
+            // The engine may claim more precision than we asked for, but we don't get any more
+            // than that
+            int precision = Math.min(result, getSpecificity(candidate));
+            if (best == null || precision > best.precision) {
+                best = new ChainMatch(candidate, precision);
+            }
+            if (precision == getSpecificity(chain.get(0))) {
+                // Can't get any better than this
+                break;
+            }
+        }
+        return best;
+    }
+
+    interface EngineResultListener {
+        void onFound(SpeechEngine tts, String enginePackage);
         void onNotFound();
     }
 
+    /**
+     * Ask all TTS engines about a locale at the same time rather than one after the other.
+     */
+    private static volatile boolean concurrentProbing = true;
+
+    /**
+     * False probes TTS engines one by one rather than all at once, for comparing the two in
+     * tests.
+     */
+    @TestOnly
+    static void setConcurrentProbing(boolean enabled) {
+        concurrentProbing = enabled;
+    }
+
+    /**
+     * Finds the engine best supporting a locale or any of its lower precision versions.
+     * <p/>
+     * The locale with the highest precision wins, with ties going to the engine first in
+     * {@link EngineHistory#sort(List, Locale)} order. Each engine is initialized at most once
+     * per lookup, and the result goes into the {@link EngineHistory}.
+     */
     private static class EngineGetter {
-        private final Context context;
+        /**
+         * Another engine must cost less than this fraction of the indexed engine's cost to take
+         * over. Engines with about the same cost shouldn't take turns at being probed for.
+         */
+        private static final double OVERTAKE_COST_FRACTION = 0.8;
+
+        private final SpeechEngine.Factory factory;
+        private final EngineHistory history;
         private final Locale locale;
+        private final List<Locale> chain;
         private final EngineResultListener callback;
-        private TextToSpeech candidate;
+        private SpeechEngine candidate;
         private List<String> remainingEnginePackageNames;
 
-        public EngineGetter(
-            Context context, Locale locale, EngineResultListener callback)
+        /**
+         * The best engine found so far when probing sequentially, and what it can do.
+         */
+        @Nullable
+        private SpeechEngine bestTts;
+        private String bestEngine;
+        private ChainMatch bestMatch;
+        private boolean bestDemoted;
+
+        public EngineGetter(SpeechEngine.Factory factory,
+                            EngineHistory history,
+                            Locale locale,
+                            EngineResultListener callback)
         {
-            this.context = context;
+            this.factory = factory;
+            this.history = history;
             this.locale = locale;
+            this.chain = getFallbackChain(locale);
             this.callback = callback;
         }
 
         /**
-         * Put the system default TTS first in the list.
+         * Entry point for locating a TTS engine for a given locale.
+         * <p/>
+         * The end result of calling this method is that {@link #callback} gets notified.
          */
-        private static List<String> sortEngines(List<TextToSpeech.EngineInfo> engines, String defaultEngine) {
-            List<String> returnMe = new ArrayList<>(engines.size());
-            for (TextToSpeech.EngineInfo engine: engines) {
-                String packageName = engine.name;
-                if (defaultEngine.equals(packageName)) {
-                    returnMe.add(0, packageName);
-                } else {
-                    returnMe.add(packageName);
+        public void getEngine() {
+            TtsEngineIndex.Entry indexed = history.getIndexed(locale);
+            if (indexed != null && history.isDemoted(indexed.enginePackage, locale)) {
+                Timber.i("Indexed TTS engine %s has been failing for locale %s, probing all engines",
+                    indexed.enginePackage, locale);
+                history.removeIndexed(locale);
+                indexed = null;
+            }
+            if (indexed != null) {
+                String faster = findClearlyFaster(indexed);
+                if (faster != null) {
+                    Timber.i("TTS engine %s looks faster than indexed %s for locale %s, probing",
+                        faster, indexed.enginePackage, locale);
+
+                    // Until the probe confirms it, in case it's gone or changed
+                    history.removeSupported(faster, locale);
+                    history.removeIndexed(locale);
+                    indexed = null;
                 }
             }
+            if (indexed != null) {
+                tryIndexedEngine(indexed);
+                return;
+            }
 
-            return returnMe;
+            probeAllEngines();
         }
 
         /**
-         * Entry point for locating a TTS engine for a given locale.
-         * <p/>
-         * The end result of calling this method is that {@link #callback} gets notified.
+         * The index only says what worked, not what's fastest. Without this, an engine that
+         * got indexed would stay indexed even if another one turned out to be much faster.
+         *
+         * @return A healthy engine known to support our locale at least as well as the indexed
+         * one, with a cost clearly below the indexed engine's. Null if there is none.
          */
-        public void getEngine() {
-            final TextToSpeech[] someTts = new TextToSpeech[1];
+        @Nullable
+        private String findClearlyFaster(TtsEngineIndex.Entry indexed) {
+            String fastest = null;
+            double fastestCostMs = history.getCostMs(indexed.enginePackage, locale)
+                * OVERTAKE_COST_FRACTION;
+            for (Map.Entry<String, Integer> supported: history.getSupported(locale).entrySet()) {
+                String engine = supported.getKey();
+                if (engine.equals(indexed.enginePackage)
+                    || supported.getValue() < indexed.precision
+                    || history.isDemoted(engine, locale))
+                {
+                    continue;
+                }
 
-            // We need to initialize some (any) TTS...
-            someTts[0] = new TextToSpeech(context, new TextToSpeech.OnInitListener() {
+                double costMs = history.getCostMs(engine, locale);
+                if (costMs < fastestCostMs) {
+                    fastest = engine;
+                    fastestCostMs = costMs;
+                }
+            }
+            return fastest;
+        }
+
+        /**
+         * Go straight for the engine and locale the index says to use, fall back to probing all
+         * engines if that doesn't work.
+         */
+        private void tryIndexedEngine(final TtsEngineIndex.Entry indexed) {
+            Timber.d("TTS engine index says to use %s with %s for locale %s",
+                indexed.enginePackage, indexed.resolvedLocale, locale);
+            final long initStartMs = factory.getNowMs();
+            candidate = factory.create(indexed.enginePackage, new SpeechEngine.InitListener() {
                 @Override
-                public void onInit(int status) {
-                    // ... so that we can query it for a list of others once it's initialized.
-                    if (status != TextToSpeech.SUCCESS) {
-                        @NonNls String message = "Failed to initialize system default TTS: " + status;
-                        Timber.e(new Exception(message), message);
-                        return;
+                public void onInit(boolean success) {
+                    if (success) {
+                        onInitialized(indexed.enginePackage, initStartMs);
+
+                        if (setLanguage(candidate, indexed.enginePackage, indexed.resolvedLocale)) {
+                            Timber.i("TTS engine %s set to %s for locale %s from index",
+                                indexed.enginePackage, candidate.getLanguage(), locale);
+                            callback.onFound(candidate, indexed.enginePackage);
+                            return;
+                        }
                     }
 
-                    remainingEnginePackageNames =
-                        sortEngines(someTts[0].getEngines(), someTts[0].getDefaultEngine());
-                    Timber.d("System TTS packages: %s", remainingEnginePackageNames);
+                    Timber.w("Indexed TTS engine %s failed for locale %s, probing all engines",
+                        indexed.enginePackage, locale);
+                    history.recordFailure(indexed.enginePackage, locale);
+                    history.removeIndexed(locale);
+                    candidate.shutdown();
+                    candidate = null;
+                    probeAllEngines();
+                }
+            });
+        }
 
-                    // We only wanted it for listing other installed engines, and we have that list
-                    // now. Bye.
-                    someTts[0].shutdown();
-                    someTts[0] = null;
+        private void probeAllEngines() {
+            final long listStartMs = factory.getNowMs();
+            factory.listEngines(new SpeechEngine.EngineListListener() {
+                @Override
+                public void onListed(List<String> enginePackages) {
+                    remainingEnginePackageNames = new ArrayList<>(enginePackages);
+                    history.sort(remainingEnginePackageNames, locale);
+                    TtsLatency.record(TtsLatency.Stage.LIST_ENGINES, null, null, 0,
+                        factory.getNowMs() - listStartMs);
+                    Timber.d("System TTS packages: %s", remainingEnginePackageNames);
 
-                    // Start going through the remaining engine package names
-                    tryNextEngine();
+                    if (concurrentProbing) {
+                        new ConcurrentProbe(remainingEnginePackageNames).start();
+                    } else {
+                        // Start going through the remaining engine package names
+                        tryNextEngine();
+                    }
                 }
             });
         }
 
+        /**
+         * Set the engine up for the chosen locale, remember the choice and tell our callback.
+         */
+        private void choose(SpeechEngine tts, String engine, ChainMatch match, long startMs) {
+            if (!setLanguage(tts, engine, match.locale)) {
+                // It said it supported it a moment ago...
+                Timber.w("TTS engine %s refused locale %s", engine, match.locale);
+                history.recordFailure(engine, locale);
+                tts.shutdown();
+                callback.onNotFound();
+                return;
+            }
+
+            Timber.i("TTS engine %s set to %s for locale %s after %dms",
+                engine, tts.getLanguage(), locale, factory.getNowMs() - startMs);
+            history.putIndexed(
+                locale, new TtsEngineIndex.Entry(engine, match.locale, match.precision));
+            callback.onFound(tts, engine);
+        }
+
+        private void onInitialized(String engine, long initStartMs) {
+            long initMs = factory.getNowMs() - initStartMs;
+            TtsLatency.record(TtsLatency.Stage.INIT, engine, locale, 0, initMs);
+            history.recordInitialized(engine, locale, initMs);
+        }
+
+        /**
+         * @return true if the engine accepted the locale
+         */
+        private boolean setLanguage(SpeechEngine tts, String engine, Locale resolvedLocale) {
+            long startMs = factory.getNowMs();
+            int result = tts.setLanguage(resolvedLocale);
+            TtsLatency.record(TtsLatency.Stage.SET_LANGUAGE, engine, resolvedLocale, 0,
+                factory.getNowMs() - startMs);
+            return isSetLanguageOk(result);
+        }
+
+        /**
+         * Initializes all engines at once and picks the best one. The best one is picked as soon
+         * as no engine that hasn't answered yet could beat it, and all others are shut down
+         * right away.
+         */
+        private class ConcurrentProbe {
+            /**
+             * Highest priority first.
+             */
+            private final List<String> engines;
+            private final SpeechEngine[] instances;
+
+            private final boolean[] answered;
+
+            /**
+             * Engines that have been failing, see {@link EngineScores}.
+             */
+            private final boolean[] demoted;
+
+            /**
+             * What each engine can do, null for engines that haven't answered yet or don't
+             * support our locale.
+             */
+            private final ChainMatch[] matches;
+            private final boolean[] shutDown;
+
+            private final long startMs = factory.getNowMs();
+            private boolean done;
+            private int chosen = -1;
+
+            ConcurrentProbe(List<String> engines) {
+                this.engines = new ArrayList<>(engines);
+                this.instances = new SpeechEngine[engines.size()];
+                this.answered = new boolean[engines.size()];
+                this.demoted = new boolean[engines.size()];
+                for (int i = 0; i < demoted.length; i++) {
+                    demoted[i] = history.isDemoted(engines.get(i), locale);
+                }
+                this.matches = new ChainMatch[engines.size()];
+                this.shutDown = new boolean[engines.size()];
+            }
+
+            void start() {
+                Timber.d("Asking TTS engines %s about locales %s concurrently...", engines, chain);
+                for (int i = 0; i < engines.size(); i++) {
+                    if (done) {
+                        // Decided already, no need to start any more engines
+                        break;
+                    }
+
+                    final int index = i;
+                    instances[i] = factory.create(engines.get(i), new SpeechEngine.InitListener() {
+                        @Override
+                        public void onInit(boolean success) {
+                            onProbeResult(index, success);
+                        }
+                    });
+                }
+
+                // Failing engines can call onInit() from their constructors, before we had them
+                // all. Deal with anything that was decided that way.
+                if (done) {
+                    shutDownLosers();
+                } else {
+                    decide();
+                }
+            }
+
+            private void onProbeResult(int index, boolean success) {
+                if (done) {
+                    shutDownLosers();
+                    return;
+                }
+
+                answered[index] = true;
+                if (!success) {
+                    Timber.w("Failed to initialize TTS engine %s", engines.get(index));
+                    history.recordFailure(engines.get(index), locale);
+                } else {
+                    onInitialized(engines.get(index), startMs);
+                    matches[index] = findBestMatch(instances[index], chain);
+                    if (matches[index] != null) {
+                        history.putSupported(engines.get(index), locale, matches[index].precision);
+                    }
+                    Timber.d("TTS engine %s best supports %s of %s after %dms", engines.get(index),
+                        matches[index] == null ? "none" : matches[index].locale,
+                        chain, factory.getNowMs() - startMs);
+                }
+
+                decide();
+            }
+
+            private void decide() {
+                int best = -1;
+                boolean allAnswered = true;
+                for (int i = 0; i < matches.length; i++) {
+                    if (!answered[i]) {
+                        allAnswered = false;
+                        continue;
+                    }
+                    if (matches[i] == null) {
+                        continue;
+                    }
+                    if (isBetter(i, best)) {
+                        best = i;
+                    }
+                }
+
+                if (best == -1) {
+                    if (!allAnswered) {
+                        return;
+                    }
+
+                    // Everybody has answered, and nobody supports our locale
+                    done = true;
+                    shutDownLosers();
+                    Timber.w("No TTS engine seems to support any of %s", chain);
+                    callback.onNotFound();
+                    return;
+                }
+
+                for (int i = 0; i < matches.length; i++) {
+                    if (answered[i]) {
+                        continue;
+                    }
+
+                    if (demoted[i] != demoted[best]) {
+                        if (demoted[best]) {
+                            // Anything healthy beats a demoted engine
+                            return;
+                        }
+                        continue;
+                    }
+
+                    // Higher priority engines win ties, lower priority ones need to do better
+                    boolean couldWin = i < best
+                        || matches[best].precision < getSpecificity(locale);
+                    if (couldWin) {
+                        return;
+                    }
+                }
+                if (instances[best] == null) {
+                    // Still being constructed, start() will call us again
+                    return;
+                }
+
+                done = true;
+                chosen = best;
+                shutDownLosers();
+                choose(instances[best], engines.get(best), matches[best], startMs);
+            }
+
+            /**
+             * Healthy engines beat demoted ones, then higher precision wins, then higher
+             * priority.
+             *
+             * @param other -1 means no other candidate
+             */
+            private boolean isBetter(int candidate, int other) {
+                if (other == -1) {
+                    return true;
+                }
+                if (demoted[candidate] != demoted[other]) {
+                    return !demoted[candidate];
+                }
+                if (matches[candidate].precision != matches[other].precision) {
+                    return matches[candidate].precision > matches[other].precision;
+                }
+                return candidate < other;
+            }
+
+            private void shutDownLosers() {
+                for (int i = 0; i < instances.length; i++) {
+                    if (i == chosen || shutDown[i] || instances[i] == null) {
+                        continue;
+                    }
+                    instances[i].shutdown();
+                    shutDown[i] = true;
+                }
+            }
+        }
+
         private void tryNextEngine() {
-            if (candidate != null) {
+            if (candidate != null && candidate != bestTts) {
                 candidate.shutdown();
             }
+            candidate = null;
 
             if (remainingEnginePackageNames.isEmpty()) {
-                Timber.w("No TTS engine seems to support %s", locale);
+                if (bestTts != null) {
+                    choose(bestTts, bestEngine, bestMatch, factory.getNowMs());
+                    return;
+                }
+
+                Timber.w("No TTS engine seems to support any of %s", chain);
                 callback.onNotFound();
                 return;
             }
             final String engine = remainingEnginePackageNames.get(0);
             remainingEnginePackageNames.remove(0);
-            Timber.d("Asking TTS engine %s about locale %s...", engine, locale);
+            if (bestTts != null && !bestDemoted
+                && history.isDemoted(engine, locale))
+            {
+                // Engines are sorted with demoted ones last, none of the rest can beat what we have
+                remainingEnginePackageNames.clear();
+                tryNextEngine();
+                return;
+            }
+            Timber.d("Asking TTS engine %s about locales %s...", engine, chain);
 
-            candidate = new TextToSpeech(context, new TextToSpeech.OnInitListener() {
-                @SuppressWarnings("deprecation")
+            final long initStartMs = factory.getNowMs();
+            candidate = factory.create(engine, new SpeechEngine.InitListener() {
                 @Override
-                public void onInit(int status) {
-                    if (status != TextToSpeech.SUCCESS) {
+                public void onInit(boolean success) {
+                    if (!success) {
                         Timber.w("Failed to initialize TTS engine %s", engine);
+                        history.recordFailure(engine, locale);
                         tryNextEngine();
                         return;
                     }
+                    onInitialized(engine, initStartMs);
 
-                    int result = candidate.setLanguage(locale);
-                    if (isSetLanguageOk(result)) {
-                        Timber.i("TTS engine %s set to %s for locale %s",
-                            engine, candidate.getLanguage(), locale);
-                        callback.onFound(candidate);
+                    ChainMatch match = findBestMatch(candidate, chain);
+                    if (match == null) {
+                        Timber.d("TTS engine %s didn't support any of %s", engine, chain);
+                        tryNextEngine();
                         return;
                     }
+                    history.putSupported(engine, locale, match.precision);
+
+                    boolean demoted = history.isDemoted(engine, locale);
+                    boolean better = bestMatch == null
+                        || (bestDemoted && !demoted)
+                        || (bestDemoted == demoted && match.precision > bestMatch.precision);
+                    if (better) {
+                        if (bestTts != null) {
+                            bestTts.shutdown();
+                        }
+                        bestTts = candidate;
+                        bestEngine = engine;
+                        bestMatch = match;
+                        bestDemoted = demoted;
+                    }
+
+                    if (!bestDemoted && bestMatch.precision == getSpecificity(locale)) {
+                        // Nobody can do better than this
+                        remainingEnginePackageNames.clear();
+                    }
 
-                    // This wasn't it, try the next candidate
-                    Timber.d("TTS engine %s didn't support locale %s", engine, locale);
                     tryNextEngine();
                 }
-            }, engine);
+            });
         }
     }
 
@@ -297,7 +1057,82 @@ public class TtsUtils {
         throw new UnsupportedOperationException("Utility class, don't instantiate");
     }
 
-    private static void getEngineForLocale(Context context, Locale locale, EngineResultListener callback) {
-        new EngineGetter(context, locale, callback).getEngine();
+    static void getEngineForLocale(Context context, Locale locale, EngineResultListener callback) {
+        getEngineForLocale(new AndroidSpeechEngine.Factory(context), getEngineHistory(context),
+            locale, callback);
+    }
+
+    static void getEngineForLocale(SpeechEngine.Factory factory,
+                                   EngineHistory history,
+                                   Locale locale,
+                                   EngineResultListener callback)
+    {
+        new EngineGetter(factory, history, locale, callback).getEngine();
+    }
+
+    /**
+     * The persistent {@link EngineHistory}, backed by {@link TtsEngineIndex} and
+     * {@link EngineScores}.
+     */
+    static EngineHistory getEngineHistory(final Context context) {
+        return new EngineHistory() {
+            @Nullable
+            @Override
+            public TtsEngineIndex.Entry getIndexed(Locale locale) {
+                return TtsEngineIndex.get(context, locale);
+            }
+
+            @Override
+            public void putIndexed(Locale locale, TtsEngineIndex.Entry entry) {
+                TtsEngineIndex.put(context, locale,
+                    entry.enginePackage, entry.resolvedLocale, entry.precision);
+            }
+
+            @Override
+            public void removeIndexed(Locale locale) {
+                TtsEngineIndex.remove(context, locale);
+            }
+
+            @Override
+            public Map<String, Integer> getSupported(Locale locale) {
+                return TtsEngineIndex.getSupported(context, locale);
+            }
+
+            @Override
+            public void putSupported(String enginePackage, Locale locale, int precision) {
+                TtsEngineIndex.putSupported(context, locale, enginePackage, precision);
+            }
+
+            @Override
+            public void removeSupported(String enginePackage, Locale locale) {
+                TtsEngineIndex.removeSupported(context, locale, enginePackage);
+            }
+
+            @Override
+            public double getCostMs(String enginePackage, Locale locale) {
+                return EngineScores.getCostMs(context, enginePackage, locale);
+            }
+
+            @Override
+            public boolean isDemoted(String enginePackage, Locale locale) {
+                return EngineScores.isDemoted(context, enginePackage, locale);
+            }
+
+            @Override
+            public void sort(List<String> enginePackages, Locale locale) {
+                EngineScores.sort(context, enginePackages, locale);
+            }
+
+            @Override
+            public void recordInitialized(String enginePackage, Locale locale, long initMs) {
+                EngineScores.recordInitMs(context, enginePackage, locale, initMs);
+                EngineScores.recordSuccess(context, enginePackage, locale);
+            }
+
+            @Override
+            public void recordFailure(String enginePackage, Locale locale) {
+                EngineScores.recordFailure(context, enginePackage, locale);
+            }
+        };
     }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import timber.log.Timber;
+
+/**
+ * Starts initializing a TTS engine as soon as we know an announcement is likely coming.
+ * <p/>
+ * Our receivers call {@link #announcementLikely(Context, String)} before handing over to the
+ * presenters. While the presenters look up contacts, detect languages and load translations,
+ * the engine for the most likely locale is being bound. Once ready, it's put into the
+ * {@link TtsPool} where the announcement will find it. If the announcement needs the engine
+ * before it's ready, it gets it handed over once it is rather than starting a lookup of its own.
+ * <p/>
+ * The most likely locale is the one the last announcement started in.
+ */
+public class TtsWarmup {
+    private static class Warmup {
+        public final Locale locale;
+        public final long startMs;
+        public long readyMs;
+
+        /**
+         * Somebody who needed the engine before it was ready.
+         */
+        @Nullable
+        public TtsUtils.EngineResultListener waiter;
+        public long neededMs;
+
+        public Warmup(Locale locale) {
+            this.locale = locale;
+            this.startMs = System.currentTimeMillis();
+        }
+    }
+
+    private static final Map<Locale, Warmup> IN_FLIGHT = new HashMap<>();
+
+    /**
+     * Warmed up instances that haven't been used yet.
+     */
+    private static final Map<SpeechEngine, Warmup> WARMED = new WeakHashMap<>();
+
+    @Nullable
+    private static Locale lastLocale;
+
+    private TtsWarmup() {
+        throw new UnsupportedOperationException("Utility class, please don't instantiate");
+    }
+
+    /**
+     * Start initializing the engine for the most likely locale, unless no headset is connected or
+     * we have one ready already.
+     *
+     * @param source What the announcement will be about, for logging
+     */
+    public static void announcementLikely(Context context, @NonNls String source) {
+        if (!AudioUtils.isHeadsetConnected(context)) {
+            Timber.v("No headset connected, not warming up TTS for %s", source);
+            return;
+        }
+
+        final Warmup warmup;
+        synchronized (TtsWarmup.class) {
+            Locale locale = getLikelyLocale();
+            if (IN_FLIGHT.containsKey(locale)) {
+                return;
+            }
+            if (TtsPool.getInstance().hasIdle(locale)) {
+                Timber.v("TTS for %s already warm, %s", locale, source);
+                return;
+            }
+
+            warmup = new Warmup(locale);
+            IN_FLIGHT.put(locale, warmup);
+        }
+
+        Timber.d("%s announcement likely, warming up TTS for %s", source, warmup.locale);
+        TtsUtils.getEngineForLocale(context.getApplicationContext(), warmup.locale,
+            new TtsUtils.EngineResultListener() {
+                @Override
+                public void onFound(SpeechEngine tts, String enginePackage) {
+                    onWarmedUp(warmup, tts, enginePackage);
+                }
+
+                @Override
+                public void onNotFound() {
+                    onWarmupFailed(warmup);
+                }
+            });
+    }
+
+    private static synchronized Locale getLikelyLocale() {
+        if (lastLocale != null) {
+            return lastLocale;
+        }
+
+        // Translations are per language, so that's what announcements start with
+        return new Locale(Locale.getDefault().getLanguage());
+    }
+
+    /**
+     * Remember what locale an announcement started in, that's what we'll warm up for next time.
+     */
+    static synchronized void setLastLocale(Locale locale) {
+        lastLocale = locale;
+    }
+
+    /**
+     * If we're warming up an engine for this locale, hand it to the listener when it's ready.
+     * The listener is responsible for adding the engine to the {@link TtsPool}.
+     *
+     * @return true if the listener will be called, false if you need to look up an engine
+     * yourself
+     */
+    static synchronized boolean join(Locale locale, TtsUtils.EngineResultListener listener) {
+        Warmup warmup = IN_FLIGHT.get(locale);
+        if (warmup == null || warmup.waiter != null) {
+            return false;
+        }
+
+        warmup.waiter = listener;
+        warmup.neededMs = System.currentTimeMillis();
+        Timber.d("Waiting for TTS warm-up for %s", locale);
+        return true;
+    }
+
+    /**
+     * Call after getting an instance out of the {@link TtsPool}, for logging how much time
+     * warming it up saved.
+     */
+    static void onAcquired(SpeechEngine tts) {
+        Warmup warmup;
+        synchronized (TtsWarmup.class) {
+            warmup = WARMED.remove(tts);
+        }
+        if (warmup == null) {
+            return;
+        }
+
+        Timber.i("TTS warm-up for %s saved %dms", warmup.locale,
+            getSavedMs(warmup.startMs, warmup.readyMs, System.currentTimeMillis()));
+    }
+
+    private static void onWarmedUp(Warmup warmup, SpeechEngine tts, String enginePackage) {
+        long readyMs = System.currentTimeMillis();
+        TtsUtils.EngineResultListener waiter;
+        synchronized (TtsWarmup.class) {
+            IN_FLIGHT.remove(warmup.locale);
+            warmup.readyMs = readyMs;
+            waiter = warmup.waiter;
+            if (waiter == null) {
+                WARMED.put(tts, warmup);
+            }
+        }
+
+        if (waiter == null) {
+            Timber.d("TTS for %s warmed up in %dms", warmup.locale, readyMs - warmup.startMs);
+            TtsPool.getInstance().add(enginePackage, warmup.locale, tts);
+            TtsPool.getInstance().release(tts);
+            return;
+        }
+
+        Timber.i("TTS warm-up for %s saved %dms", warmup.locale,
+            getSavedMs(warmup.startMs, readyMs, warmup.neededMs));
+        waiter.onFound(tts, enginePackage);
+    }
+
+    private static void onWarmupFailed(Warmup warmup) {
+        TtsUtils.EngineResultListener waiter;
+        synchronized (TtsWarmup.class) {
+            IN_FLIGHT.remove(warmup.locale);
+            waiter = warmup.waiter;
+        }
+
+        Timber.w("TTS warm-up for %s found no engine", warmup.locale);
+        if (waiter != null) {
+            waiter.onNotFound();
+        }
+    }
+
+    /**
+     * How much sooner an engine was ready thanks to warming it up.
+     * <p/>
+     * Without warming up, initialization would have started when the engine was needed, and
+     * taken as long as the warm-up did.
+     *
+     * @param startMs When warming up started
+     * @param readyMs When the warmed up engine was ready
+     * @param neededMs When somebody needed the engine
+     */
+    static long getSavedMs(long startMs, long readyMs, long neededMs) {
+        return Math.max(0, Math.min(readyMs - startMs, neededMs - startMs));
+    }
+}
@@ -26,6 +26,7 @@ import android.net.Uri;
 import android.provider.CalendarContract;
 
 import com.gmail.walles.johan.headsetharry.LoggingUtils;
+import com.gmail.walles.johan.headsetharry.TtsWarmup;
 
 import java.util.Date;
 
@@ -60,6 +61,7 @@ public class CalendarReceiver extends BroadcastReceiver {
         Uri uri = intent.getData();
         Date alarmTime = new Date(Long.parseLong(uri.getLastPathSegment()));
         Timber.d("Got calendar reminder for %s", alarmTime);
+        TtsWarmup.announcementLikely(context, "Calendar");
         CalendarPresenter.speak(context, alarmTime);
     }
 }
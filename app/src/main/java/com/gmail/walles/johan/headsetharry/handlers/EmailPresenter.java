@@ -35,6 +35,7 @@ import com.gmail.walles.johan.headsetharry.R;
 import com.gmail.walles.johan.headsetharry.SpeakerService;
 import com.gmail.walles.johan.headsetharry.TextWithLocale;
 import com.gmail.walles.johan.headsetharry.Translations;
+import com.gmail.walles.johan.headsetharry.langdetect.NgramScorer;
 import com.google.common.base.Optional;
 
 import org.jetbrains.annotations.NonNls;
@@ -42,8 +43,6 @@ import org.jetbrains.annotations.NonNls;
 import java.util.List;
 import java.util.Locale;
 
-import timber.log.Timber;
-
 public class EmailPresenter extends Presenter {
     @NonNls
     private static final String GOOGLE_INBOX_PACKAGE_NAME = "com.google.android.apps.inbox";
@@ -214,9 +213,116 @@ public class EmailPresenter extends Presenter {
         return senderString.substring(colonSpaceIndex + ": ".length());
     }
 
+    /**
+     * Merge subject and body into one text to detect the language of.
+     * <p/>
+     * Quoted and empty lines are skipped, and we stop at the signature or at a forwarded / replied-to
+     * message. This is done line by line without looking any further into the body than needed.
+     *
+     * @param maxLength The sample won't be longer than this
+     */
+    static String getLanguageSample(
+        @Nullable CharSequence subject, @Nullable CharSequence body, int maxLength)
+    {
+        StringBuilder sample = new StringBuilder();
+        if (subject != null) {
+            sample.append(subject);
+        }
+
+        int lineStart = 0;
+        if (body != null && subject != null && startsWith(body, subject)) {
+            // Google Inbox includes the subject at the start of the body
+            lineStart = subject.length();
+        }
+        while (body != null && lineStart < body.length() && sample.length() < maxLength) {
+            int lineEnd = lineStart;
+            while (lineEnd < body.length() && body.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            if (isEndOfMessage(body, lineStart, lineEnd)) {
+                // Signatures and forwarded messages aren't necessarily in the sender's language
+                break;
+            }
+
+            int contentEnd = lineEnd;
+            while (contentEnd > lineStart && Character.isWhitespace(body.charAt(contentEnd - 1))) {
+                contentEnd--;
+            }
+
+            if (contentEnd > lineStart && !isQuote(body, lineStart, contentEnd)) {
+                if (sample.length() > 0) {
+                    sample.append('\n');
+                }
+                sample.append(body, lineStart, contentEnd);
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        if (sample.length() > maxLength) {
+            sample.setLength(maxLength);
+        }
+        return sample.toString();
+    }
+
+    private static boolean startsWith(CharSequence text, CharSequence prefix) {
+        if (prefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lines starting with '>' are quotes from other messages.
+     */
+    private static boolean isQuote(CharSequence text, int lineStart, int lineEnd) {
+        for (int i = lineStart; i < lineEnd; i++) {
+            char c = text.charAt(i);
+            if (c == '>') {
+                return true;
+            }
+            if (!Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Signature delimiters ("-- ") and "-----Original Message-----" style separators end the
+     * part of the message written by the sender.
+     */
+    private static boolean isEndOfMessage(CharSequence text, int lineStart, int lineEnd) {
+        // Ignore trailing whitespace, the delimiter is "-- " but it often loses its space
+        while (lineEnd > lineStart && Character.isWhitespace(text.charAt(lineEnd - 1))) {
+            lineEnd--;
+        }
+
+        int length = lineEnd - lineStart;
+        if (length < 2) {
+            return false;
+        }
+        for (int i = lineStart; i < lineStart + 2; i++) {
+            if (text.charAt(i) != '-') {
+                return false;
+            }
+        }
+
+        // "--" or "-----Something-----"
+        return length == 2 || (length > 4 && text.charAt(lineEnd - 1) == '-');
+    }
+
     @NonNls
     private static final String EXTRA_SENDER = "com.gmail.walles.johan.headsetharry.sender";
     @NonNls
+    private static final String SENDER_KEY_PREFIX = "email:";
+    @NonNls
     private static final String EXTRA_SUBJECT = "com.gmail.walles.johan.headsetharry.subject";
 
     /**
@@ -243,17 +349,9 @@ public class EmailPresenter extends Presenter {
         // It's OK for the body to be empty; we don't always get it and we don't need to present it
         CharSequence body = intent.getCharSequenceExtra(EXTRA_BODY);
 
-        // FIXME: Prefer identifying the language from the body, it should contain more text
-        Optional<Locale> emailLocale = identifyLanguage(subject);
-        boolean hasBody = !TextUtils.isEmpty(body);
-        if (hasBody && !emailLocale.isPresent()) {
-            emailLocale = identifyLanguage(body);
-            if (emailLocale.isPresent()) {
-                Timber.d("Email locale identified from body: %s", emailLocale.get());
-            } else {
-                Timber.d("Failed to identify email locale from body");
-            }
-        }
+        // Subject and body in one go, the body usually has more text to go on
+        Optional<Locale> emailLocale = identifySenderLanguage(SENDER_KEY_PREFIX + sender,
+            getLanguageSample(subject, body, NgramScorer.MAX_CHARS));
 
         Translations translations = new Translations(context, emailLocale.or(Locale.getDefault()),
             R.string.email_from_who_colon_subject,
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.handlers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.gmail.walles.johan.headsetharry.langdetect.BinaryLanguageProfile;
+import com.gmail.walles.johan.headsetharry.langdetect.LanguageIdentifier;
+import com.gmail.walles.johan.headsetharry.langdetect.NgramScorer;
+import com.gmail.walles.johan.headsetharry.langdetect.ReferenceLanguageDetector;
+import com.gmail.walles.johan.headsetharry.langdetect.Script;
+
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Keeps one language detector around for the currently configured set of languages.
+ * <p/>
+ * Building a detector means looking up all configured language profiles. So we do that only when
+ * the set of configured languages changes, and share the result between all presenters and
+ * threads.
+ */
+class LanguageDetectorCache {
+    interface ProfileLoader {
+        /**
+         * Load profiles for as many of the given locale codes as possible.
+         */
+        @NonNull
+        List<BinaryLanguageProfile> getLanguageProfiles(Set<String> localeCodes);
+    }
+
+    static class Detector {
+        /**
+         * The locale codes this detector was built for, as returned by
+         * {@link com.gmail.walles.johan.headsetharry.settings.LanguagesPreference#getValues}.
+         */
+        public final Set<String> localeCodes;
+
+        /**
+         * Null if none of the configured languages could be loaded.
+         */
+        @Nullable
+        public final LanguageIdentifier languageDetector;
+
+        /**
+         * For each script used by exactly one of the configured languages, that language's
+         * locale code. Text written in one of these scripts needs no further detection.
+         */
+        private final Map<Script, String> scriptLanguages;
+
+        private Detector(Set<String> localeCodes, @Nullable LanguageIdentifier languageDetector) {
+            this.localeCodes = localeCodes;
+            this.languageDetector = languageDetector;
+            this.scriptLanguages = getScriptLanguages(localeCodes);
+        }
+
+        private static Map<Script, String> getScriptLanguages(Set<String> localeCodes) {
+            Map<Script, String> scriptLanguages = new EnumMap<>(Script.class);
+            Set<Script> ambiguous = EnumSet.noneOf(Script.class);
+            for (String localeCode: localeCodes) {
+                for (Script script: Script.forLocaleCode(localeCode)) {
+                    if (scriptLanguages.put(script, localeCode) != null) {
+                        ambiguous.add(script);
+                    }
+                }
+            }
+            for (Script script: ambiguous) {
+                scriptLanguages.remove(script);
+            }
+            return scriptLanguages;
+        }
+
+        /**
+         * Identify the language of a text by its script alone.
+         *
+         * @return null if the text's script doesn't settle which configured language it is
+         */
+        @Nullable
+        public String detectByScript(CharSequence text) {
+            if (scriptLanguages.isEmpty()) {
+                return null;
+            }
+
+            Script script = Script.of(text);
+            if (script == null) {
+                return null;
+            }
+            return scriptLanguages.get(script);
+        }
+    }
+
+    private final AtomicLong rebuildCount = new AtomicLong();
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    @Nullable
+    private volatile Detector detector;
+
+    private volatile boolean referenceMode;
+
+    /**
+     * Use optimaize's own detector rather than our {@link NgramScorer}. Much slower, but useful
+     * for comparing detection accuracy in tests.
+     */
+    @TestOnly
+    public synchronized void setReferenceMode(boolean referenceMode) {
+        if (this.referenceMode == referenceMode) {
+            return;
+        }
+        this.referenceMode = referenceMode;
+
+        // Force a rebuild on the next get()
+        detector = null;
+        Timber.i("Language detector reference mode %s", referenceMode ? "enabled" : "disabled");
+    }
+
+    /**
+     * Get a detector for the given set of locale codes, rebuilding it only if the set has changed
+     * since last time.
+     */
+    @NonNull
+    public Detector get(Set<String> localeCodes, ProfileLoader profileLoader) {
+        Detector cached = detector;
+        if (cached != null && cached.localeCodes.equals(localeCodes)) {
+            reuseCount.incrementAndGet();
+            return cached;
+        }
+
+        synchronized (this) {
+            // Somebody else may have rebuilt it while we were waiting for the lock
+            cached = detector;
+            if (cached != null && cached.localeCodes.equals(localeCodes)) {
+                reuseCount.incrementAndGet();
+                return cached;
+            }
+
+            long t0 = System.currentTimeMillis();
+
+            // Copy the set, we don't want to be affected by whatever our caller does to theirs
+            Set<String> key = Collections.unmodifiableSet(new HashSet<>(localeCodes));
+            cached = new Detector(key, build(key, profileLoader));
+            detector = cached;
+
+            long rebuilds = rebuildCount.incrementAndGet();
+            Timber.i("Language detector for <%s> built in %dms, rebuilds=%d, reuses=%d",
+                key, System.currentTimeMillis() - t0, rebuilds, reuseCount.get());
+            return cached;
+        }
+    }
+
+    @Nullable
+    private LanguageIdentifier build(Set<String> localeCodes, ProfileLoader profileLoader) {
+        if (referenceMode) {
+            try {
+                return new ReferenceLanguageDetector(localeCodes);
+            } catch (IllegalArgumentException e) {
+                Timber.w(e, "Building reference language detector failed");
+                return null;
+            }
+        }
+
+        List<BinaryLanguageProfile> languageProfiles = profileLoader.getLanguageProfiles(localeCodes);
+        if (languageProfiles.isEmpty()) {
+            return null;
+        }
+
+        return new NgramScorer(languageProfiles);
+    }
+
+    /**
+     * Drop the current detector, the next {@link #get} will build a new one.
+     */
+    public synchronized void clear() {
+        detector = null;
+    }
+
+    /**
+     * How many times we have had to build a new detector.
+     */
+    public long getRebuildCount() {
+        return rebuildCount.get();
+    }
+
+    /**
+     * How many times we could re-use an already built detector.
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.handlers;
+
+import android.support.annotation.Nullable;
+
+import com.gmail.walles.johan.headsetharry.CacheRegistry;
+import com.gmail.walles.johan.headsetharry.TrimmableCache;
+import com.google.common.base.Optional;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Remembers recent language detection results.
+ * <p/>
+ * The same texts come up over and over; SSIDs of networks we reconnect to, subjects of mailing
+ * list threads and titles of recurring calendar events. Detecting their languages again is a
+ * waste.
+ * <p/>
+ * Texts are normalized before use as keys, so that texts differing only in case or whitespace
+ * share an entry. Texts where no language could be detected are remembered as well.
+ * <p/>
+ * Long texts like message bodies are unlikely to come back, so they aren't cached at all. Copying
+ * them into keys would cost more than it saves, and they would push out the short texts that do
+ * come back.
+ */
+class LanguageResultCache implements TrimmableCache {
+    /**
+     * Rough size of one entry excluding its text; map entry, key, String and Optional objects.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 120;
+
+    /**
+     * Texts longer than this aren't cached. Fits SSIDs, subjects and event titles.
+     */
+    static final int MAX_TEXT_LENGTH = 100;
+
+    private static class Key {
+        private final Set<String> localeCodes;
+        private final String text;
+
+        Key(Set<String> localeCodes, String text) {
+            this.localeCodes = localeCodes;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key)o;
+            return text.equals(key.text) && localeCodes.equals(key.localeCodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * localeCodes.hashCode() + text.hashCode();
+        }
+    }
+
+    private final Map<Key, Optional<String>> results;
+
+    private long hits;
+    private long misses;
+
+    public LanguageResultCache(final int maxSize) {
+        // Access ordered, which makes this an LRU cache
+        results = new LinkedHashMap<Key, Optional<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Optional<String>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Lower case the text, trim it and collapse all whitespace runs into single spaces.
+     */
+    static String normalize(CharSequence text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param localeCodes The configured languages the result is for
+     * @return null if we don't know, absent if we know no language could be detected
+     */
+    @Nullable
+    public synchronized Optional<String> get(Set<String> localeCodes, CharSequence text) {
+        if (text.length() > MAX_TEXT_LENGTH) {
+            return null;
+        }
+
+        Optional<String> result = results.get(new Key(localeCodes, normalize(text)));
+        if (result == null) {
+            misses++;
+            Timber.d("Language result cache miss, hits=%d, misses=%d", hits, misses);
+        } else {
+            hits++;
+            Timber.d("Language result cache hit, hits=%d, misses=%d", hits, misses);
+        }
+        return result;
+    }
+
+    public synchronized void put(Set<String> localeCodes, CharSequence text, Optional<String> localeCode) {
+        if (text.length() > MAX_TEXT_LENGTH) {
+            return;
+        }
+        results.put(new Key(localeCodes, normalize(text)), localeCode);
+    }
+
+    public synchronized void clear() {
+        results.clear();
+        Timber.i("Language result cache cleared, hits=%d, misses=%d", hits, misses);
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (Key key: results.keySet()) {
+            bytes += ENTRY_OVERHEAD_BYTES + 2 * key.text.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops the least recently used entries.
+     */
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        int dropCount = (int)Math.ceil(results.size() * CacheRegistry.getDropFraction(level));
+        Iterator<Key> iterator = results.keySet().iterator();
+        for (int i = 0; i < dropCount; i++) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+}
@@ -25,6 +25,7 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import com.gmail.walles.johan.headsetharry.LoggingUtils;
+import com.gmail.walles.johan.headsetharry.TtsWarmup;
 
 import org.jetbrains.annotations.NonNls;
 
@@ -67,6 +68,8 @@ public class MmsReceiver extends BroadcastReceiver {
             return;
         }
 
+        TtsWarmup.announcementLikely(context, "MMS");
+
         // FIXME: That the charset of incoming numbers is the default Android encoding (UTF-8) is
         // really just a guess
         @NonNls String incomingNumber = new String(buffer, Charset.defaultCharset());
@@ -30,6 +30,7 @@ import android.text.style.TextAppearanceSpan;
 
 import com.crashlytics.android.answers.CustomEvent;
 import com.gmail.walles.johan.headsetharry.LoggingUtils;
+import com.gmail.walles.johan.headsetharry.TtsWarmup;
 import com.gmail.walles.johan.headsetharry.settings.NotificationsPreference;
 
 import timber.log.Timber;
@@ -52,7 +53,12 @@ public class NotificationListener extends NotificationListenerService {
 
         if (!EmailPresenter.speak(this, sbn)) {
             Timber.d("No handler for %s notification", sbn.getPackageName());
+            return;
         }
+
+        // The service won't get to the announcement until we return, get a TTS engine going
+        // in the meantime
+        TtsWarmup.announcementLikely(this, "Email");
     }
 
     private void logIncomingNotification(StatusBarNotification sbn) {
@@ -22,30 +22,84 @@ package com.gmail.walles.johan.headsetharry.handlers;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import com.gmail.walles.johan.headsetharry.CacheRegistry;
 import com.gmail.walles.johan.headsetharry.TextWithLocale;
+import com.gmail.walles.johan.headsetharry.TrimmableCache;
+import com.gmail.walles.johan.headsetharry.langdetect.BinaryLanguageProfile;
+import com.gmail.walles.johan.headsetharry.langdetect.BinaryLanguageProfiles;
 import com.gmail.walles.johan.headsetharry.settings.LanguagesPreference;
 import com.google.common.base.Optional;
-import com.optimaize.langdetect.LanguageDetector;
-import com.optimaize.langdetect.LanguageDetectorBuilder;
-import com.optimaize.langdetect.i18n.LdLocale;
-import com.optimaize.langdetect.ngram.NgramExtractors;
-import com.optimaize.langdetect.profiles.LanguageProfile;
-import com.optimaize.langdetect.profiles.LanguageProfileReader;
 
 import org.jetbrains.annotations.NonNls;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
 public abstract class Presenter {
+    /**
+     * Shared between all presenters, the set of configured languages is global.
+     */
+    private static final LanguageDetectorCache DETECTOR_CACHE = new LanguageDetectorCache();
+
+    /**
+     * How many texts had their language identified by script alone, and how many needed n-gram
+     * scoring. Logged on every identification so we can follow the hit rate.
+     */
+    private static final AtomicLong SCRIPT_STAGE_ANSWERS = new AtomicLong();
+    private static final AtomicLong NGRAM_STAGE_ANSWERS = new AtomicLong();
+
+    /**
+     * Recent language detection results, shared between all presenters.
+     */
+    private static final LanguageResultCache RESULT_CACHE = new LanguageResultCache(100);
+
+    static {
+        CacheRegistry.register("Language detection results", RESULT_CACHE);
+        CacheRegistry.register("Language profiles", new TrimmableCache() {
+            @Override
+            public long getBytes() {
+                synchronized (Presenter.class) {
+                    return allLanguageProfiles == null ? 0 : allLanguageProfiles.getBytes();
+                }
+            }
+
+            @Override
+            public void onTrimMemory(int level) {
+                if (CacheRegistry.getDropFraction(level) < 1f) {
+                    return;
+                }
+
+                // Both the profiles and the detector reference the mapping, drop both to unmap it
+                synchronized (Presenter.class) {
+                    allLanguageProfiles = null;
+                }
+                DETECTOR_CACHE.clear();
+            }
+        });
+    }
+
+    private static final int MAX_REMEMBERED_SENDERS = 100;
+
+    /**
+     * Texts shorter than this ("OK", "Thanks!") don't say much about their language, so we go with
+     * the sender's usual language for those when we know it.
+     */
+    private static final int SHORT_TEXT_LENGTH = 12;
+
     @NonNls
     private static final String EXTRA_TYPE = "com.gmail.walles.johan.headsetharry.type";
 
@@ -62,8 +116,27 @@ public abstract class Presenter {
 
     public abstract Optional<List<TextWithLocale>> getAnnouncement(Intent intent);
 
+    /**
+     * Whether the speech for our announcements may be kept in the on-disk speech cache.
+     * <p/>
+     * Must stay false for anything saying what's in people's messages, calendars or contacts,
+     * see PRIVACY.md.
+     */
+    public boolean mayCacheSpeech() {
+        return false;
+    }
+
     protected final Context context;
 
+    private final LanguageDetectorCache.ProfileLoader profileLoader =
+        new LanguageDetectorCache.ProfileLoader() {
+            @NonNull
+            @Override
+            public List<BinaryLanguageProfile> getLanguageProfiles(Set<String> localeCodes) {
+                return Presenter.this.getLanguageProfiles(localeCodes);
+            }
+        };
+
     protected Presenter(Context context) {
         this.context = context;
     }
@@ -81,46 +154,185 @@ public abstract class Presenter {
         return preferences.getBoolean(key, false);
     }
 
+    /**
+     * All language profiles, memory mapped from our assets on first use.
+     */
+    @Nullable
+    private static BinaryLanguageProfiles allLanguageProfiles;
+
+    private static synchronized BinaryLanguageProfiles getAllLanguageProfiles(Context context)
+        throws IOException
+    {
+        if (allLanguageProfiles != null) {
+            return allLanguageProfiles;
+        }
+
+        // This works only because the asset is stored uncompressed, see aaptOptions in build.gradle
+        AssetFileDescriptor assetFileDescriptor =
+            context.getAssets().openFd(BinaryLanguageProfiles.FILE_NAME);
+        try (FileInputStream inputStream = assetFileDescriptor.createInputStream()) {
+            allLanguageProfiles = BinaryLanguageProfiles.map(inputStream,
+                assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+        }
+        return allLanguageProfiles;
+    }
+
     @NonNull
-    private List<LanguageProfile> getLanguageProfiles() {
-        List<LanguageProfile> languageProfiles = new LinkedList<>();
-        LanguageProfileReader languageProfileReader = new LanguageProfileReader();
-
-        for (String localeCode: LanguagesPreference.getValues(context)) {
-            try {
-                languageProfiles.add(languageProfileReader.readBuiltIn(LdLocale.fromString(localeCode)));
-            } catch (IOException e) {
+    private List<BinaryLanguageProfile> getLanguageProfiles(Set<String> localeCodes) {
+        List<BinaryLanguageProfile> languageProfiles = new LinkedList<>();
+
+        BinaryLanguageProfiles allProfiles;
+        try {
+            allProfiles = getAllLanguageProfiles(context);
+        } catch (IOException e) {
+            Timber.e(e, "Failed to load language profiles");
+            return languageProfiles;
+        }
+
+        for (String localeCode: localeCodes) {
+            BinaryLanguageProfile languageProfile = allProfiles.get(localeCode);
+            if (languageProfile == null) {
                 @NonNls String message = "Failed to load configured language " + localeCode;
                 Timber.e(new Exception(message), message);
+                continue;
             }
+            languageProfiles.add(languageProfile);
         }
         return languageProfiles;
     }
 
+    /**
+     * Forget all remembered language detection results. Call when the set of configured languages
+     * changes.
+     */
+    public static void clearLanguageCache() {
+        RESULT_CACHE.clear();
+    }
+
     protected Optional<Locale> identifyLanguage(CharSequence text) {
+        Optional<String> localeCode = identifyLocaleCode(text);
+        if (!localeCode.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(new Locale(localeCode.get()));
+    }
+
+    private Optional<String> identifyLocaleCode(CharSequence text) {
         if (TextUtils.isEmpty(text)) {
             return Optional.absent();
         }
 
-        List<LanguageProfile> languageProfiles = getLanguageProfiles();
-        LanguageDetector languageDetector =
-            LanguageDetectorBuilder.create(NgramExtractors.standard())
-                .withProfiles(languageProfiles)
-                .build();
-        Optional<LdLocale> ldLocale = languageDetector.detect(text);
+        LanguageDetectorCache.Detector detector =
+            DETECTOR_CACHE.get(LanguagesPreference.getValues(context), profileLoader);
+
+        Optional<String> localeCode = RESULT_CACHE.get(detector.localeCodes, text);
+        if (localeCode == null) {
+            localeCode = detectLocaleCode(detector, text);
+            RESULT_CACHE.put(detector.localeCodes, text, localeCode);
+        }
+        return localeCode;
+    }
+
+    @Nullable
+    private static SenderLanguageMemory senderLanguageMemory;
+
+    private static synchronized SenderLanguageMemory getSenderLanguageMemory(Context context) {
+        if (senderLanguageMemory == null) {
+            senderLanguageMemory = new SenderLanguageMemory(
+                new File(context.getFilesDir(), SenderLanguageMemory.FILE_NAME), MAX_REMEMBERED_SENDERS);
+            CacheRegistry.register("Sender languages", senderLanguageMemory);
+        }
+        return senderLanguageMemory;
+    }
+
+    /**
+     * Identify the language of a message, using what we know about its sender.
+     * <p/>
+     * If the sender's history is decisive, no detection is done at all. Otherwise, texts shorter
+     * than {@link #SHORT_TEXT_LENGTH} and texts we can't identify are assumed to be in the
+     * sender's usual language.
+     *
+     * @param senderKey Identifies the sender, or null if we don't know who sent this
+     * @param texts Tried in order until the language of one of them is identified
+     */
+    protected Optional<Locale> identifySenderLanguage(@Nullable String senderKey, CharSequence ... texts) {
+        Optional<String> localeCode = identifySenderLocaleCode(senderKey, texts);
+        if (!localeCode.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(new Locale(localeCode.get()));
+    }
 
-        if (!ldLocale.isPresent()) {
-            String languages = "";
-            for (LanguageProfile languageProfile: languageProfiles) {
-                if (languages.length() > 0) {
-                    languages += ",";
+    private Optional<String> identifySenderLocaleCode(@Nullable String senderKey, CharSequence ... texts) {
+        if (senderKey == null) {
+            for (CharSequence text: texts) {
+                Optional<String> localeCode = identifyLocaleCode(text);
+                if (localeCode.isPresent()) {
+                    return localeCode;
                 }
-                languages += languageProfile.getLocale();
             }
-            Timber.w("Unable to detect language among <%s> for: <%s>", languages, text);
             return Optional.absent();
         }
 
-        return Optional.of(new Locale(ldLocale.get().toString()));
+        Set<String> localeCodes = LanguagesPreference.getValues(context);
+        SenderLanguageMemory memory = getSenderLanguageMemory(context);
+        String decisive = memory.getDecisiveLanguage(senderKey, localeCodes);
+        if (decisive != null) {
+            Timber.d("%s: <%s> taken from sender history", getClass().getSimpleName(), decisive);
+            return Optional.of(decisive);
+        }
+
+        String usual = memory.getUsualLanguage(senderKey, localeCodes);
+        int length = 0;
+        for (CharSequence text: texts) {
+            length += text == null ? 0 : text.length();
+        }
+        if (usual != null && length < SHORT_TEXT_LENGTH) {
+            Timber.d("%s: <%s> taken from sender history for short text",
+                getClass().getSimpleName(), usual);
+            return Optional.of(usual);
+        }
+
+        for (CharSequence text: texts) {
+            Optional<String> localeCode = identifyLocaleCode(text);
+            if (localeCode.isPresent()) {
+                memory.record(senderKey, localeCode.get());
+                return localeCode;
+            }
+        }
+
+        if (usual != null) {
+            Timber.d("%s: <%s> taken from sender history for unidentifiable text",
+                getClass().getSimpleName(), usual);
+        }
+        return Optional.fromNullable(usual);
+    }
+
+    private Optional<String> detectLocaleCode(LanguageDetectorCache.Detector detector, CharSequence text) {
+        // Cheap first stage, settles things when all configured languages use different scripts
+        String localeCode = detector.detectByScript(text);
+        if (localeCode != null) {
+            Timber.d("%s: <%s> identified by script, script/n-gram answers: %d/%d",
+                getClass().getSimpleName(), localeCode,
+                SCRIPT_STAGE_ANSWERS.incrementAndGet(), NGRAM_STAGE_ANSWERS.get());
+            return Optional.of(localeCode);
+        }
+
+        if (detector.languageDetector == null) {
+            Timber.w("No language profiles loaded for <%s>", detector.localeCodes);
+            return Optional.absent();
+        }
+
+        localeCode = detector.languageDetector.detect(text);
+        if (localeCode == null) {
+            Timber.w("Unable to detect language among <%s> for: <%s>",
+                TextUtils.join(",", detector.localeCodes), text);
+            return Optional.absent();
+        }
+
+        Timber.d("%s: <%s> identified by n-grams, script/n-gram answers: %d/%d",
+            getClass().getSimpleName(), localeCode,
+            SCRIPT_STAGE_ANSWERS.get(), NGRAM_STAGE_ANSWERS.incrementAndGet());
+        return Optional.of(localeCode);
     }
 }
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.handlers;
+
+import android.support.annotation.Nullable;
+
+import com.gmail.walles.johan.headsetharry.CacheRegistry;
+import com.gmail.walles.johan.headsetharry.SpeechAudioCache;
+import com.gmail.walles.johan.headsetharry.TrimmableCache;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Remembers which languages senders usually write in.
+ * <p/>
+ * Each sender gets a weight per detected language. All weights decay a bit every time we learn
+ * something new about a sender, so recent messages count more than old ones.
+ * <p/>
+ * At most a fixed number of senders are remembered, the least recently used ones are forgotten.
+ * Senders are only ever stored as hashes, so no phone numbers or e-mail addresses end up on
+ * disk.
+ * Everything is persisted to a file so that it survives restarts. That also means we can drop
+ * everything when memory is low and just load it again when needed.
+ * <p/>
+ * Saving is done in the background a little while after a change, so that a burst of messages
+ * causes one write rather than one per message. Unsaved changes are also written when we're asked
+ * to trim memory. If the process dies before that we lose a few observations, which is fine since
+ * they will be made again.
+ * <p/>
+ * File format, all numbers big endian:<ol>
+ * <li>int: {@link #FILE_VERSION}
+ * <li>int: number of senders, least recently used first
+ * <li>One entry per sender:<ul>
+ *     <li>UTF: SHA-1 of the sender key, in hex
+ *     <li>byte: number of languages
+ *     <li>One entry per language: UTF locale code, followed by a float weight
+ *     </ul>
+ * </ol>
+ */
+class SenderLanguageMemory implements TrimmableCache {
+    /**
+     * Rough size of one sender excluding its key; map entry, history object and weights map.
+     */
+    private static final int SENDER_OVERHEAD_BYTES = 150;
+
+    /**
+     * Rough size of one weights map entry, with a boxed float.
+     */
+    private static final int LANGUAGE_BYTES = 60;
+
+    @NonNls
+    public static final String FILE_NAME = "senderlanguages.bin";
+
+    private static final int FILE_VERSION = 2;
+
+    /**
+     * How long after a change we wait before saving, to let more changes accumulate.
+     */
+    private static final long SAVE_DELAY_MS = 5_000;
+
+    /**
+     * All of a sender's weights are multiplied by this before adding a new observation.
+     */
+    private static final float DECAY = 0.8f;
+
+    /**
+     * Three messages in a row in the same language gets us here.
+     */
+    private static final float DECISIVE_WEIGHT = 2.4f;
+
+    /**
+     * How large part of a sender's total weight the top language must have to be decisive.
+     */
+    private static final float DECISIVE_SHARE = 0.9f;
+
+    private static final int MAX_LANGUAGES_PER_SENDER = 4;
+
+    /**
+     * Having skipped detection for a sender this many times in a row, we detect anyway to notice
+     * senders changing languages.
+     */
+    private static final int MAX_SKIPPED_DETECTIONS = 5;
+
+    private static class History {
+        final Map<String, Float> weights = new HashMap<>();
+
+        /**
+         * How many times in a row we have skipped detection because of this history.
+         */
+        int skippedDetections;
+
+        @Nullable
+        String getTopLanguage(Set<String> localeCodes) {
+            String topLanguage = null;
+            float topWeight = 0;
+            for (Map.Entry<String, Float> entry: weights.entrySet()) {
+                if (entry.getValue() > topWeight && localeCodes.contains(entry.getKey())) {
+                    topLanguage = entry.getKey();
+                    topWeight = entry.getValue();
+                }
+            }
+            return topLanguage;
+        }
+
+        float getTotalWeight() {
+            float total = 0;
+            for (float weight: weights.values()) {
+                total += weight;
+            }
+            return total;
+        }
+    }
+
+    private final File file;
+    private final LinkedHashMap<String, History> histories;
+    private boolean loaded;
+
+    /**
+     * True if {@link #histories} has changes that haven't been saved yet.
+     */
+    private boolean dirty;
+
+    private boolean saveScheduled;
+
+    private final ScheduledExecutorService saver =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Sender languages saver"); //NON-NLS
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private final Runnable scheduledSave = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SenderLanguageMemory.this) {
+                saveScheduled = false;
+                flush();
+            }
+        }
+    };
+
+    public SenderLanguageMemory(File file, final int maxSenders) {
+        this.file = file;
+
+        // Access ordered, which makes this an LRU cache
+        this.histories = new LinkedHashMap<String, History>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, History> eldest) {
+                return size() > maxSenders;
+            }
+        };
+    }
+
+    private static String hash(String sender) {
+        return SpeechAudioCache.sha1(sender);
+    }
+
+    /**
+     * If a sender's history is decisive we don't need to detect the language of what they just
+     * sent.
+     *
+     * @param localeCodes The currently configured languages
+     * @return The sender's language if their history is decisive, null otherwise
+     */
+    @Nullable
+    public synchronized String getDecisiveLanguage(String sender, Set<String> localeCodes) {
+        History history = getHistory(sender);
+        if (history == null) {
+            return null;
+        }
+
+        String topLanguage = history.getTopLanguage(localeCodes);
+        if (topLanguage == null) {
+            return null;
+        }
+
+        float topWeight = history.weights.get(topLanguage);
+        if (topWeight < DECISIVE_WEIGHT || topWeight < DECISIVE_SHARE * history.getTotalWeight()) {
+            return null;
+        }
+
+        if (history.skippedDetections >= MAX_SKIPPED_DETECTIONS) {
+            // Make our caller detect and record() something fresh
+            return null;
+        }
+
+        history.skippedDetections++;
+        return topLanguage;
+    }
+
+    /**
+     * @param localeCodes The currently configured languages
+     * @return The language this sender has used the most recently, or null if we don't know
+     */
+    @Nullable
+    public synchronized String getUsualLanguage(String sender, Set<String> localeCodes) {
+        History history = getHistory(sender);
+        if (history == null) {
+            return null;
+        }
+        return history.getTopLanguage(localeCodes);
+    }
+
+    /**
+     * Remember that a sender just wrote something in some language.
+     */
+    public synchronized void record(String sender, String localeCode) {
+        History history = getHistory(sender);
+        if (history == null) {
+            history = new History();
+            histories.put(hash(sender), history);
+        }
+
+        for (Map.Entry<String, Float> entry: history.weights.entrySet()) {
+            entry.setValue(entry.getValue() * DECAY);
+        }
+        Float weight = history.weights.get(localeCode);
+        history.weights.put(localeCode, (weight == null ? 0f : weight) + 1f);
+        history.skippedDetections = 0;
+
+        while (history.weights.size() > MAX_LANGUAGES_PER_SENDER) {
+            removeLightest(history.weights);
+        }
+
+        dirty = true;
+        if (!saveScheduled) {
+            saveScheduled = true;
+            saver.schedule(scheduledSave, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Save any unsaved changes right away rather than waiting for the scheduled save.
+     */
+    synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        save();
+    }
+
+    private static void removeLightest(Map<String, Float> weights) {
+        Map.Entry<String, Float> lightest = null;
+        for (Map.Entry<String, Float> entry: weights.entrySet()) {
+            if (lightest == null || entry.getValue() < lightest.getValue()) {
+                lightest = entry;
+            }
+        }
+        if (lightest != null) {
+            weights.remove(lightest.getKey());
+        }
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, History> entry: histories.entrySet()) {
+            bytes += SENDER_OVERHEAD_BYTES + 2 * entry.getKey().length()
+                + LANGUAGE_BYTES * entry.getValue().weights.size();
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        // We might get killed soon, don't wait for the scheduled save
+        flush();
+
+        if (CacheRegistry.getDropFraction(level) < 1f) {
+            // We're small, only bother if things are really bad
+            return;
+        }
+
+        // Everything has been saved, we'll load it back when needed
+        histories.clear();
+        loaded = false;
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return histories.size();
+    }
+
+    @Nullable
+    private History getHistory(String sender) {
+        ensureLoaded();
+        return histories.get(hash(sender));
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try (DataInputStream in =
+                 new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                // Version 1 files had senders in plain text, don't leave those lying around
+                Timber.w("Deleting sender languages file with unsupported version %d", version);
+                if (!file.delete()) {
+                    Timber.w("Deleting %s failed", file);
+                }
+                return;
+            }
+
+            int senderCount = in.readInt();
+            for (int i = 0; i < senderCount; i++) {
+                String sender = in.readUTF();
+                History history = new History();
+                int languageCount = in.readByte();
+                for (int j = 0; j < languageCount; j++) {
+                    String localeCode = in.readUTF();
+                    history.weights.put(localeCode, in.readFloat());
+                }
+                histories.put(sender, history);
+            }
+            Timber.i("Loaded language histories for %d senders", histories.size());
+        } catch (FileNotFoundException e) {
+            Timber.i("No sender languages file, starting from scratch");
+        } catch (IOException e) {
+            Timber.w(e, "Reading sender languages file failed, starting from scratch");
+            histories.clear();
+        }
+    }
+
+    private void save() {
+        // Write to a temporary file and rename, so that we never leave a half written file behind
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))
+        {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(histories.size());
+            for (Map.Entry<String, History> entry: histories.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Map<String, Float> weights = entry.getValue().weights;
+                out.writeByte(weights.size());
+                for (Map.Entry<String, Float> weight: weights.entrySet()) {
+                    out.writeUTF(weight.getKey());
+                    out.writeFloat(weight.getValue());
+                }
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Writing sender languages file failed");
+            return;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            Timber.w("Renaming %s to %s failed", tempFile, file);
+        }
+    }
+}
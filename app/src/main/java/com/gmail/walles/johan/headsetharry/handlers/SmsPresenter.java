@@ -41,6 +41,8 @@ public class SmsPresenter extends Presenter {
     private static final String EXTRA_BODY = "com.gmail.walles.johan.headsetharry.body";
     @NonNls
     private static final String EXTRA_SENDER = "com.gmail.walles.johan.headsetharry.sender";
+    @NonNls
+    private static final String SENDER_KEY_PREFIX = "sms:";
 
     public static void speak(Context context, CharSequence body, CharSequence sender) {
         Intent intent = new Intent(context, SpeakerService.class);
@@ -63,7 +65,8 @@ public class SmsPresenter extends Presenter {
         // It's OK for the sender to be null, we'll just say it's unknown
         CharSequence sender = intent.getCharSequenceExtra(EXTRA_SENDER);
 
-        Optional<Locale> smsBodyLocale = identifyLanguage(body);
+        String senderKey = TextUtils.isEmpty(sender) ? null : SENDER_KEY_PREFIX + sender;
+        Optional<Locale> smsBodyLocale = identifySenderLanguage(senderKey, body);
         Translations translations = new Translations(context, smsBodyLocale.or(Locale.getDefault()),
             R.string.sms,
             R.string.empty_sms,
@@ -26,6 +26,7 @@ import android.os.Bundle;
 import android.telephony.SmsMessage;
 
 import com.gmail.walles.johan.headsetharry.LoggingUtils;
+import com.gmail.walles.johan.headsetharry.TtsWarmup;
 
 import org.jetbrains.annotations.NonNls;
 
@@ -54,6 +55,9 @@ public class SmsReceiver extends BroadcastReceiver {
             return;
         }
 
+        // Get a TTS engine ready while the presenter works
+        TtsWarmup.announcementLikely(context, "SMS");
+
         for (Object pduObj : pduObjs) {
             //noinspection deprecation
             SmsMessage message = SmsMessage.createFromPdu((byte[])pduObj);
@@ -154,6 +154,14 @@ public class WifiPresenter extends Presenter {
         return isEnabled(getClass());
     }
 
+    /**
+     * We only ever say network names and fixed phrases.
+     */
+    @Override
+    public boolean mayCacheSpeech() {
+        return true;
+    }
+
     /**
      * Insert spaces where the SSID goes from lowercase to uppercase or from letters to numbers.
      * Also replace dashes and underscores with spaces.
@@ -26,6 +26,7 @@ import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
 
 import com.gmail.walles.johan.headsetharry.LoggingUtils;
+import com.gmail.walles.johan.headsetharry.TtsWarmup;
 
 import java.util.Locale;
 
@@ -55,6 +56,7 @@ public class WifiReceiver extends BroadcastReceiver {
                 case CONNECTED:
                 case DISCONNECTED:
                     Timber.i("WifiReceiver speaking status for: %s", background);
+                    TtsWarmup.announcementLikely(context, "Wifi");
                     WifiPresenter.speakStatus(context);
                     return;
             }
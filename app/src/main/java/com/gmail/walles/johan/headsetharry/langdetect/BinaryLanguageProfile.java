@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One language's n-gram table, a window into a {@link BinaryLanguageProfiles} buffer.
+ * <p/>
+ * Only absolute reads are done on the buffer, so instances are safe to use from multiple threads.
+ */
+public class BinaryLanguageProfile {
+    private final String localeCode;
+    private final ByteBuffer buffer;
+    private final int hashesOffset;
+    private final int weightsOffset;
+    private final int size;
+
+    BinaryLanguageProfile(String localeCode, ByteBuffer buffer, int offset, int size) {
+        this.localeCode = localeCode;
+        this.buffer = buffer;
+        this.hashesOffset = offset;
+        this.weightsOffset = offset + 4 * size;
+        this.size = size;
+    }
+
+    /**
+     * The locale code as used by the language detector, "sv" or "zh-TW" for example.
+     */
+    public String getLocaleCode() {
+        return localeCode;
+    }
+
+    /**
+     * How many n-grams this profile knows about.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Look up the weight for an n-gram.
+     *
+     * @param hash The n-gram's {@link String#hashCode()}
+     * @return 0 if this language doesn't have this n-gram
+     */
+    public float getWeight(int hash) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleHash = buffer.getInt(hashesOffset + 4 * middle);
+            if (middleHash < hash) {
+                low = middle + 1;
+            } else if (middleHash > hash) {
+                high = middle - 1;
+            } else {
+                return buffer.getFloat(weightsOffset + 4 * middle);
+            }
+        }
+        return 0f;
+    }
+
+    @Override
+    public String toString() {
+        return localeCode;
+    }
+}
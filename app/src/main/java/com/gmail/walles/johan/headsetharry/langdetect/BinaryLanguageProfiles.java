@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All language profiles, as precompiled by the compileLanguageProfiles task in app/build.gradle.
+ * <p/>
+ * File format, all numbers big endian:<ol>
+ * <li>int: {@link #MAGIC}
+ * <li>int: {@link #VERSION}
+ * <li>int: number of languages
+ * <li>One directory entry per language:<ul>
+ *     <li>short: length of the locale code in bytes
+ *     <li>bytes: US-ASCII locale code, "sv" or "zh-TW" for example
+ *     <li>int: absolute offset of this language's n-gram table
+ *     <li>int: number of n-grams in this language's n-gram table
+ *     </ul>
+ * <li>One n-gram table per language:<ul>
+ *     <li>int[n]: n-gram hashes as computed by {@link String#hashCode()}, sorted ascending
+ *     <li>float[n]: n-gram weights; how often the n-gram occurs in this language divided by
+ *     how many n-grams of the same length there are in total
+ *     </ul>
+ * </ol>
+ * Nothing but the directory is ever copied out of the buffer, so this works fine on top of a memory
+ * mapped file.
+ */
+public class BinaryLanguageProfiles {
+    /**
+     * "HHLP", for Headset Harry Language Profiles.
+     */
+    private static final int MAGIC = 0x48484c50;
+    private static final int VERSION = 1;
+
+    @NonNls
+    public static final String FILE_NAME = "languageprofiles.bin";
+
+    private final Map<String, BinaryLanguageProfile> profiles;
+    private final int bytes;
+
+    public BinaryLanguageProfiles(ByteBuffer buffer) throws IOException {
+        bytes = buffer.capacity();
+
+        ByteBuffer directory = buffer.duplicate();
+        directory.order(ByteOrder.BIG_ENDIAN);
+        directory.position(0);
+
+        try {
+            int magic = directory.getInt();
+            if (magic != MAGIC) {
+                throw new IOException("Not a language profiles file, magic was " + Integer.toHexString(magic));
+            }
+
+            int version = directory.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported language profiles version " + version + ", expected " + VERSION);
+            }
+
+            int languageCount = directory.getInt();
+            Map<String, BinaryLanguageProfile> profiles = new HashMap<>();
+            for (int i = 0; i < languageCount; i++) {
+                byte[] localeCodeBytes = new byte[directory.getShort()];
+                directory.get(localeCodeBytes);
+                String localeCode = new String(localeCodeBytes, StandardCharsets.US_ASCII);
+
+                int offset = directory.getInt();
+                int size = directory.getInt();
+                if (offset < 0 || size < 0 || offset + 8L * size > buffer.limit()) {
+                    throw new IOException(
+                        "Language profile for <" + localeCode + "> outside of file: offset="
+                            + offset + ", size=" + size + ", file size=" + buffer.limit());
+                }
+
+                profiles.put(localeCode, new BinaryLanguageProfile(localeCode, directory, offset, size));
+            }
+            this.profiles = Collections.unmodifiableMap(profiles);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated language profiles file", e);
+        }
+    }
+
+    /**
+     * Memory map a section of a file.
+     */
+    public static BinaryLanguageProfiles map(FileInputStream inputStream, long offset, long length)
+        throws IOException
+    {
+        FileChannel channel = inputStream.getChannel();
+
+        // The mapping stays valid after the channel is closed
+        return new BinaryLanguageProfiles(
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    /**
+     * Memory map a whole file.
+     */
+    public static BinaryLanguageProfiles map(File file) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            return map(inputStream, 0, file.length());
+        }
+    }
+
+    /**
+     * @return null if we have no profile for this locale code
+     */
+    @Nullable
+    public BinaryLanguageProfile get(String localeCode) {
+        return profiles.get(localeCode);
+    }
+
+    /**
+     * Size of the underlying buffer. When memory mapped, only the pages actually used are in
+     * RAM, and the system can page them out whenever it wants to.
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    public Set<String> getLocaleCodes() {
+        return profiles.keySet();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Figures out which of a fixed set of languages a text is written in.
+ * <p/>
+ * Implementations must be safe to use from multiple threads.
+ */
+public interface LanguageIdentifier {
+    /**
+     * @return The locale code of the detected language, "sv" or "zh-TW" for example, or null if
+     * we couldn't tell
+     */
+    @Nullable
+    String detect(CharSequence text);
+}
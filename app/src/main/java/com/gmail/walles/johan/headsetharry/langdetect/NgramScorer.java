@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Language detector working on {@link BinaryLanguageProfile}s.
+ * <p/>
+ * Scores texts the same way as optimaize's LanguageDetectorImpl does for short texts, with the
+ * same default alpha and minimal confidence. Unlike optimaize we do that for texts of all lengths
+ * rather than sampling n-grams at random from longer texts.
+ * <p/>
+ * N-grams are extracted the same way as optimaize's NgramExtractors.standard() does it, but
+ * we never create any Strings. Instead we compute each n-gram's {@link String#hashCode()}
+ * directly from the text and count those in an {@link NgramTable}. All languages are then scored
+ * in one pass over that table. The table and the score arrays are kept per thread and re-used, so
+ * once warmed up {@link #detect(CharSequence)} doesn't allocate anything.
+ * <p/>
+ * Long texts are scored a chunk at a time, and we stop as soon as one language is far enough
+ * ahead of all others. At most {@link #MAX_CHARS} chars are ever looked at.
+ * <p/>
+ * Instances are safe to use from multiple threads.
+ */
+public class NgramScorer implements LanguageIdentifier {
+    /**
+     * Same as LanguageDetectorBuilder.ALPHA_DEFAULT.
+     */
+    private static final double ALPHA = 0.5;
+
+    /**
+     * Same as LanguageDetectorImpl.BASE_FREQ.
+     */
+    private static final double BASE_FREQ = 10000;
+
+    /**
+     * How likely the best language must be for us to say we found it. Same as
+     * LanguageDetectorBuilder's default minimalConfidence.
+     */
+    private static final double MINIMAL_CONFIDENCE = 0.9999;
+
+    /**
+     * Texts are padded with this, and some n-grams containing it are ignored, just like in
+     * optimaize's StandardNgramFilter.
+     */
+    private static final char SPACE = ' ';
+
+    /**
+     * We never look at more chars than this, no matter how long the text is.
+     */
+    public static final int MAX_CHARS = 1000;
+
+    /**
+     * How many n-gram positions to score between checks for whether we're done.
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    /**
+     * When the best language's log probability is this much ahead of the runner up's, we stop
+     * looking at more text. That's way above what {@link #MINIMAL_CONFIDENCE} requires, so this
+     * doesn't change the outcome in practice.
+     */
+    private static final double EARLY_EXIT_MARGIN = 20;
+
+    private static class Scratch {
+        final NgramTable grams = new NgramTable();
+        final double[] logProbabilities;
+        final float[] weights;
+
+        /**
+         * How many chars the last detection looked at.
+         */
+        int examinedChars;
+
+        Scratch(int languageCount) {
+            logProbabilities = new double[languageCount];
+            weights = new float[languageCount];
+        }
+    }
+
+    private final List<BinaryLanguageProfile> profiles;
+    private final BinaryLanguageProfile[] profileArray;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(profileArray.length);
+        }
+    };
+
+    public NgramScorer(List<BinaryLanguageProfile> profiles) {
+        if (profiles.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one language profile");
+        }
+        this.profiles = Collections.unmodifiableList(new ArrayList<>(profiles));
+        this.profileArray = profiles.toArray(new BinaryLanguageProfile[profiles.size()]);
+    }
+
+    public List<BinaryLanguageProfile> getProfiles() {
+        return profiles;
+    }
+
+    @Nullable
+    @Override
+    public String detect(CharSequence text) {
+        Scratch scratch = this.scratch.get();
+        double[] logProbabilities = scratch.logProbabilities;
+        Arrays.fill(logProbabilities, 0);
+        scratch.examinedChars = 0;
+
+        int length = Math.min(text.length(), MAX_CHARS);
+        if (length == 0) {
+            return null;
+        }
+
+        NgramTable grams = scratch.grams;
+        int paddedLength = getPaddedLength(text, length);
+        boolean anyGrams = false;
+        for (int start = 0; start < paddedLength; start += CHUNK_SIZE) {
+            int end = Math.min(start + CHUNK_SIZE, paddedLength);
+            grams.clear();
+            extractGrams(text, length, start, end, grams);
+            anyGrams |= grams.size() > 0;
+            score(grams, scratch);
+
+            scratch.examinedChars = Math.min(end, length);
+            if (isDecided(logProbabilities)) {
+                break;
+            }
+        }
+        if (!anyGrams) {
+            return null;
+        }
+
+        int best = getBest(logProbabilities);
+
+        // Normalize so that all probabilities sum up to one
+        double sum = 0;
+        for (double logProbability: logProbabilities) {
+            sum += Math.exp(logProbability - logProbabilities[best]);
+        }
+        double bestProbability = 1.0 / sum;
+        if (bestProbability < MINIMAL_CONFIDENCE) {
+            return null;
+        }
+
+        return profileArray[best].getLocaleCode();
+    }
+
+    /**
+     * How many chars the last {@link #detect(CharSequence)} call on this thread looked at.
+     */
+    int getLastExaminedChars() {
+        return scratch.get().examinedChars;
+    }
+
+    /**
+     * Add the scores for some n-grams to the scratch log probabilities.
+     */
+    private void score(NgramTable grams, Scratch scratch) {
+        // Work with logarithms, multiplying probabilities for a few hundred n-grams underflows
+        double[] logProbabilities = scratch.logProbabilities;
+        float[] weights = scratch.weights;
+        for (int gram = 0; gram < grams.size(); gram++) {
+            int hash = grams.keyAt(gram);
+
+            boolean known = false;
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = profileArray[i].getWeight(hash);
+                if (weights[i] > 0) {
+                    known = true;
+                }
+            }
+            if (!known) {
+                // None of our languages have this n-gram, it says nothing about anything
+                continue;
+            }
+
+            float count = grams.countAt(gram);
+            for (int i = 0; i < weights.length; i++) {
+                logProbabilities[i] += count * Math.log(ALPHA / BASE_FREQ + weights[i]);
+            }
+        }
+    }
+
+    private static int getBest(double[] logProbabilities) {
+        int best = 0;
+        for (int i = 1; i < logProbabilities.length; i++) {
+            if (logProbabilities[i] > logProbabilities[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return true if one language is so far ahead that looking at more text is pointless
+     */
+    private static boolean isDecided(double[] logProbabilities) {
+        int best = getBest(logProbabilities);
+        for (int i = 0; i < logProbabilities.length; i++) {
+            if (i != best && logProbabilities[best] - logProbabilities[i] < EARLY_EXIT_MARGIN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count the {@link String#hashCode()}s of all 1, 2 and 3-grams in the text.
+     */
+    static void extractGrams(CharSequence text, NgramTable grams) {
+        extractGrams(text, text.length(), 0, getPaddedLength(text, text.length()), grams);
+    }
+
+    private static int getPaddedLength(CharSequence text, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        return getPadStart(text) + length + (text.charAt(length - 1) == SPACE ? 0 : 1);
+    }
+
+    private static int getPadStart(CharSequence text) {
+        return text.charAt(0) == SPACE ? 0 : 1;
+    }
+
+    /**
+     * Count the {@link String#hashCode()}s of all 1, 2 and 3-grams starting in a range of the
+     * padded text.
+     * <p/>
+     * Just like optimaize's standard extractor, the text is padded with a space at either end
+     * unless it already has one there, 1-grams that are a space are skipped and so are 3-grams
+     * with a space in the middle.
+     *
+     * @param length Consider only this many chars of the text
+     * @param from First n-gram start position in the padded text
+     * @param to Last n-gram start position in the padded text, exclusive
+     */
+    static void extractGrams(CharSequence text, int length, int from, int to, NgramTable grams) {
+        if (length == 0) {
+            return;
+        }
+
+        int padStart = getPadStart(text);
+        int paddedLength = getPaddedLength(text, length);
+        for (int position = from; position < to; position++) {
+            char c0 = charAt(text, length, padStart, position);
+            if (c0 != SPACE) {
+                grams.add(c0);
+            }
+
+            if (position + 1 >= paddedLength) {
+                break;
+            }
+            char c1 = charAt(text, length, padStart, position + 1);
+            grams.add(31 * c0 + c1);
+
+            if (position + 2 >= paddedLength || c1 == SPACE) {
+                continue;
+            }
+            char c2 = charAt(text, length, padStart, position + 2);
+            grams.add(31 * 31 * c0 + 31 * c1 + c2);
+        }
+    }
+
+    private static char charAt(CharSequence text, int length, int padStart, int paddedIndex) {
+        int index = paddedIndex - padStart;
+        if (index < 0 || index >= length) {
+            return SPACE;
+        }
+        return text.charAt(index);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+/**
+ * Open addressing hash table from n-gram hash to n-gram count.
+ * <p/>
+ * Made for being cleared and refilled over and over. Once it has grown big enough for the texts
+ * it sees, neither {@link #add(int)} nor {@link #clear()} allocate anything.
+ * <p/>
+ * Entries are stored densely in insertion order, iterate over them using {@link #size()},
+ * {@link #keyAt(int)} and {@link #countAt(int)}.
+ * <p/>
+ * Not thread safe.
+ */
+class NgramTable {
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * 0 means empty, anything else is an index into the entry arrays plus one.
+     */
+    private int[] slots;
+
+    private int[] entryKeys;
+    private float[] entryCounts;
+
+    /**
+     * Which slot each entry lives in, so that we can clear the table without visiting all slots.
+     */
+    private int[] entrySlots;
+
+    private int size;
+
+    public NgramTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        entryKeys = new int[capacity / 2];
+        entryCounts = new float[capacity / 2];
+        entrySlots = new int[capacity / 2];
+    }
+
+    /**
+     * Spread the bits of the n-gram hash, String.hashCode() is weak in the lower bits for short
+     * strings.
+     */
+    private int slotFor(int key) {
+        int mixed = key * 0x9e3779b9;
+        return (mixed ^ (mixed >>> 16)) & (slots.length - 1);
+    }
+
+    /**
+     * Count one more occurrence of an n-gram.
+     */
+    public void add(int key) {
+        int slot = slotFor(key);
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                break;
+            }
+            if (entryKeys[entry - 1] == key) {
+                entryCounts[entry - 1]++;
+                return;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+
+        if (size == entryKeys.length) {
+            // Keep the load factor at or below 0.5
+            grow();
+            add(key);
+            return;
+        }
+
+        entryKeys[size] = key;
+        entryCounts[size] = 1;
+        entrySlots[size] = slot;
+        size++;
+        slots[slot] = size;
+    }
+
+    private void grow() {
+        int[] oldKeys = entryKeys;
+        float[] oldCounts = entryCounts;
+        int oldSize = size;
+
+        allocate(slots.length * 2);
+        size = 0;
+        for (int i = 0; i < oldSize; i++) {
+            int slot = slotFor(oldKeys[i]);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+
+            entryKeys[size] = oldKeys[i];
+            entryCounts[size] = oldCounts[i];
+            entrySlots[size] = slot;
+            size++;
+            slots[slot] = size;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            slots[entrySlots[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Number of distinct n-grams in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int keyAt(int index) {
+        return entryKeys[index];
+    }
+
+    public float countAt(int index) {
+        return entryCounts[index];
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Optional;
+import com.optimaize.langdetect.LanguageDetector;
+import com.optimaize.langdetect.LanguageDetectorBuilder;
+import com.optimaize.langdetect.i18n.LdLocale;
+import com.optimaize.langdetect.ngram.NgramExtractors;
+import com.optimaize.langdetect.profiles.LanguageProfile;
+import com.optimaize.langdetect.profiles.LanguageProfileReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * optimaize's own language detector, working on its bundled JSON profiles.
+ * <p/>
+ * Slow to build and allocates a lot while detecting, so {@link NgramScorer} is what we normally
+ * use. This is kept around as a reference to compare {@link NgramScorer}'s accuracy against.
+ */
+public class ReferenceLanguageDetector implements LanguageIdentifier {
+    private final LanguageDetector languageDetector;
+
+    /**
+     * @throws IllegalArgumentException if none of the given languages could be loaded
+     */
+    public ReferenceLanguageDetector(Collection<String> localeCodes) {
+        List<LanguageProfile> languageProfiles = new ArrayList<>();
+        LanguageProfileReader languageProfileReader = new LanguageProfileReader();
+        for (String localeCode: localeCodes) {
+            try {
+                languageProfiles.add(languageProfileReader.readBuiltIn(LdLocale.fromString(localeCode)));
+            } catch (IOException | IllegalArgumentException e) {
+                Timber.e(e, "Loading <%s> failed", localeCode);
+            }
+        }
+        if (languageProfiles.isEmpty()) {
+            throw new IllegalArgumentException("No language profiles found for " + localeCodes);
+        }
+
+        languageDetector =
+            LanguageDetectorBuilder.create(NgramExtractors.standard())
+                .withProfiles(languageProfiles)
+                .build();
+    }
+
+    @Nullable
+    @Override
+    public String detect(CharSequence text) {
+        Optional<LdLocale> ldLocale = languageDetector.detect(text);
+        if (!ldLocale.isPresent()) {
+            return null;
+        }
+        return ldLocale.get().toString();
+    }
+}
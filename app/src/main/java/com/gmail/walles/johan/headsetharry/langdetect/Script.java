@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writing systems, for telling languages apart without looking at any n-grams.
+ * <p/>
+ * We'd have used Character.UnicodeScript, but Android doesn't have that before API level 24.
+ * So we go by Unicode block ranges instead, which is good enough for the scripts of the languages
+ * optimaize knows about.
+ */
+public enum Script {
+    LATIN,
+    GREEK,
+    CYRILLIC,
+    HEBREW,
+    ARABIC,
+    DEVANAGARI,
+    BENGALI,
+    GURMUKHI,
+    GUJARATI,
+    TAMIL,
+    TELUGU,
+    KANNADA,
+    MALAYALAM,
+    THAI,
+    KHMER,
+    HANGUL,
+    KANA,
+    HAN,
+
+    /**
+     * Letters we don't know what script they belong to.
+     */
+    OTHER;
+
+    /**
+     * Scripts used by the languages optimaize knows about. Anything not listed here is written
+     * using {@link #LATIN}.
+     */
+    @NonNls
+    private static final Map<String, Set<Script>> LANGUAGE_SCRIPTS = new HashMap<>();
+    static {
+        for (String language: new String[] {"be", "bg", "mk", "ru", "uk"}) {
+            LANGUAGE_SCRIPTS.put(language, EnumSet.of(CYRILLIC));
+        }
+        LANGUAGE_SCRIPTS.put("sr", EnumSet.of(CYRILLIC, LATIN));
+        LANGUAGE_SCRIPTS.put("el", EnumSet.of(GREEK));
+        LANGUAGE_SCRIPTS.put("he", EnumSet.of(HEBREW));
+        LANGUAGE_SCRIPTS.put("yi", EnumSet.of(HEBREW));
+        for (String language: new String[] {"ar", "fa", "ur"}) {
+            LANGUAGE_SCRIPTS.put(language, EnumSet.of(ARABIC));
+        }
+        for (String language: new String[] {"hi", "mr", "ne"}) {
+            LANGUAGE_SCRIPTS.put(language, EnumSet.of(DEVANAGARI));
+        }
+        LANGUAGE_SCRIPTS.put("bn", EnumSet.of(BENGALI));
+        LANGUAGE_SCRIPTS.put("pa", EnumSet.of(GURMUKHI));
+        LANGUAGE_SCRIPTS.put("gu", EnumSet.of(GUJARATI));
+        LANGUAGE_SCRIPTS.put("ta", EnumSet.of(TAMIL));
+        LANGUAGE_SCRIPTS.put("te", EnumSet.of(TELUGU));
+        LANGUAGE_SCRIPTS.put("kn", EnumSet.of(KANNADA));
+        LANGUAGE_SCRIPTS.put("ml", EnumSet.of(MALAYALAM));
+        LANGUAGE_SCRIPTS.put("th", EnumSet.of(THAI));
+        LANGUAGE_SCRIPTS.put("km", EnumSet.of(KHMER));
+        LANGUAGE_SCRIPTS.put("ko", EnumSet.of(HANGUL));
+        LANGUAGE_SCRIPTS.put("ja", EnumSet.of(KANA, HAN));
+        LANGUAGE_SCRIPTS.put("zh", EnumSet.of(HAN));
+    }
+
+    /**
+     * Which scripts a language is written in.
+     *
+     * @param localeCode "sv" or "zh-TW" for example
+     */
+    @NonNull
+    public static Set<Script> forLocaleCode(String localeCode) {
+        int dash = localeCode.indexOf('-');
+        String language = dash < 0 ? localeCode : localeCode.substring(0, dash);
+        Set<Script> scripts = LANGUAGE_SCRIPTS.get(language);
+        if (scripts == null) {
+            return Collections.singleton(LATIN);
+        }
+        return Collections.unmodifiableSet(scripts);
+    }
+
+    /**
+     * Figure out which script a text is written in, in one pass over its chars.
+     * <p/>
+     * Digits, punctuation, whitespace and symbols are ignored.
+     *
+     * @return null if the text contains letters from more than one script, or no letters at all
+     */
+    @Nullable
+    public static Script of(CharSequence text) {
+        Script found = null;
+        for (int i = 0; i < text.length(); i++) {
+            Script script = of(text.charAt(i));
+            if (script == null) {
+                continue;
+            }
+            if (found != null && found != script) {
+                return null;
+            }
+            found = script;
+        }
+
+        if (found == OTHER) {
+            return null;
+        }
+        return found;
+    }
+
+    /**
+     * @return null for chars that don't say anything about the script
+     */
+    @Nullable
+    static Script of(char c) {
+        if (c < 0x0250) {
+            return Character.isLetter(c) ? LATIN : null;
+        }
+        if (c >= 0x1e00 && c <= 0x1eff) {
+            // Latin Extended Additional, Vietnamese lives here
+            return LATIN;
+        }
+        if ((c >= 0x0370 && c <= 0x03ff) || (c >= 0x1f00 && c <= 0x1fff)) {
+            return GREEK;
+        }
+        if (c >= 0x0400 && c <= 0x052f) {
+            return CYRILLIC;
+        }
+        if (c >= 0x0590 && c <= 0x05ff) {
+            return HEBREW;
+        }
+        if ((c >= 0x0600 && c <= 0x06ff)
+            || (c >= 0x0750 && c <= 0x077f)
+            || (c >= 0xfb50 && c <= 0xfdff)
+            || (c >= 0xfe70 && c <= 0xfeff))
+        {
+            return ARABIC;
+        }
+        if (c >= 0x0900 && c <= 0x097f) {
+            return DEVANAGARI;
+        }
+        if (c >= 0x0980 && c <= 0x09ff) {
+            return BENGALI;
+        }
+        if (c >= 0x0a00 && c <= 0x0a7f) {
+            return GURMUKHI;
+        }
+        if (c >= 0x0a80 && c <= 0x0aff) {
+            return GUJARATI;
+        }
+        if (c >= 0x0b80 && c <= 0x0bff) {
+            return TAMIL;
+        }
+        if (c >= 0x0c00 && c <= 0x0c7f) {
+            return TELUGU;
+        }
+        if (c >= 0x0c80 && c <= 0x0cff) {
+            return KANNADA;
+        }
+        if (c >= 0x0d00 && c <= 0x0d7f) {
+            return MALAYALAM;
+        }
+        if (c >= 0x0e00 && c <= 0x0e7f) {
+            return THAI;
+        }
+        if (c >= 0x1780 && c <= 0x17ff) {
+            return KHMER;
+        }
+        if ((c >= 0xac00 && c <= 0xd7af)
+            || (c >= 0x1100 && c <= 0x11ff)
+            || (c >= 0x3130 && c <= 0x318f))
+        {
+            return HANGUL;
+        }
+        if (c >= 0x3040 && c <= 0x30ff) {
+            return KANA;
+        }
+        if ((c >= 0x4e00 && c <= 0x9fff)
+            || (c >= 0x3400 && c <= 0x4dbf)
+            || (c >= 0xf900 && c <= 0xfaff))
+        {
+            return HAN;
+        }
+
+        return Character.isLetter(c) ? OTHER : null;
+    }
+}
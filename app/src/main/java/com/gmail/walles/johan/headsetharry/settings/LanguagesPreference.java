@@ -35,8 +35,10 @@ import android.util.AttributeSet;
 import android.widget.Toast;
 
 import com.gmail.walles.johan.headsetharry.LocaleUtils;
+import com.gmail.walles.johan.headsetharry.PhraseCache;
 import com.gmail.walles.johan.headsetharry.TextWithLocale;
 import com.gmail.walles.johan.headsetharry.TtsUtils;
+import com.gmail.walles.johan.headsetharry.handlers.Presenter;
 import com.google.common.base.Optional;
 import com.optimaize.langdetect.i18n.LdLocale;
 import com.optimaize.langdetect.profiles.BuiltInLanguages;
@@ -100,6 +102,10 @@ public class LanguagesPreference
 
         updateSummary();
 
+        // Results for the old set of languages are of no use any more
+        Presenter.clearLanguageCache();
+        PhraseCache.getInstance(getContext()).refresh(getContext(), false);
+
         testSpeakConfiguredLanguages();
     }
 
@@ -113,7 +119,7 @@ public class LanguagesPreference
         // If a headset is connected, STREAM_MUSIC goes only to the headset, which makes sense in
         // our case. STREAM_NOTIFICATION goes both to the headset and to the phone's speaker, which
         // we want to avoid.
-        TtsUtils.speak(getContext(), localeNames, AudioManager.STREAM_MUSIC, new TtsUtils.CompletionListener() {
+        TtsUtils.speak(getContext(), localeNames, true, AudioManager.STREAM_MUSIC, new TtsUtils.CompletionListener() {
             @Override
             public void onSuccess() {
                 // This method intentionally left blank
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.bluetooth.BluetoothA2dp;
+import android.bluetooth.BluetoothHeadset;
+import android.bluetooth.BluetoothProfile;
+import android.content.Intent;
+import android.media.AudioManager;
+
+import com.gmail.walles.johan.headsetharry.AudioRouteTracker.Route;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AudioRouteTrackerTest {
+    private static final Route NOTHING = new Route(false, false, false, false);
+
+    @Test
+    public void testWiredHeadset() {
+        Route plugged = AudioRouteTracker.update(NOTHING, Intent.ACTION_HEADSET_PLUG, 1);
+        Assert.assertEquals(new Route(true, false, false, false), plugged);
+        Assert.assertTrue(plugged.hasHeadset());
+
+        Route unplugged = AudioRouteTracker.update(plugged, Intent.ACTION_HEADSET_PLUG, 0);
+        Assert.assertEquals(NOTHING, unplugged);
+        Assert.assertFalse(unplugged.hasHeadset());
+    }
+
+    @Test
+    public void testA2dp() {
+        Route connecting = AudioRouteTracker.update(NOTHING,
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.STATE_CONNECTING);
+        Assert.assertEquals(NOTHING, connecting);
+
+        Route connected = AudioRouteTracker.update(connecting,
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.STATE_CONNECTED);
+        Assert.assertEquals(new Route(false, true, false, false), connected);
+
+        Route disconnected = AudioRouteTracker.update(connected,
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.STATE_DISCONNECTED);
+        Assert.assertEquals(NOTHING, disconnected);
+    }
+
+    @Test
+    public void testBluetoothHeadsetAndSco() {
+        Route headset = AudioRouteTracker.update(NOTHING,
+            BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.STATE_CONNECTED);
+        Assert.assertEquals(new Route(false, false, true, false), headset);
+        Assert.assertTrue(headset.hasHeadset());
+
+        Route sco = AudioRouteTracker.update(headset,
+            AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED, AudioManager.SCO_AUDIO_STATE_CONNECTED);
+        Assert.assertEquals(new Route(false, false, true, true), sco);
+
+        Route scoDown = AudioRouteTracker.update(sco,
+            AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED, AudioManager.SCO_AUDIO_STATE_DISCONNECTED);
+        Assert.assertEquals(headset, scoDown);
+    }
+
+    @Test
+    public void testIndependentRoutes() {
+        Route both = AudioRouteTracker.update(
+            AudioRouteTracker.update(NOTHING, Intent.ACTION_HEADSET_PLUG, 1),
+            BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED, BluetoothProfile.STATE_CONNECTED);
+        Assert.assertEquals(new Route(true, true, false, false), both);
+
+        Route a2dpOnly = AudioRouteTracker.update(both, Intent.ACTION_HEADSET_PLUG, 0);
+        Assert.assertEquals(new Route(false, true, false, false), a2dpOnly);
+    }
+
+    @Test
+    public void testUnknownAction() {
+        Route route = new Route(true, true, true, true);
+        Assert.assertSame(route, AudioRouteTracker.update(route, "some.other.ACTION", 1));
+        Assert.assertSame(route, AudioRouteTracker.update(route, null, 1));
+    }
+}
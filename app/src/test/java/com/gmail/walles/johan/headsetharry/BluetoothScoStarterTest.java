@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.BroadcastReceiver;
+import android.media.AudioManager;
+import android.support.annotation.Nullable;
+
+import com.gmail.walles.johan.headsetharry.BluetoothScoStarter.Step;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BluetoothScoStarterTest {
+    private static final int DISCONNECTED = AudioManager.SCO_AUDIO_STATE_DISCONNECTED;
+    private static final int CONNECTING = AudioManager.SCO_AUDIO_STATE_CONNECTING;
+    private static final int CONNECTED = AudioManager.SCO_AUDIO_STATE_CONNECTED;
+    private static final int ERROR = AudioManager.SCO_AUDIO_STATE_ERROR;
+
+    private static class FakeAudio implements BluetoothScoStarter.Audio {
+        @Nullable
+        public Integer stickyState;
+        public boolean scoOn;
+        public int startCount;
+        public int stopCount;
+
+        @Nullable
+        @Override
+        public Integer registerStateReceiver(BroadcastReceiver receiver) {
+            return stickyState;
+        }
+
+        @Override
+        public void unregisterStateReceiver(BroadcastReceiver receiver) {
+            // This method intentionally left blank
+        }
+
+        @Override
+        public boolean isBluetoothScoOn() {
+            return scoOn;
+        }
+
+        @Override
+        public void setBluetoothScoOn(boolean on) {
+            scoOn = on;
+        }
+
+        @Override
+        public void startBluetoothSco() {
+            startCount++;
+        }
+
+        @Override
+        public void stopBluetoothSco() {
+            stopCount++;
+        }
+    }
+
+    /**
+     * Runs posted events right away, and delayed ones when told to.
+     */
+    private static class FakeEvents implements EventPoster {
+        public final List<Runnable> delayed = new ArrayList<>();
+
+        @Override
+        public void post(Runnable event) {
+            event.run();
+        }
+
+        @Override
+        public void postDelayed(Runnable event, long delayMs) {
+            delayed.add(event);
+        }
+
+        public void runDelayed() {
+            for (Runnable event: new ArrayList<>(delayed)) {
+                event.run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements BluetoothScoStarter.Listener {
+        @Nullable
+        public String failure;
+        public boolean connected;
+
+        @Override
+        public void onConnected(boolean weStartedIt) {
+            connected = true;
+        }
+
+        @Override
+        public void onFailed(String reason) {
+            failure = reason;
+        }
+    }
+
+    private static Step getStep(boolean requested, boolean sawConnecting, int state, boolean on) {
+        return BluetoothScoStarter.getStep(requested, sawConnecting, state, on);
+    }
+
+    @Test
+    public void testAlreadyConnected() {
+        Assert.assertEquals(Step.CONNECTED, getStep(false, false, CONNECTED, true));
+    }
+
+    @Test
+    public void testConnectedButNotOn() {
+        Assert.assertEquals(Step.REQUEST, getStep(false, false, CONNECTED, false));
+        Assert.assertEquals(Step.WAIT, getStep(true, false, CONNECTED, false));
+    }
+
+    @Test
+    public void testHappyPath() {
+        Assert.assertEquals(Step.REQUEST, getStep(false, false, DISCONNECTED, false));
+
+        // The sticky state before our request went through
+        Assert.assertEquals(Step.WAIT, getStep(true, false, DISCONNECTED, false));
+
+        Assert.assertEquals(Step.WAIT, getStep(true, true, CONNECTING, false));
+        Assert.assertEquals(Step.CONNECTED, getStep(true, true, CONNECTED, true));
+    }
+
+    @Test
+    public void testConnectingFailed() {
+        Assert.assertEquals(Step.FAIL, getStep(true, true, DISCONNECTED, false));
+    }
+
+    @Test
+    public void testError() {
+        Assert.assertEquals(Step.FAIL, getStep(false, false, ERROR, false));
+        Assert.assertEquals(Step.FAIL, getStep(true, true, ERROR, false));
+    }
+
+    @Test
+    public void testNoStickyIntentLeavesScoAlone() {
+        FakeAudio audio = new FakeAudio();
+        audio.stickyState = null;
+        RecordingListener listener = new RecordingListener();
+
+        new BluetoothScoStarter(audio, new FakeEvents(), listener).start();
+
+        Assert.assertNotNull(listener.failure);
+        Assert.assertEquals(0, audio.startCount);
+
+        // Somebody else may be using SCO, don't tear it down
+        Assert.assertEquals(0, audio.stopCount);
+    }
+
+    @Test
+    public void testTimeoutStopsScoWeStarted() {
+        FakeAudio audio = new FakeAudio();
+        audio.stickyState = DISCONNECTED;
+        FakeEvents events = new FakeEvents();
+        RecordingListener listener = new RecordingListener();
+
+        new BluetoothScoStarter(audio, events, listener).start();
+        Assert.assertEquals(1, audio.startCount);
+        Assert.assertNull(listener.failure);
+
+        events.runDelayed();
+        Assert.assertNotNull(listener.failure);
+        Assert.assertEquals(1, audio.stopCount);
+        Assert.assertFalse(audio.scoOn);
+        Assert.assertFalse(listener.connected);
+    }
+}
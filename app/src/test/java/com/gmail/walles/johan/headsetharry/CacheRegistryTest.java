@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheRegistryTest {
+    private static class FakeCache implements TrimmableCache {
+        long bytes = 1000;
+        int lastLevel = -1;
+
+        @Override
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            lastLevel = level;
+            bytes = (long)(bytes * (1 - CacheRegistry.getDropFraction(level)));
+        }
+    }
+
+    @Test
+    public void testTrimWalksAllCaches() {
+        FakeCache first = new FakeCache();
+        FakeCache second = new FakeCache();
+        CacheRegistry.register("first", first);
+        CacheRegistry.register("second", second);
+        try {
+            Assert.assertEquals(Long.valueOf(1000), CacheRegistry.getBytesPerCache().get("first"));
+
+            CacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+            Assert.assertEquals(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, first.lastLevel);
+            Assert.assertEquals(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, second.lastLevel);
+            Assert.assertEquals(Long.valueOf(500), CacheRegistry.getBytesPerCache().get("second"));
+
+            CacheRegistry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            Assert.assertEquals(Long.valueOf(0), CacheRegistry.getBytesPerCache().get("first"));
+        } finally {
+            CacheRegistry.unregister("first");
+            CacheRegistry.unregister("second");
+        }
+    }
+
+    @Test
+    public void testDropFraction() {
+        Assert.assertEquals(0f,
+            CacheRegistry.getDropFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE), 0f);
+        Assert.assertEquals(0.5f,
+            CacheRegistry.getDropFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW), 0f);
+        Assert.assertEquals(1f,
+            CacheRegistry.getDropFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL), 0f);
+        Assert.assertEquals(0f,
+            CacheRegistry.getDropFraction(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN), 0f);
+        Assert.assertEquals(0.5f,
+            CacheRegistry.getDropFraction(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND), 0f);
+        Assert.assertEquals(1f,
+            CacheRegistry.getDropFraction(ComponentCallbacks2.TRIM_MEMORY_COMPLETE), 0f);
+    }
+}
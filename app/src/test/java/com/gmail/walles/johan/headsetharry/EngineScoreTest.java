@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EngineScoreTest {
+    private static final long NOW = 1_000_000_000L;
+
+    @Test
+    public void testDemotion() {
+        EngineScore testMe = new EngineScore(NOW);
+        testMe.recordFailure(NOW);
+        testMe.recordFailure(NOW);
+        Assert.assertFalse("Two failures isn't enough", testMe.isDemoted(NOW));
+
+        testMe.recordFailure(NOW);
+        Assert.assertTrue(testMe.isDemoted(NOW));
+    }
+
+    @Test
+    public void testNoDemotionWhenMostlyWorking() {
+        EngineScore testMe = new EngineScore(NOW);
+        for (int i = 0; i < 5; i++) {
+            testMe.recordFailure(NOW);
+        }
+        for (int i = 0; i < 10; i++) {
+            testMe.recordSuccess(NOW);
+        }
+        Assert.assertFalse(testMe.isDemoted(NOW));
+    }
+
+    @Test
+    public void testRecovery() {
+        EngineScore testMe = new EngineScore(NOW);
+        for (int i = 0; i < 4; i++) {
+            testMe.recordFailure(NOW);
+        }
+        Assert.assertTrue(testMe.isDemoted(NOW));
+        Assert.assertTrue(testMe.isDemoted(NOW + EngineScore.HALF_LIFE_MS / 2));
+
+        // Just waiting should get us back in the game
+        Assert.assertFalse(testMe.isDemoted(NOW + EngineScore.HALF_LIFE_MS));
+    }
+
+    @Test
+    public void testCost() {
+        EngineScore fast = new EngineScore(NOW);
+        fast.recordInitMs(NOW, 100);
+        fast.recordStartWaitMs(NOW, 50);
+        fast.recordRealTimeFactor(NOW, 0.1);
+
+        EngineScore slow = new EngineScore(NOW);
+        slow.recordInitMs(NOW, 2000);
+        slow.recordStartWaitMs(NOW, 300);
+        slow.recordRealTimeFactor(NOW, 0.8);
+
+        EngineScore unknown = new EngineScore(NOW);
+
+        Assert.assertTrue(fast.getCostMs() < unknown.getCostMs());
+        Assert.assertTrue(unknown.getCostMs() < slow.getCostMs());
+
+        // Failures make things more expensive
+        EngineScore flaky = new EngineScore(NOW);
+        flaky.recordInitMs(NOW, 100);
+        flaky.recordStartWaitMs(NOW, 50);
+        flaky.recordRealTimeFactor(NOW, 0.1);
+        flaky.recordSuccess(NOW);
+        flaky.recordFailure(NOW);
+        Assert.assertTrue(fast.getCostMs() < flaky.getCostMs());
+    }
+
+    @Test
+    public void testRecentMeasurementsCountMore() {
+        EngineScore testMe = new EngineScore(NOW);
+        testMe.recordInitMs(NOW, 2000);
+        testMe.recordInitMs(NOW + 10 * EngineScore.HALF_LIFE_MS, 100);
+
+        EngineScore reference = new EngineScore(NOW);
+        reference.recordInitMs(NOW, 110);
+        Assert.assertTrue(testMe.getCostMs() < reference.getCostMs());
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        EngineScore score = new EngineScore(NOW);
+        score.recordSuccess(NOW);
+        score.recordFailure(NOW);
+        score.recordInitMs(NOW, 123);
+        score.recordStartWaitMs(NOW, 45);
+        score.recordRealTimeFactor(NOW, 0.25);
+
+        EngineScore decoded = EngineScore.decode(score.encode());
+        Assert.assertNotNull(decoded);
+        Assert.assertEquals(score.encode(), decoded.encode());
+        Assert.assertEquals(score.getCostMs(), decoded.getCostMs(), 0.001);
+        Assert.assertEquals(score.getFailureRate(), decoded.getFailureRate(), 0.001);
+    }
+
+    @Test
+    public void testDecodeBroken() {
+        Assert.assertNull(EngineScore.decode(null));
+        Assert.assertNull(EngineScore.decode(""));
+        Assert.assertNull(EngineScore.decode("1:2:3"));
+        Assert.assertNull(EngineScore.decode("x:0:0:0:0:0:0:0:0"));
+    }
+
+    @Test
+    public void testSort() {
+        EngineScore slow = new EngineScore(NOW);
+        slow.recordInitMs(NOW, 3000);
+
+        EngineScore fast = new EngineScore(NOW);
+        fast.recordInitMs(NOW, 100);
+
+        EngineScore broken = new EngineScore(NOW);
+        broken.recordInitMs(NOW, 10);
+        for (int i = 0; i < 3; i++) {
+            broken.recordFailure(NOW);
+        }
+
+        Map<String, EngineScore> scores = new HashMap<>();
+        scores.put("broken", broken);
+        scores.put("slow", slow);
+        scores.put("fast", fast);
+        scores.put("unknown1", new EngineScore(NOW));
+        scores.put("unknown2", new EngineScore(NOW));
+
+        List<String> engines = new ArrayList<>(
+            Arrays.asList("broken", "unknown2", "slow", "unknown1", "fast"));
+        EngineScores.sort(engines, scores, NOW);
+
+        // Equal scores should keep their original order
+        Assert.assertEquals(
+            Arrays.asList("fast", "unknown2", "unknown1", "slow", "broken"), engines);
+    }
+}
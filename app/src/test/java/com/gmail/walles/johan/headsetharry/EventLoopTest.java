@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class EventLoopTest {
+    /**
+     * Runs things when told to, like a Handler whose thread is busy.
+     */
+    private static class ManualExecutor implements Executor {
+        public final Queue<Runnable> scheduled = new LinkedList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            scheduled.add(runnable);
+        }
+
+        public void runAll() {
+            while (!scheduled.isEmpty()) {
+                scheduled.remove().run();
+            }
+        }
+    }
+
+    private static Runnable append(final List<String> list, final String value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                list.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void testInOrderWithOneWakeup() {
+        ManualExecutor executor = new ManualExecutor();
+        EventLoop testMe = new EventLoop(executor);
+        List<String> ran = new ArrayList<>();
+
+        testMe.post(append(ran, "a"));
+        testMe.post(append(ran, "b"));
+        testMe.post(append(ran, "c"));
+        Assert.assertEquals(1, executor.scheduled.size());
+        Assert.assertEquals(3, testMe.getDepth());
+
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), ran);
+        Assert.assertEquals(0, testMe.getDepth());
+        Assert.assertEquals(3, testMe.getMaxDepth());
+        Assert.assertEquals(3, testMe.getEventCount());
+    }
+
+    @Test
+    public void testPostFromEvent() {
+        ManualExecutor executor = new ManualExecutor();
+        final EventLoop testMe = new EventLoop(executor);
+        final List<String> ran = new ArrayList<>();
+
+        testMe.post(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("outer");
+                testMe.post(append(ran, "inner"));
+            }
+        });
+        executor.runAll();
+
+        Assert.assertEquals(Arrays.asList("outer", "inner"), ran);
+    }
+
+    @Test
+    public void testFailingEvent() {
+        ManualExecutor executor = new ManualExecutor();
+        EventLoop testMe = new EventLoop(executor);
+        List<String> ran = new ArrayList<>();
+
+        testMe.post(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Expected");
+            }
+        });
+        testMe.post(append(ran, "after"));
+        executor.runAll();
+
+        Assert.assertEquals(Arrays.asList("after"), ran);
+    }
+
+    @Test
+    public void testManyProducers() throws InterruptedException {
+        final int producers = 4;
+        final int eventsPerProducer = 10_000;
+
+        final ExecutorService owner = Executors.newSingleThreadExecutor();
+        final EventLoop testMe = new EventLoop(owner);
+
+        // Only ever touched from the loop
+        final int[] counter = new int[1];
+        final CountDownLatch done = new CountDownLatch(producers * eventsPerProducer);
+
+        ExecutorService producerThreads = Executors.newFixedThreadPool(producers);
+        for (int i = 0; i < producers; i++) {
+            producerThreads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < eventsPerProducer; j++) {
+                        testMe.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                counter[0]++;
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        producerThreads.shutdown();
+        owner.shutdown();
+        Assert.assertTrue(owner.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(producers * eventsPerProducer, counter[0]);
+        Assert.assertEquals(producers * eventsPerProducer, testMe.getEventCount());
+        Assert.assertEquals(0, testMe.getDepth());
+    }
+}
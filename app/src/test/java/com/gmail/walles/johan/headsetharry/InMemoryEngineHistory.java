@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An {@link EngineHistory} that forgets everything when the test is done, with time taken from
+ * a {@link Simulation}.
+ */
+class InMemoryEngineHistory implements EngineHistory {
+    private final Simulation simulation;
+    private final Map<Locale, TtsEngineIndex.Entry> index = new HashMap<>();
+    private final Map<String, EngineScore> scores = new HashMap<>();
+    private final Map<Locale, Map<String, Integer>> supported = new HashMap<>();
+
+    public InMemoryEngineHistory(Simulation simulation) {
+        this.simulation = simulation;
+    }
+
+    private EngineScore getScore(String enginePackage, Locale locale) {
+        String key = enginePackage + " " + locale;
+        EngineScore score = scores.get(key);
+        if (score == null) {
+            score = new EngineScore(simulation.getNowMs());
+            scores.put(key, score);
+        }
+        return score;
+    }
+
+    @Nullable
+    @Override
+    public TtsEngineIndex.Entry getIndexed(Locale locale) {
+        return index.get(locale);
+    }
+
+    @Override
+    public void putIndexed(Locale locale, TtsEngineIndex.Entry entry) {
+        index.put(locale, entry);
+    }
+
+    @Override
+    public void removeIndexed(Locale locale) {
+        index.remove(locale);
+    }
+
+    @Override
+    public Map<String, Integer> getSupported(Locale locale) {
+        Map<String, Integer> engines = supported.get(locale);
+        return engines == null ? new HashMap<String, Integer>() : new HashMap<>(engines);
+    }
+
+    @Override
+    public void putSupported(String enginePackage, Locale locale, int precision) {
+        Map<String, Integer> engines = supported.get(locale);
+        if (engines == null) {
+            engines = new HashMap<>();
+            supported.put(locale, engines);
+        }
+        engines.put(enginePackage, precision);
+    }
+
+    @Override
+    public void removeSupported(String enginePackage, Locale locale) {
+        Map<String, Integer> engines = supported.get(locale);
+        if (engines != null) {
+            engines.remove(enginePackage);
+        }
+    }
+
+    @Override
+    public double getCostMs(String enginePackage, Locale locale) {
+        return getScore(enginePackage, locale).getCostMs();
+    }
+
+    @Override
+    public boolean isDemoted(String enginePackage, Locale locale) {
+        return getScore(enginePackage, locale).isDemoted(simulation.getNowMs());
+    }
+
+    @Override
+    public void sort(List<String> enginePackages, Locale locale) {
+        Map<String, EngineScore> engineScores = new HashMap<>();
+        for (String enginePackage: enginePackages) {
+            engineScores.put(enginePackage, getScore(enginePackage, locale));
+        }
+        EngineScores.sort(enginePackages, engineScores, simulation.getNowMs());
+    }
+
+    @Override
+    public void recordInitialized(String enginePackage, Locale locale, long initMs) {
+        EngineScore score = getScore(enginePackage, locale);
+        score.recordInitMs(simulation.getNowMs(), initMs);
+        score.recordSuccess(simulation.getNowMs());
+    }
+
+    @Override
+    public void recordFailure(String enginePackage, Locale locale) {
+        getScore(enginePackage, locale).recordFailure(simulation.getNowMs());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class PendingAnnouncementsTest {
+    @Test
+    public void testDrainRecent() {
+        PendingAnnouncements<String> testMe = new PendingAnnouncements<>();
+        testMe.add("a", "SmsPresenter", 1000);
+        testMe.add("b", "WifiPresenter", 2000);
+
+        Assert.assertEquals(Arrays.asList("a", "b"), testMe.drain(3000));
+        Assert.assertEquals(Collections.<String>emptyList(), testMe.drain(3000));
+
+        Assert.assertEquals(2, testMe.getSkippedCount());
+        Assert.assertEquals(2, testMe.getReplayedCount());
+        Assert.assertEquals(0, testMe.getExpiredCount());
+    }
+
+    @Test
+    public void testDropOld() {
+        PendingAnnouncements<String> testMe = new PendingAnnouncements<>();
+        testMe.add("old", "SmsPresenter", 0);
+        testMe.add("new", "SmsPresenter", PendingAnnouncements.MAX_AGE_MS);
+
+        Assert.assertEquals(
+            Collections.singletonList("new"), testMe.drain(PendingAnnouncements.MAX_AGE_MS + 1));
+        Assert.assertEquals(2, testMe.getSkippedCount());
+        Assert.assertEquals(1, testMe.getReplayedCount());
+        Assert.assertEquals(1, testMe.getExpiredCount());
+    }
+
+    @Test
+    public void testSizeLimit() {
+        PendingAnnouncements<Integer> testMe = new PendingAnnouncements<>();
+        for (int i = 0; i < PendingAnnouncements.MAX_SIZE + 3; i++) {
+            testMe.add(i, "SmsPresenter", 0);
+        }
+
+        Assert.assertEquals(PendingAnnouncements.MAX_SIZE, testMe.drain(0).size());
+        Assert.assertEquals(3, testMe.getExpiredCount());
+    }
+
+    @Test
+    public void testDump() {
+        PendingAnnouncements<String> testMe = new PendingAnnouncements<>();
+        testMe.add("a", "SmsPresenter", 0);
+        testMe.add("b", "SmsPresenter", 0);
+        testMe.add("c", "WifiPresenter", 0);
+
+        Assert.assertTrue(testMe.dump(), testMe.dump().contains("SmsPresenter=2"));
+        Assert.assertTrue(testMe.dump(), testMe.dump().contains("WifiPresenter=1"));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class PhraseCacheTest {
+    @Test
+    public void testGetFixedPrefix() {
+        Assert.assertEquals("Email from", PhraseCache.getFixedPrefix("Email from %s"));
+        Assert.assertEquals("Calendar event:", PhraseCache.getFixedPrefix("Calendar event: %s"));
+        Assert.assertEquals("", PhraseCache.getFixedPrefix("%1$s from %2$s: %3$s"));
+        Assert.assertEquals("Empty SMS", PhraseCache.getFixedPrefix("Empty SMS"));
+    }
+
+    @Test
+    public void testGetUnknownSenderIntro() {
+        String intro = PhraseCache.getUnknownSenderIntro(
+            Locale.ENGLISH, "%1$s from %2$s: %3$s", "SMS", "unknown sender");
+        Assert.assertEquals("SMS from unknown sender:", intro);
+
+        // What SmsPresenter would say starts with it
+        List<String> phrases = Collections.singletonList(intro);
+        Assert.assertEquals(intro.length(),
+            PhraseCache.findPrefix(phrases, "SMS from unknown sender: Hello"));
+    }
+
+    @Test
+    public void testFindPrefix() {
+        List<String> phrases = Arrays.asList("Empty SMS", "SMS", "Email from");
+
+        Assert.assertEquals(3, PhraseCache.findPrefix(phrases, "SMS from Johan: Hello"));
+        Assert.assertEquals(9, PhraseCache.findPrefix(phrases, "Empty SMS from Johan: "));
+        Assert.assertEquals(10, PhraseCache.findPrefix(phrases, "Email from Johan"));
+        Assert.assertEquals(3, PhraseCache.findPrefix(phrases, "SMS"));
+
+        // Must end on a word boundary
+        Assert.assertEquals(0, PhraseCache.findPrefix(phrases, "SMSes from Johan"));
+
+        Assert.assertEquals(0, PhraseCache.findPrefix(phrases, "Calendar event: Lunch"));
+        Assert.assertEquals(0, PhraseCache.findPrefix(Collections.<String>emptyList(), "SMS"));
+    }
+
+    @Test
+    public void testGetFileName() {
+        Assert.assertEquals(
+            PhraseCache.getFileName("Empty SMS"), PhraseCache.getFileName("Empty SMS"));
+        Assert.assertNotEquals(
+            PhraseCache.getFileName("Empty SMS"), PhraseCache.getFileName("SMS"));
+        Assert.assertTrue(PhraseCache.getFileName("SMS").matches("[0-9a-f]{40}\\.wav"));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ReorderBufferTest {
+    @Test
+    public void testInOrder() {
+        ReorderBuffer<String> testMe = new ReorderBuffer<>();
+        long first = testMe.reserve();
+        long second = testMe.reserve();
+
+        Assert.assertEquals(Collections.singletonList("a"), testMe.complete(first, "a"));
+        Assert.assertEquals(Collections.singletonList("b"), testMe.complete(second, "b"));
+        Assert.assertEquals(0, testMe.getInFlightCount());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        ReorderBuffer<String> testMe = new ReorderBuffer<>();
+        long first = testMe.reserve();
+        long second = testMe.reserve();
+        long third = testMe.reserve();
+
+        Assert.assertEquals(Collections.<String>emptyList(), testMe.complete(third, "c"));
+        Assert.assertEquals(Collections.<String>emptyList(), testMe.complete(second, "b"));
+        Assert.assertEquals(3, testMe.getInFlightCount());
+
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), testMe.complete(first, "a"));
+        Assert.assertEquals(0, testMe.getInFlightCount());
+    }
+
+    @Test
+    public void testNothingProduced() {
+        ReorderBuffer<String> testMe = new ReorderBuffer<>();
+        long first = testMe.reserve();
+        long second = testMe.reserve();
+
+        Assert.assertEquals(Collections.<String>emptyList(), testMe.complete(second, "b"));
+        Assert.assertEquals(Collections.singletonList("b"), testMe.complete(first, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompleteTwice() {
+        ReorderBuffer<String> testMe = new ReorderBuffer<>();
+        long first = testMe.reserve();
+        testMe.complete(first, "a");
+        testMe.complete(first, "a");
+    }
+}
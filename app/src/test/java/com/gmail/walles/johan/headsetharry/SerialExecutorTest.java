@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SerialExecutorTest {
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Like two intents for the same presenter arriving back to back, with a free thread for each.
+     */
+    @Test
+    public void testSamePresenterNeverOverlaps() throws Exception {
+        SerialExecutor testMe = new SerialExecutor(pool);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            testMe.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int nowRunning = running.incrementAndGet();
+                    if (nowRunning > maxRunning.get()) {
+                        maxRunning.set(nowRunning);
+                    }
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    order.add(index);
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, maxRunning.get());
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(i, (int)order.get(i));
+        }
+    }
+
+    @Test
+    public void testDifferentPresentersRunInParallel() throws Exception {
+        SerialExecutor first = new SerialExecutor(pool);
+        SerialExecutor second = new SerialExecutor(pool);
+
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        Runnable waitForTheOther = new Runnable() {
+            @Override
+            public void run() {
+                bothStarted.countDown();
+                try {
+                    if (bothStarted.await(10, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        first.execute(waitForTheOther);
+        second.execute(waitForTheOther);
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailingTaskDoesNotBlockTheNext() throws Exception {
+        SerialExecutor testMe = new SerialExecutor(pool);
+        testMe.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("Expected");
+            }
+        });
+
+        final CountDownLatch done = new CountDownLatch(1);
+        testMe.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.speech.tts.TextToSpeech;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A {@link SpeechEngine} living in a {@link Simulation}.
+ * <p/>
+ * How fast it initializes, what locales it supports, how fast it talks and when it fails are
+ * all configured through a {@link Spec}. All callbacks are delivered by the simulation.
+ */
+class SimulatedSpeechEngine implements SpeechEngine {
+    static class Spec {
+        public final String enginePackage;
+        public final Set<Locale> locales;
+        public long initMs = 100;
+        public long msPerChar = 50;
+        public boolean failInit;
+
+        /**
+         * Index of the utterance to report an error for, -1 for none.
+         */
+        public int failUtterance = -1;
+
+        public Spec(String enginePackage, Locale ... locales) {
+            this.enginePackage = enginePackage;
+            this.locales = new HashSet<>(Arrays.asList(locales));
+        }
+
+        public Spec initMs(long initMs) {
+            this.initMs = initMs;
+            return this;
+        }
+
+        public Spec msPerChar(long msPerChar) {
+            this.msPerChar = msPerChar;
+            return this;
+        }
+
+        public Spec failInit() {
+            this.failInit = true;
+            return this;
+        }
+
+        public Spec failUtterance(int index) {
+            this.failUtterance = index;
+            return this;
+        }
+    }
+
+    /**
+     * Creates engines from a set of specs. The first spec is the system default engine.
+     */
+    static class Factory implements SpeechEngine.Factory {
+        private final Simulation simulation;
+        private final List<Spec> specs;
+        private int createdCount;
+        private int liveCount;
+
+        public Factory(Simulation simulation, Spec ... specs) {
+            this.simulation = simulation;
+            this.specs = Arrays.asList(specs);
+        }
+
+        @Override
+        public SpeechEngine create(String enginePackage, InitListener listener) {
+            for (Spec spec: specs) {
+                if (spec.enginePackage.equals(enginePackage)) {
+                    createdCount++;
+                    liveCount++;
+                    return new SimulatedSpeechEngine(this, spec, listener);
+                }
+            }
+            throw new IllegalArgumentException("No such engine: " + enginePackage);
+        }
+
+        /**
+         * Listing engines takes as long as initializing the default engine.
+         */
+        @Override
+        public void listEngines(final EngineListListener listener) {
+            final Spec defaultSpec = specs.get(0);
+            simulation.schedule(defaultSpec.initMs, new Runnable() {
+                @Override
+                public void run() {
+                    List<String> enginePackages = new ArrayList<>();
+                    if (!defaultSpec.failInit) {
+                        for (Spec spec: specs) {
+                            enginePackages.add(spec.enginePackage);
+                        }
+                    }
+                    listener.onListed(enginePackages);
+                }
+            });
+        }
+
+        @Override
+        public long getNowMs() {
+            return simulation.getNowMs();
+        }
+
+        /**
+         * How many engines have been created.
+         */
+        public int getCreatedCount() {
+            return createdCount;
+        }
+
+        /**
+         * How many engines have been created but not shut down.
+         */
+        public int getLiveCount() {
+            return liveCount;
+        }
+    }
+
+    private final Factory factory;
+    private final Spec spec;
+
+    @Nullable
+    private ProgressListener listener;
+
+    private boolean initialized;
+    private boolean shutDown;
+
+    @Nullable
+    private Locale language;
+
+    /**
+     * When the last thing in the queue will be done.
+     */
+    private long busyUntilMs;
+    private int utteranceCount;
+
+    /**
+     * Bumped by {@link #stop()}, utterances queued before that never report back.
+     */
+    private int stopCount;
+
+    private SimulatedSpeechEngine(Factory factory, Spec spec, final InitListener initListener) {
+        this.factory = factory;
+        this.spec = spec;
+        factory.simulation.schedule(spec.initMs, new Runnable() {
+            @Override
+            public void run() {
+                if (shutDown) {
+                    return;
+                }
+                initialized = !SimulatedSpeechEngine.this.spec.failInit;
+                initListener.onInit(initialized);
+            }
+        });
+    }
+
+    @Override
+    public String getEnginePackage() {
+        return spec.enginePackage;
+    }
+
+    @Override
+    public int isLanguageAvailable(Locale locale) {
+        if (!initialized || shutDown) {
+            return TextToSpeech.LANG_NOT_SUPPORTED;
+        }
+
+        int best = TextToSpeech.LANG_NOT_SUPPORTED;
+        for (Locale supported: spec.locales) {
+            if (!supported.getLanguage().equals(locale.getLanguage())) {
+                continue;
+            }
+            best = Math.max(best, TextToSpeech.LANG_AVAILABLE);
+
+            if (!supported.getCountry().equals(locale.getCountry())) {
+                continue;
+            }
+            best = Math.max(best, TextToSpeech.LANG_COUNTRY_AVAILABLE);
+
+            if (!supported.getVariant().equals(locale.getVariant())) {
+                continue;
+            }
+            best = Math.max(best, TtsUtils.getSpecificity(locale));
+        }
+        return best;
+    }
+
+    @Override
+    public int setLanguage(Locale locale) {
+        int result = isLanguageAvailable(locale);
+        if (result >= TextToSpeech.LANG_AVAILABLE) {
+            language = locale;
+        }
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public Locale getLanguage() {
+        return language;
+    }
+
+    @Override
+    public String getVoiceName() {
+        return spec.enginePackage + "-voice";
+    }
+
+    @Override
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public int speak(String text, String utteranceId, int audioManagerStream) {
+        return enqueue(utteranceId, text.length() * spec.msPerChar);
+    }
+
+    @Override
+    public int playFile(File audio, String utteranceId, int audioManagerStream) {
+        return enqueue(utteranceId, SpeechAudioCache.getWavDurationMs(audio));
+    }
+
+    /**
+     * Takes as long as speaking the text would, doesn't actually write anything.
+     */
+    @Override
+    public int synthesizeToFile(String text, String utteranceId, File file) {
+        return enqueue(utteranceId, text.length() * spec.msPerChar);
+    }
+
+    private int enqueue(final String utteranceId, long durationMs) {
+        if (!initialized || shutDown) {
+            return TextToSpeech.ERROR;
+        }
+
+        final Simulation simulation = factory.simulation;
+        final boolean fail = utteranceCount++ == spec.failUtterance;
+        final int generation = stopCount;
+        long startMs = Math.max(simulation.getNowMs(), busyUntilMs);
+        busyUntilMs = startMs + durationMs;
+
+        simulation.schedule(startMs - simulation.getNowMs(), new Runnable() {
+            @Override
+            public void run() {
+                if (!shutDown && listener != null && generation == stopCount) {
+                    listener.onStart(utteranceId);
+                }
+            }
+        });
+        simulation.schedule(busyUntilMs - simulation.getNowMs(), new Runnable() {
+            @Override
+            public void run() {
+                if (shutDown || listener == null || generation != stopCount) {
+                    return;
+                }
+                if (fail) {
+                    listener.onError(utteranceId);
+                } else {
+                    listener.onDone(utteranceId);
+                }
+            }
+        });
+
+        return TextToSpeech.SUCCESS;
+    }
+
+    /**
+     * Drops everything queued without reporting back about it.
+     */
+    @Override
+    public void stop() {
+        stopCount++;
+        busyUntilMs = factory.simulation.getNowMs();
+    }
+
+    @Override
+    public void shutdown() {
+        if (shutDown) {
+            return;
+        }
+        shutDown = true;
+        factory.liveCount--;
+    }
+
+    @Override
+    public String toString() {
+        return spec.enginePackage;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import java.util.PriorityQueue;
+
+/**
+ * A virtual clock with a queue of things to do at certain times.
+ * <p/>
+ * Simulated time only moves forward when {@link #run()} gets to the next event, so tests can
+ * simulate seconds of engine work in no time, and get the same timings every run.
+ */
+class Simulation {
+    /**
+     * Any simulation running longer than this is assumed to be stuck in a loop.
+     */
+    private static final int MAX_EVENTS = 100_000;
+
+    private static class Event implements Comparable<Event> {
+        public final long timeMs;
+        public final long sequence;
+        public final Runnable action;
+
+        public Event(long timeMs, long sequence, Runnable action) {
+            this.timeMs = timeMs;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (timeMs != other.timeMs) {
+                return timeMs < other.timeMs ? -1 : 1;
+            }
+
+            // Events scheduled for the same time run in the order they were scheduled
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long nowMs;
+    private long sequence;
+
+    public long getNowMs() {
+        return nowMs;
+    }
+
+    public void schedule(long delayMs, Runnable action) {
+        events.add(new Event(nowMs + delayMs, sequence++, action));
+    }
+
+    /**
+     * Run events in time order until there are none left.
+     */
+    public void run() {
+        int count = 0;
+        while (!events.isEmpty()) {
+            if (++count > MAX_EVENTS) {
+                throw new AssertionError(
+                    "Simulation still running after " + MAX_EVENTS + " events");
+            }
+
+            Event event = events.poll();
+            nowMs = event.timeMs;
+            event.action.run();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+public class SpeechAudioCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Pretend to synthesize some audio into the temp file for a key.
+     */
+    private static void synthesize(SpeechAudioCache testMe, String key, int bytes)
+        throws IOException
+    {
+        byte[] wav = new byte[bytes];
+        wav[0] = 'R';
+        wav[1] = 'I';
+        wav[2] = 'F';
+        wav[3] = 'F';
+        try (FileOutputStream outputStream = new FileOutputStream(testMe.getTempFile(key))) {
+            outputStream.write(wav);
+        }
+    }
+
+    @Test
+    public void testGetKey() {
+        String key = SpeechAudioCache.getKey("engine", "voice", Locale.ENGLISH, "Hello");
+        Assert.assertEquals(
+            key, SpeechAudioCache.getKey("engine", "voice", Locale.ENGLISH, "Hello"));
+        Assert.assertNotEquals(
+            key, SpeechAudioCache.getKey("other", "voice", Locale.ENGLISH, "Hello"));
+        Assert.assertNotEquals(
+            key, SpeechAudioCache.getKey("engine", "other", Locale.ENGLISH, "Hello"));
+        Assert.assertNotEquals(
+            key, SpeechAudioCache.getKey("engine", "voice", Locale.GERMAN, "Hello"));
+        Assert.assertNotEquals(
+            key, SpeechAudioCache.getKey("engine", "voice", Locale.ENGLISH, "Hallo"));
+        Assert.assertTrue(key.matches("[0-9a-f]{40}"));
+    }
+
+    @Test
+    public void testPutGet() throws IOException {
+        SpeechAudioCache testMe = new SpeechAudioCache(temporaryFolder.getRoot(), 1000);
+        Assert.assertNull(testMe.get("a"));
+
+        synthesize(testMe, "a", 100);
+        Assert.assertTrue(testMe.put("a"));
+        File file = testMe.get("a");
+        Assert.assertNotNull(file);
+        Assert.assertEquals(100, file.length());
+        Assert.assertFalse(testMe.getTempFile("a").exists());
+
+        Assert.assertEquals(1, testMe.size());
+        Assert.assertEquals(100, testMe.getBytes());
+        Assert.assertEquals(1, testMe.getHitCount());
+        Assert.assertEquals(1, testMe.getMissCount());
+    }
+
+    @Test
+    public void testRecordMiss() {
+        SpeechAudioCache testMe = new SpeechAudioCache(temporaryFolder.getRoot(), 1000);
+        Assert.assertFalse("First miss", testMe.recordMiss("a"));
+        Assert.assertTrue("Second miss", testMe.recordMiss("a"));
+        Assert.assertFalse(testMe.recordMiss("b"));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        SpeechAudioCache testMe = new SpeechAudioCache(temporaryFolder.getRoot(), 1000);
+        synthesize(testMe, "a", 400);
+        testMe.put("a");
+        synthesize(testMe, "b", 400);
+        testMe.put("b");
+
+        // Make "b" the least recently used one
+        Assert.assertNotNull(testMe.get("a"));
+
+        synthesize(testMe, "c", 400);
+        testMe.put("c");
+
+        Assert.assertNull(testMe.get("b"));
+        Assert.assertNotNull(testMe.get("a"));
+        Assert.assertNotNull(testMe.get("c"));
+        Assert.assertEquals(800, testMe.getBytes());
+    }
+
+    @Test
+    public void testRejectBrokenFiles() throws IOException {
+        SpeechAudioCache testMe = new SpeechAudioCache(temporaryFolder.getRoot(), 1000);
+
+        // Too small to contain any audio
+        synthesize(testMe, "a", 10);
+        Assert.assertFalse(testMe.put("a"));
+        Assert.assertFalse(testMe.getTempFile("a").exists());
+
+        // Bigger than the whole cache
+        synthesize(testMe, "b", 2000);
+        Assert.assertFalse(testMe.put("b"));
+
+        // Changed after being cached
+        synthesize(testMe, "c", 100);
+        File file = testMe.getTempFile("c");
+        Assert.assertTrue(testMe.put("c"));
+        file = new File(file.getParentFile(), "c.wav");
+        try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
+            outputStream.write(new byte[10]);
+        }
+        Assert.assertNull(testMe.get("c"));
+        Assert.assertEquals(0, testMe.size());
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        SpeechAudioCache testMe = new SpeechAudioCache(temporaryFolder.getRoot(), 1000);
+        synthesize(testMe, "a", 100);
+        testMe.put("a");
+        synthesize(testMe, "b", 100);
+
+        SpeechAudioCache reloaded = new SpeechAudioCache(temporaryFolder.getRoot(), 1000);
+        Assert.assertNotNull(reloaded.get("a"));
+        Assert.assertEquals(1, reloaded.size());
+
+        // Unfinished synthesis should have been cleaned up
+        Assert.assertFalse(reloaded.getTempFile("b").exists());
+    }
+
+    @Test
+    public void testGetWavDurationMs() throws IOException {
+        // 16kHz 16 bit mono is 32000 bytes per second
+        byte[] wav = new byte[44 + 16000];
+        wav[0] = 'R';
+        wav[1] = 'I';
+        wav[2] = 'F';
+        wav[3] = 'F';
+        wav[28] = (byte)(32000 & 0xff);
+        wav[29] = (byte)((32000 >> 8) & 0xff);
+        File file = temporaryFolder.newFile("test.wav");
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(wav);
+        }
+        Assert.assertEquals(500, SpeechAudioCache.getWavDurationMs(file));
+
+        Assert.assertEquals(0, SpeechAudioCache.getWavDurationMs(temporaryFolder.newFile("empty")));
+    }
+}
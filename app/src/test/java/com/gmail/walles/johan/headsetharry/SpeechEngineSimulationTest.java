@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import android.speech.tts.TextToSpeech;
+import android.support.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs engine lookups and speech queueing against {@link SimulatedSpeechEngine}s.
+ */
+public class SpeechEngineSimulationTest {
+    private static final Locale EN_US = new Locale("en", "US");
+    private static final Locale SV_SE = new Locale("sv", "SE");
+    private static final Locale SV = new Locale("sv");
+
+    private final Simulation simulation = new Simulation();
+    private final InMemoryEngineHistory history = new InMemoryEngineHistory(simulation);
+
+    private static class Lookup implements TtsUtils.EngineResultListener {
+        @Nullable
+        public SpeechEngine engine;
+        public boolean notFound;
+        public long doneMs = -1;
+
+        private final Simulation simulation;
+
+        public Lookup(Simulation simulation) {
+            this.simulation = simulation;
+        }
+
+        @Override
+        public void onFound(SpeechEngine tts, String enginePackage) {
+            Assert.assertEquals(tts.getEnginePackage(), enginePackage);
+            Assert.assertEquals("Called twice", -1, doneMs);
+            engine = tts;
+            doneMs = simulation.getNowMs();
+        }
+
+        @Override
+        public void onNotFound() {
+            Assert.assertEquals("Called twice", -1, doneMs);
+            notFound = true;
+            doneMs = simulation.getNowMs();
+        }
+    }
+
+    @After
+    public void restoreProbing() {
+        TtsUtils.setConcurrentProbing(true);
+    }
+
+    private Lookup lookUp(SpeechEngine.Factory factory, Locale locale) {
+        long startMs = simulation.getNowMs();
+        Lookup lookup = new Lookup(simulation);
+        TtsUtils.getEngineForLocale(factory, history, locale, lookup);
+        simulation.run();
+
+        Assert.assertNotEquals("Lookup never finished", -1, lookup.doneMs);
+        lookup.doneMs -= startMs;
+        return lookup;
+    }
+
+    @Test
+    public void testSlowDefaultEngine() {
+        SimulatedSpeechEngine.Factory factory = new SimulatedSpeechEngine.Factory(simulation,
+            new SimulatedSpeechEngine.Spec("slow", EN_US).initMs(2000),
+            new SimulatedSpeechEngine.Spec("fast", EN_US).initMs(100),
+            new SimulatedSpeechEngine.Spec("other", SV).initMs(150));
+
+        // Nothing known about any engine, the default one wins ties
+        Lookup first = lookUp(factory, EN_US);
+        Assert.assertNotNull(first.engine);
+        Assert.assertEquals("slow", first.engine.getEnginePackage());
+        Assert.assertEquals("Listing engines plus initializing them", 4000, first.doneMs);
+        Assert.assertEquals("Losers should have been shut down", 1, factory.getLiveCount());
+        first.engine.shutdown();
+
+        // The fast engine supports the locale as well and is clearly faster, so it overtakes the
+        // indexed one
+        Lookup rescored = lookUp(factory, EN_US);
+        Assert.assertNotNull(rescored.engine);
+        Assert.assertEquals("fast", rescored.engine.getEnginePackage());
+        Assert.assertEquals(2100, rescored.doneMs);
+        rescored.engine.shutdown();
+
+        // The index remembers the new choice
+        Lookup indexed = lookUp(factory, EN_US);
+        Assert.assertNotNull(indexed.engine);
+        Assert.assertEquals("fast", indexed.engine.getEnginePackage());
+        Assert.assertEquals(100, indexed.doneMs);
+        indexed.engine.shutdown();
+
+        Assert.assertEquals(0, factory.getLiveCount());
+    }
+
+    @Test
+    public void testSlightlyFasterEngineDoesNotOvertake() {
+        SimulatedSpeechEngine.Factory factory = new SimulatedSpeechEngine.Factory(simulation,
+            new SimulatedSpeechEngine.Spec("default", EN_US).initMs(1000),
+            new SimulatedSpeechEngine.Spec("other", EN_US).initMs(900));
+
+        Lookup first = lookUp(factory, EN_US);
+        Assert.assertNotNull(first.engine);
+        Assert.assertEquals("default", first.engine.getEnginePackage());
+        first.engine.shutdown();
+
+        // Not enough of a difference to bother probing again
+        Lookup indexed = lookUp(factory, EN_US);
+        Assert.assertNotNull(indexed.engine);
+        Assert.assertEquals("default", indexed.engine.getEnginePackage());
+        Assert.assertEquals(1000, indexed.doneMs);
+        indexed.engine.shutdown();
+    }
+
+    @Test
+    public void testConcurrentBeatsSequential() {
+        SimulatedSpeechEngine.Spec[] specs = new SimulatedSpeechEngine.Spec[] {
+            new SimulatedSpeechEngine.Spec("a", EN_US).initMs(500),
+            new SimulatedSpeechEngine.Spec("b", EN_US).initMs(500),
+            new SimulatedSpeechEngine.Spec("c", SV_SE).initMs(500),
+        };
+
+        TtsUtils.setConcurrentProbing(false);
+        Lookup sequential = lookUp(new SimulatedSpeechEngine.Factory(simulation, specs), SV_SE);
+        Assert.assertNotNull(sequential.engine);
+        Assert.assertEquals("c", sequential.engine.getEnginePackage());
+        Assert.assertEquals(500 + 3 * 500, sequential.doneMs);
+
+        history.removeIndexed(SV_SE);
+        TtsUtils.setConcurrentProbing(true);
+        Lookup concurrent = lookUp(new SimulatedSpeechEngine.Factory(simulation, specs), SV_SE);
+        Assert.assertNotNull(concurrent.engine);
+        Assert.assertEquals("c", concurrent.engine.getEnginePackage());
+        Assert.assertEquals(500 + 500, concurrent.doneMs);
+    }
+
+    @Test
+    public void testFallBackToLowerPrecision() {
+        SimulatedSpeechEngine.Factory factory = new SimulatedSpeechEngine.Factory(simulation,
+            new SimulatedSpeechEngine.Spec("default", EN_US),
+            new SimulatedSpeechEngine.Spec("swedish", SV));
+
+        Lookup lookup = lookUp(factory, SV_SE);
+        Assert.assertNotNull(lookup.engine);
+        Assert.assertEquals("swedish", lookup.engine.getEnginePackage());
+        Locale language = lookup.engine.getLanguage();
+        Assert.assertNotNull(language);
+        Assert.assertEquals("sv", language.getLanguage());
+
+        TtsEngineIndex.Entry indexed = history.getIndexed(SV_SE);
+        Assert.assertNotNull(indexed);
+        Assert.assertEquals("swedish", indexed.enginePackage);
+        Assert.assertEquals(TextToSpeech.LANG_AVAILABLE, indexed.precision);
+    }
+
+    @Test
+    public void testNotFound() {
+        SimulatedSpeechEngine.Factory factory = new SimulatedSpeechEngine.Factory(simulation,
+            new SimulatedSpeechEngine.Spec("default", EN_US),
+            new SimulatedSpeechEngine.Spec("swedish", SV));
+
+        Lookup lookup = lookUp(factory, new Locale("ja"));
+        Assert.assertTrue(lookup.notFound);
+        Assert.assertEquals(0, factory.getLiveCount());
+    }
+
+    @Test
+    public void testBrokenIndexedEngine() {
+        SimulatedSpeechEngine.Factory factory = new SimulatedSpeechEngine.Factory(simulation,
+            new SimulatedSpeechEngine.Spec("default", EN_US),
+            new SimulatedSpeechEngine.Spec("broken", EN_US).failInit());
+        history.putIndexed(EN_US,
+            new TtsEngineIndex.Entry("broken", EN_US, TextToSpeech.LANG_COUNTRY_AVAILABLE));
+
+        Lookup lookup = lookUp(factory, EN_US);
+        Assert.assertNotNull(lookup.engine);
+        Assert.assertEquals("default", lookup.engine.getEnginePackage());
+
+        TtsEngineIndex.Entry indexed = history.getIndexed(EN_US);
+        Assert.assertNotNull(indexed);
+        Assert.assertEquals("default", indexed.enginePackage);
+    }
+
+    @Test
+    public void testDemotedEngineLosesTies() {
+        SimulatedSpeechEngine.Factory factory = new SimulatedSpeechEngine.Factory(simulation,
+            new SimulatedSpeechEngine.Spec("flaky", EN_US),
+            new SimulatedSpeechEngine.Spec("solid", EN_US).initMs(1000));
+        for (int i = 0; i < 3; i++) {
+            history.recordFailure("flaky", EN_US);
+        }
+
+        Lookup lookup = lookUp(factory, EN_US);
+        Assert.assertNotNull(lookup.engine);
+        Assert.assertEquals("solid", lookup.engine.getEnginePackage());
+    }
+
+    @Test
+    public void testQueueThroughput() {
+        SimulatedSpeechEngine.Factory factory = new SimulatedSpeechEngine.Factory(simulation,
+            new SimulatedSpeechEngine.Spec("default", EN_US).msPerChar(50).failUtterance(3));
+        Lookup lookup = lookUp(factory, EN_US);
+        SpeechEngine engine = lookup.engine;
+        Assert.assertNotNull(engine);
+
+        final List<String> done = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        engine.setProgressListener(new SpeechEngine.ProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                // This method intentionally left blank
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                done.add(utteranceId);
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                failed.add(utteranceId);
+            }
+
+            @Override
+            public void onStop(String utteranceId, boolean interrupted) {
+                failed.add(utteranceId);
+            }
+        });
+
+        long startMs = simulation.getNowMs();
+        int segmentCount = 10;
+        for (int i = 0; i < segmentCount; i++) {
+            Assert.assertEquals(
+                TextToSpeech.SUCCESS, engine.speak("Twenty characters...", "u" + i, 0));
+        }
+        simulation.run();
+        long durationMs = simulation.getNowMs() - startMs;
+
+        // Queued segments play back to back
+        Assert.assertEquals(segmentCount * 20 * 50, durationMs);
+        Assert.assertEquals(segmentCount - 1, done.size());
+        Assert.assertEquals("u0", done.get(0));
+        Assert.assertEquals("u" + (segmentCount - 1), done.get(done.size() - 1));
+
+        Assert.assertEquals(1, failed.size());
+        Assert.assertEquals("u3", failed.get(0));
+
+        engine.shutdown();
+        Assert.assertEquals(TextToSpeech.ERROR, engine.speak("Too late", "late", 0));
+    }
+}
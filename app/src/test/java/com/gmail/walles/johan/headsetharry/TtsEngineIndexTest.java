@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class TtsEngineIndexTest {
+    @Test
+    public void testEncodeDecode() {
+        TtsEngineIndex.Entry entry =
+            new TtsEngineIndex.Entry("com.google.android.tts", new Locale("sv", "SE"), 1);
+        TtsEngineIndex.Entry decoded = TtsEngineIndex.Entry.decode(entry.encode());
+        Assert.assertNotNull(decoded);
+        Assert.assertEquals("com.google.android.tts", decoded.enginePackage);
+        Assert.assertEquals(new Locale("sv", "SE"), decoded.resolvedLocale);
+        Assert.assertEquals(1, decoded.precision);
+    }
+
+    @Test
+    public void testDecodeGarbage() {
+        Assert.assertNull(TtsEngineIndex.Entry.decode(null));
+        Assert.assertNull(TtsEngineIndex.Entry.decode(""));
+        Assert.assertNull(TtsEngineIndex.Entry.decode("com.google.android.tts"));
+        Assert.assertNull(TtsEngineIndex.Entry.decode(":com.google.android.tts"));
+        Assert.assertNull(TtsEngineIndex.Entry.decode("1:"));
+        Assert.assertNull(TtsEngineIndex.Entry.decode("x:sv:com.google.android.tts"));
+        Assert.assertNull(TtsEngineIndex.Entry.decode("0::com.google.android.tts"));
+        Assert.assertNull(TtsEngineIndex.Entry.decode("0:sv:"));
+    }
+
+    @Test
+    public void testEncodeDecodeSupported() {
+        Map<String, Integer> supported = new HashMap<>();
+        supported.put("com.google.android.tts", 1);
+        supported.put("com.svox.pico", 0);
+        Assert.assertEquals(supported,
+            TtsEngineIndex.decodeSupported(TtsEngineIndex.encodeSupported(supported)));
+
+        Assert.assertEquals(Collections.<String, Integer>emptyMap(),
+            TtsEngineIndex.decodeSupported(TtsEngineIndex.encodeSupported(
+                Collections.<String, Integer>emptyMap())));
+    }
+
+    @Test
+    public void testDecodeSupportedGarbage() {
+        Assert.assertEquals(Collections.<String, Integer>emptyMap(),
+            TtsEngineIndex.decodeSupported(null));
+        Assert.assertEquals(Collections.singletonMap("com.svox.pico", 0),
+            TtsEngineIndex.decodeSupported("x:com.google.android.tts,0:com.svox.pico,1:,junk"));
+    }
+
+    @Test
+    public void testDecodeOldFormat() {
+        // Entries without a resolved locale must be re-resolved
+        Assert.assertNull(TtsEngineIndex.Entry.decode("1:com.google.android.tts"));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class TtsLatencyTest {
+    @After
+    public void tearDown() {
+        TtsLatency.clear();
+    }
+
+    @Test
+    public void testHistogram() {
+        TtsLatency.Histogram testMe = new TtsLatency.Histogram();
+        Assert.assertEquals(0, testMe.getPercentileLimitMs(50));
+
+        testMe.record(5);
+        testMe.record(10);
+        testMe.record(150);
+        testMe.record(10000);
+
+        Assert.assertEquals(4, testMe.getCount());
+        Assert.assertEquals("Limits are inclusive", 2, testMe.getBucketCount(0));
+        Assert.assertEquals(1, testMe.getBucketCount(4));
+        Assert.assertEquals(1, testMe.getBucketCount(TtsLatency.Histogram.BUCKET_LIMITS_MS.length));
+        Assert.assertEquals(10000, testMe.getMaxMs());
+        Assert.assertEquals((5 + 10 + 150 + 10000) / 4, testMe.getMeanMs());
+
+        Assert.assertEquals(10, testMe.getPercentileLimitMs(50));
+        Assert.assertEquals(200, testMe.getPercentileLimitMs(75));
+        Assert.assertEquals(Long.MAX_VALUE, testMe.getPercentileLimitMs(90));
+    }
+
+    @Test
+    public void testDump() {
+        TtsLatency.record(TtsLatency.Stage.INIT, "com.example.tts", new Locale("sv"), 0, 300);
+        TtsLatency.record(TtsLatency.Stage.LIST_ENGINES, null, null, 0, 50);
+
+        String dump = TtsLatency.dump();
+        Assert.assertTrue(dump, dump.contains("Overall:\n  LIST_ENGINES: n=1"));
+        Assert.assertTrue(dump, dump.contains("Engine com.example.tts:\n  INIT: n=1 mean=300ms"));
+        Assert.assertTrue(dump, dump.contains("Locale sv:\n  INIT: n=1"));
+    }
+}
@@ -22,6 +22,8 @@ package com.gmail.walles.johan.headsetharry;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Locale;
 
 public class TtsUtilsTest {
@@ -37,4 +39,42 @@ public class TtsUtilsTest {
 
         Assert.assertFalse(TtsUtils.getLowerPrecisionLocale(new Locale("xx")).isPresent());
     }
+
+    @Test
+    public void testGetFallbackChain() {
+        Assert.assertEquals(
+            Arrays.asList(new Locale("xx", "yy", "zz"), new Locale("xx", "yy"), new Locale("xx")),
+            TtsUtils.getFallbackChain(new Locale("xx", "yy", "zz")));
+        Assert.assertEquals(
+            Collections.singletonList(new Locale("xx")),
+            TtsUtils.getFallbackChain(new Locale("xx")));
+    }
+
+    @Test
+    public void testGetSpecificity() {
+        Assert.assertEquals(2, TtsUtils.getSpecificity(new Locale("xx", "yy", "zz")));
+        Assert.assertEquals(1, TtsUtils.getSpecificity(new Locale("xx", "yy")));
+        Assert.assertEquals(0, TtsUtils.getSpecificity(new Locale("xx")));
+    }
+
+    @Test
+    public void testGroupByLocale() {
+        Locale sv = new Locale("sv");
+        Locale en = new Locale("en");
+        TextWithLocale hej = new TextWithLocale(sv, "Hej");
+        TextWithLocale pa = new TextWithLocale(sv, "på");
+        TextWithLocale you = new TextWithLocale(en, "you");
+        TextWithLocale dig = new TextWithLocale(sv, "dig");
+
+        Assert.assertEquals(
+            Arrays.asList(
+                Arrays.asList(hej, pa),
+                Collections.singletonList(you),
+                Collections.singletonList(dig)),
+            TtsUtils.groupByLocale(Arrays.asList(hej, pa, you, dig)));
+
+        Assert.assertEquals(
+            Collections.emptyList(),
+            TtsUtils.groupByLocale(Collections.<TextWithLocale>emptyList()));
+    }
 }
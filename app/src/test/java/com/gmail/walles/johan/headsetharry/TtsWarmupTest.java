@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TtsWarmupTest {
+    @Test
+    public void testGetSavedMs() {
+        // Warm-up took 300ms and was done before anybody needed it
+        Assert.assertEquals(300, TtsWarmup.getSavedMs(1000, 1300, 1500));
+
+        // Engine needed 100ms into a 300ms warm-up
+        Assert.assertEquals(100, TtsWarmup.getSavedMs(1000, 1300, 1100));
+
+        // Needed right away, nothing saved
+        Assert.assertEquals(0, TtsWarmup.getSavedMs(1000, 1300, 1000));
+    }
+}
@@ -37,4 +37,44 @@ public class EmailPresenterTest {
 
         Assert.assertEquals("", EmailPresenter.censorSender("something: "));
     }
+
+    @Test
+    public void testLanguageSample() {
+        Assert.assertEquals("", EmailPresenter.getLanguageSample(null, null, 100));
+        Assert.assertEquals("Subject", EmailPresenter.getLanguageSample("Subject", null, 100));
+        Assert.assertEquals("Body", EmailPresenter.getLanguageSample(null, "Body", 100));
+        Assert.assertEquals("Subject\nBody", EmailPresenter.getLanguageSample("Subject", "Body", 100));
+
+        // Google Inbox puts the subject first in the body
+        Assert.assertEquals("Subject\nBody",
+            EmailPresenter.getLanguageSample("Subject", "Subject\nBody", 100));
+    }
+
+    @Test
+    public void testLanguageSampleSkipsQuotesAndSignatures() {
+        Assert.assertEquals("Subject\nSounds good!\nOn Monday, Johan wrote:",
+            EmailPresenter.getLanguageSample("Subject",
+                "Sounds good!\nOn Monday, Johan wrote:\n> Lunch?\n  >> Earlier\n", 100));
+
+        Assert.assertEquals("Subject\nSounds good!",
+            EmailPresenter.getLanguageSample("Subject",
+                "Sounds good!\n-- \nJohan Walles\nCEO", 100));
+
+        Assert.assertEquals("Subject\nSounds good!",
+            EmailPresenter.getLanguageSample("Subject",
+                "Sounds good!\r\n-----Original Message-----\r\nLunch?", 100));
+
+        // Dashes in the middle of a line are fine
+        Assert.assertEquals("Subject\n--> this way",
+            EmailPresenter.getLanguageSample("Subject", "--> this way", 100));
+    }
+
+    @Test
+    public void testLanguageSampleBounded() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("This is a long line of text\n");
+        }
+        Assert.assertEquals(100, EmailPresenter.getLanguageSample("Subject", body, 100).length());
+    }
 }
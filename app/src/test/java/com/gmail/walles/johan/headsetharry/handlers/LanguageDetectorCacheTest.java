@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.handlers;
+
+import android.support.annotation.NonNull;
+
+import com.gmail.walles.johan.headsetharry.langdetect.BinaryLanguageProfile;
+import com.gmail.walles.johan.headsetharry.langdetect.NgramScorer;
+import com.gmail.walles.johan.headsetharry.langdetect.ReferenceLanguageDetector;
+import com.gmail.walles.johan.headsetharry.langdetect.TestLanguageProfiles;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class LanguageDetectorCacheTest {
+    private static final LanguageDetectorCache.ProfileLoader PROFILE_LOADER =
+        new LanguageDetectorCache.ProfileLoader() {
+            @NonNull
+            @Override
+            public List<BinaryLanguageProfile> getLanguageProfiles(Set<String> localeCodes) {
+                try {
+                    return TestLanguageProfiles.get(localeCodes.toArray(new String[localeCodes.size()]));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+
+    private static Set<String> setOf(String ... localeCodes) {
+        return new HashSet<>(Arrays.asList(localeCodes));
+    }
+
+    @Test
+    public void testRebuildOnlyOnChange() {
+        LanguageDetectorCache testMe = new LanguageDetectorCache();
+
+        LanguageDetectorCache.Detector first = testMe.get(setOf("sv", "en"), PROFILE_LOADER);
+        Assert.assertNotNull(first.languageDetector);
+        Assert.assertEquals(1, testMe.getRebuildCount());
+        Assert.assertEquals(0, testMe.getReuseCount());
+
+        // Same set, different instance
+        Assert.assertSame(first, testMe.get(setOf("en", "sv"), PROFILE_LOADER));
+        Assert.assertEquals(1, testMe.getRebuildCount());
+        Assert.assertEquals(1, testMe.getReuseCount());
+
+        LanguageDetectorCache.Detector second = testMe.get(setOf("sv", "en", "de"), PROFILE_LOADER);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(2, testMe.getRebuildCount());
+        Assert.assertEquals(1, testMe.getReuseCount());
+    }
+
+    @Test
+    public void testKeyIsCopied() {
+        LanguageDetectorCache testMe = new LanguageDetectorCache();
+
+        Set<String> localeCodes = setOf("sv");
+        LanguageDetectorCache.Detector detector = testMe.get(localeCodes, PROFILE_LOADER);
+
+        // Changing the caller's set after the fact shouldn't affect the cache key
+        localeCodes.add("en");
+        Assert.assertEquals(setOf("sv"), detector.localeCodes);
+        Assert.assertNotSame(detector, testMe.get(localeCodes, PROFILE_LOADER));
+    }
+
+    @Test
+    public void testReferenceMode() {
+        LanguageDetectorCache testMe = new LanguageDetectorCache();
+
+        LanguageDetectorCache.Detector scorer = testMe.get(setOf("sv", "en"), PROFILE_LOADER);
+        Assert.assertTrue(scorer.languageDetector instanceof NgramScorer);
+
+        testMe.setReferenceMode(true);
+        LanguageDetectorCache.Detector reference = testMe.get(setOf("sv", "en"), PROFILE_LOADER);
+        Assert.assertTrue(reference.languageDetector instanceof ReferenceLanguageDetector);
+        Assert.assertEquals("sv", reference.languageDetector.detect("Hej, kommer du hem till middag ikväll?"));
+        Assert.assertEquals(2, testMe.getRebuildCount());
+    }
+
+    @Test
+    public void testDetectByScript() {
+        LanguageDetectorCache testMe = new LanguageDetectorCache();
+
+        LanguageDetectorCache.Detector detector =
+            testMe.get(setOf("sv", "en", "ru"), PROFILE_LOADER);
+        Assert.assertEquals("ru", detector.detectByScript("Ты придёшь домой?"));
+
+        // Two configured languages are written using latin letters
+        Assert.assertNull(detector.detectByScript("Kommer du hem?"));
+
+        // No configured language is written using greek letters
+        Assert.assertNull(detector.detectByScript("Θα έρθεις σπίτι;"));
+
+        detector = testMe.get(setOf("sv", "el"), PROFILE_LOADER);
+        Assert.assertEquals("sv", detector.detectByScript("Kommer du hem?"));
+        Assert.assertEquals("el", detector.detectByScript("Θα έρθεις σπίτι;"));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.handlers;
+
+import android.content.ComponentCallbacks2;
+
+import com.google.common.base.Optional;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class LanguageResultCacheTest {
+    private static final Set<String> SV_EN = new HashSet<>(Arrays.asList("sv", "en"));
+
+    @Test
+    public void testNormalize() {
+        Assert.assertEquals("weekly sync", LanguageResultCache.normalize("  Weekly \t\n SYNC "));
+        Assert.assertEquals("", LanguageResultCache.normalize(" "));
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        LanguageResultCache testMe = new LanguageResultCache(10);
+        Assert.assertNull(testMe.get(SV_EN, "Weekly sync"));
+        testMe.put(SV_EN, "Weekly sync", Optional.of("en"));
+
+        Assert.assertEquals(Optional.of("en"), testMe.get(SV_EN, "weekly  Sync"));
+        Assert.assertEquals(1, testMe.getHitCount());
+        Assert.assertEquals(1, testMe.getMissCount());
+
+        // Different set of languages
+        Assert.assertNull(testMe.get(Collections.singleton("sv"), "Weekly sync"));
+
+        testMe.clear();
+        Assert.assertNull(testMe.get(SV_EN, "Weekly sync"));
+    }
+
+    @Test
+    public void testAbsentIsCached() {
+        LanguageResultCache testMe = new LanguageResultCache(10);
+        testMe.put(SV_EN, "12:30", Optional.<String>absent());
+        Assert.assertEquals(Optional.<String>absent(), testMe.get(SV_EN, "12:30"));
+    }
+
+    @Test
+    public void testLongTextsNotCached() {
+        LanguageResultCache testMe = new LanguageResultCache(10);
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() <= LanguageResultCache.MAX_TEXT_LENGTH) {
+            longText.append("Hello there. ");
+        }
+
+        testMe.put(SV_EN, longText, Optional.of("en"));
+        Assert.assertEquals(0, testMe.size());
+        Assert.assertNull(testMe.get(SV_EN, longText));
+
+        // Not counted either way
+        Assert.assertEquals(0, testMe.getHitCount());
+        Assert.assertEquals(0, testMe.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        LanguageResultCache testMe = new LanguageResultCache(2);
+        testMe.put(SV_EN, "first", Optional.of("en"));
+        testMe.put(SV_EN, "second", Optional.of("en"));
+
+        // Touch the first one so that the second one is the least recently used
+        Assert.assertNotNull(testMe.get(SV_EN, "first"));
+
+        testMe.put(SV_EN, "third", Optional.of("en"));
+        Assert.assertEquals(2, testMe.size());
+        Assert.assertNotNull(testMe.get(SV_EN, "first"));
+        Assert.assertNull(testMe.get(SV_EN, "second"));
+        Assert.assertNotNull(testMe.get(SV_EN, "third"));
+    }
+
+    @Test
+    public void testTrim() {
+        LanguageResultCache testMe = new LanguageResultCache(10);
+        for (int i = 0; i < 4; i++) {
+            testMe.put(SV_EN, "text " + i, Optional.of("en"));
+        }
+        long bytes = testMe.getBytes();
+        Assert.assertTrue(bytes > 0);
+
+        testMe.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        Assert.assertEquals(2, testMe.size());
+        Assert.assertTrue(testMe.getBytes() < bytes);
+
+        // The most recently used entries are the ones kept
+        Assert.assertNotNull(testMe.get(SV_EN, "text 3"));
+        Assert.assertNull(testMe.get(SV_EN, "text 0"));
+
+        testMe.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        Assert.assertEquals(0, testMe.size());
+        Assert.assertEquals(0, testMe.getBytes());
+    }
+}
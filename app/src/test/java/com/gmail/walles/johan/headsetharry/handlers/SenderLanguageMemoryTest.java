@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.handlers;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class SenderLanguageMemoryTest {
+    private static final Set<String> SV_EN = new HashSet<>(Arrays.asList("sv", "en"));
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    private SenderLanguageMemory createTestMe(int maxSenders) throws Exception {
+        if (file == null) {
+            file = new File(temporaryFolder.getRoot(), SenderLanguageMemory.FILE_NAME);
+        }
+        return new SenderLanguageMemory(file, maxSenders);
+    }
+
+    @Test
+    public void testDecisive() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        Assert.assertNull(testMe.getDecisiveLanguage("sms:123", SV_EN));
+
+        testMe.record("sms:123", "sv");
+        testMe.record("sms:123", "sv");
+        Assert.assertNull(testMe.getDecisiveLanguage("sms:123", SV_EN));
+        Assert.assertEquals("sv", testMe.getUsualLanguage("sms:123", SV_EN));
+
+        testMe.record("sms:123", "sv");
+        Assert.assertEquals("sv", testMe.getDecisiveLanguage("sms:123", SV_EN));
+
+        // Not decisive if Swedish isn't configured any more
+        Assert.assertNull(testMe.getDecisiveLanguage("sms:123", Collections.singleton("en")));
+        Assert.assertNull(testMe.getUsualLanguage("sms:123", Collections.singleton("en")));
+    }
+
+    @Test
+    public void testRedetectEventually() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        for (int i = 0; i < 5; i++) {
+            testMe.record("sms:123", "sv");
+        }
+
+        int skipped = 0;
+        while (testMe.getDecisiveLanguage("sms:123", SV_EN) != null) {
+            skipped++;
+            Assert.assertTrue(skipped < 100);
+        }
+        Assert.assertTrue(skipped > 1);
+
+        // Recording something fresh makes the history decisive again
+        testMe.record("sms:123", "sv");
+        Assert.assertEquals("sv", testMe.getDecisiveLanguage("sms:123", SV_EN));
+    }
+
+    @Test
+    public void testLanguageChange() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        for (int i = 0; i < 5; i++) {
+            testMe.record("sms:123", "sv");
+        }
+
+        testMe.record("sms:123", "en");
+        Assert.assertNull(testMe.getDecisiveLanguage("sms:123", SV_EN));
+        Assert.assertEquals("sv", testMe.getUsualLanguage("sms:123", SV_EN));
+
+        for (int i = 0; i < 3; i++) {
+            testMe.record("sms:123", "en");
+        }
+        Assert.assertEquals("en", testMe.getUsualLanguage("sms:123", SV_EN));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(2);
+        testMe.record("first", "sv");
+        testMe.record("second", "en");
+
+        // Touch the first one so that the second one is the least recently used
+        Assert.assertEquals("sv", testMe.getUsualLanguage("first", SV_EN));
+
+        testMe.record("third", "sv");
+        Assert.assertEquals(2, testMe.size());
+        Assert.assertEquals("sv", testMe.getUsualLanguage("first", SV_EN));
+        Assert.assertNull(testMe.getUsualLanguage("second", SV_EN));
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        testMe.record("sms:123", "sv");
+        testMe.record("email:Johan Walles", "en");
+        testMe.flush();
+
+        SenderLanguageMemory reloaded = createTestMe(10);
+        Assert.assertEquals(2, reloaded.size());
+        Assert.assertEquals("sv", reloaded.getUsualLanguage("sms:123", SV_EN));
+        Assert.assertEquals("en", reloaded.getUsualLanguage("email:Johan Walles", SV_EN));
+    }
+
+    @Test
+    public void testSaveIsDeferred() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        testMe.record("sms:123", "sv");
+        testMe.record("sms:123", "sv");
+        Assert.assertFalse(file.exists());
+
+        testMe.flush();
+        Assert.assertTrue(file.exists());
+        Assert.assertEquals("sv", createTestMe(10).getUsualLanguage("sms:123", SV_EN));
+    }
+
+    @Test
+    public void testSendersAreHashed() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        testMe.record("sms:+46701234567", "sv");
+        testMe.flush();
+
+        String contents = new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+        Assert.assertFalse(contents, contents.contains("46701234567"));
+    }
+
+    @Test
+    public void testOldVersionDeleted() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(1);
+            out.writeInt(0);
+        }
+
+        Assert.assertEquals(0, testMe.size());
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        Assert.assertEquals(0, testMe.size());
+        Assert.assertNull(testMe.getUsualLanguage("sms:123", SV_EN));
+    }
+
+    @Test
+    public void testTrimAndReload() throws Exception {
+        SenderLanguageMemory testMe = createTestMe(10);
+        testMe.record("sms:123", "sv");
+        Assert.assertTrue(testMe.getBytes() > 0);
+
+        testMe.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        Assert.assertTrue(testMe.getBytes() > 0);
+
+        testMe.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        Assert.assertEquals(0, testMe.getBytes());
+        Assert.assertEquals("sv", testMe.getUsualLanguage("sms:123", SV_EN));
+    }
+}
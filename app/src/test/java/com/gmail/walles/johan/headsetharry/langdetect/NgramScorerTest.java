@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import com.optimaize.langdetect.i18n.LdLocale;
+import com.optimaize.langdetect.ngram.NgramExtractors;
+import com.optimaize.langdetect.profiles.BuiltInLanguages;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class NgramScorerTest {
+    private static final String[] LOCALE_CODES = {"sv", "en", "de", "fr", "es", "ru", "el"};
+
+    private static final String[] TEXTS = {
+        "Hej, kommer du hem till middag ikväll?",
+        "Are you coming home for dinner tonight?",
+        "Kommst du heute Abend zum Abendessen nach Hause?",
+        "Est-ce que tu rentres dîner ce soir ?",
+        "¿Vienes a casa a cenar esta noche?",
+        "Ты придёшь домой на ужин сегодня вечером?",
+        "Θα έρθεις σπίτι για δείπνο απόψε;",
+        "Möte med styrelsen",
+        "Weekly sync",
+
+        // Longer than 50 characters, which makes optimaize sample n-grams at random
+        "Hej alla! Påminner om att vi ses på fredag klockan sju hos Anna och Erik. "
+            + "Ta gärna med något att dricka, maten fixar vi. Hör av er om ni inte kan komma!",
+        "Hi everyone, just a reminder that the quarterly planning meeting has been moved to "
+            + "Thursday afternoon. Please update your calendars and bring your team's numbers.",
+    };
+
+    @Test
+    public void testAllBuiltInLanguagesCompiled() throws Exception {
+        BinaryLanguageProfiles profiles = TestLanguageProfiles.get();
+        for (LdLocale ldLocale: BuiltInLanguages.getLanguages()) {
+            BinaryLanguageProfile profile = profiles.get(ldLocale.toString());
+            Assert.assertNotNull(ldLocale.toString(), profile);
+            Assert.assertTrue(ldLocale.toString(), profile.size() > 0);
+        }
+        Assert.assertEquals(BuiltInLanguages.getLanguages().size(), profiles.getLocaleCodes().size());
+    }
+
+    @Test
+    public void testSameGramsAsOptimaize() {
+        String[] texts = Arrays.copyOf(TEXTS, TEXTS.length + 5);
+        texts[TEXTS.length] = " ";
+        texts[TEXTS.length + 1] = "a";
+        texts[TEXTS.length + 2] = " leading and trailing spaces ";
+        texts[TEXTS.length + 3] = "double  spaces   inside";
+        texts[TEXTS.length + 4] = "ab";
+
+        NgramTable grams = new NgramTable();
+        for (String text: texts) {
+            Map<Integer, Float> expected = new HashMap<>();
+            for (Map.Entry<String, Integer> gram:
+                NgramExtractors.standard().extractCountedGrams(text).entrySet())
+            {
+                int hash = gram.getKey().hashCode();
+                Float count = expected.get(hash);
+                expected.put(hash, (count == null ? 0 : count) + gram.getValue());
+            }
+
+            grams.clear();
+            NgramScorer.extractGrams(text, grams);
+            Map<Integer, Float> actual = new HashMap<>();
+            for (int i = 0; i < grams.size(); i++) {
+                actual.put(grams.keyAt(i), grams.countAt(i));
+            }
+
+            Assert.assertEquals(text, expected, actual);
+        }
+    }
+
+    @Test
+    public void testTableGrows() {
+        NgramTable testMe = new NgramTable();
+        for (int round = 0; round < 2; round++) {
+            testMe.clear();
+            for (int i = 0; i < 10000; i++) {
+                testMe.add(i * 7919);
+                testMe.add(i * 7919);
+            }
+            Assert.assertEquals(10000, testMe.size());
+            for (int i = 0; i < testMe.size(); i++) {
+                Assert.assertEquals(i * 7919, testMe.keyAt(i));
+                Assert.assertEquals(2f, testMe.countAt(i), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testSameResultsAsReference() throws Exception {
+        ReferenceLanguageDetector reference =
+            new ReferenceLanguageDetector(Arrays.asList(LOCALE_CODES));
+        NgramScorer testMe = new NgramScorer(TestLanguageProfiles.get(LOCALE_CODES));
+
+        for (String text: TEXTS) {
+            String expected = reference.detect(text);
+            Assert.assertNotNull(text, expected);
+            Assert.assertEquals(text, expected, testMe.detect(text));
+        }
+    }
+
+    @Test
+    public void testNothingToDetect() throws Exception {
+        NgramScorer testMe = new NgramScorer(TestLanguageProfiles.get("sv", "en"));
+        Assert.assertNull(testMe.detect(""));
+        Assert.assertNull(testMe.detect(" "));
+    }
+
+    @Test
+    public void testCharSequence() throws Exception {
+        NgramScorer testMe = new NgramScorer(TestLanguageProfiles.get(LOCALE_CODES));
+        Assert.assertEquals("sv", testMe.detect(new StringBuilder(TEXTS[0])));
+    }
+
+    @Test
+    public void testEarlyExit() throws Exception {
+        NgramScorer testMe = new NgramScorer(TestLanguageProfiles.get(LOCALE_CODES));
+
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() < 5 * NgramScorer.MAX_CHARS) {
+            longText.append(TEXTS[9]).append(' ');
+        }
+        Assert.assertEquals("sv", testMe.detect(longText));
+        Assert.assertTrue(Integer.toString(testMe.getLastExaminedChars()),
+            testMe.getLastExaminedChars() < TEXTS[9].length());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        NgramScorer testMe = new NgramScorer(TestLanguageProfiles.get(LOCALE_CODES));
+
+        // Nothing any of our languages knows about, so we never get an early exit
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() < 5 * NgramScorer.MAX_CHARS) {
+            longText.append("Բարեւ ");
+        }
+        Assert.assertNull(testMe.detect(longText));
+        Assert.assertEquals(NgramScorer.MAX_CHARS, testMe.getLastExaminedChars());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+public class ScriptTest {
+    @Test
+    public void testOf() {
+        Assert.assertEquals(Script.LATIN, Script.of("Hej, kommer du hem till middag ikväll?"));
+        Assert.assertEquals(Script.CYRILLIC, Script.of("Ты придёшь домой на ужин сегодня вечером?"));
+        Assert.assertEquals(Script.GREEK, Script.of("Θα έρθεις σπίτι για δείπνο απόψε;"));
+        Assert.assertEquals(Script.LATIN, Script.of("Đã đến lúc về nhà"));
+        Assert.assertEquals(Script.HAN, Script.of("今晚回家吃饭吗？"));
+
+        // Digits and punctuation don't count
+        Assert.assertEquals(Script.CYRILLIC, Script.of("Встреча в 10:00!"));
+    }
+
+    @Test
+    public void testAmbiguous() {
+        Assert.assertNull(Script.of(""));
+        Assert.assertNull(Script.of("12:30 :-)"));
+
+        // Mixed scripts
+        Assert.assertNull(Script.of("Встреча в Zoom"));
+        Assert.assertNull(Script.of("今晩はカレーです"));
+
+        // Armenian, which we don't know anything about
+        Assert.assertNull(Script.of("Բարեւ"));
+    }
+
+    @Test
+    public void testForLocaleCode() {
+        Assert.assertEquals(EnumSet.of(Script.LATIN), Script.forLocaleCode("sv"));
+        Assert.assertEquals(EnumSet.of(Script.CYRILLIC), Script.forLocaleCode("ru"));
+        Assert.assertEquals(EnumSet.of(Script.HAN), Script.forLocaleCode("zh-TW"));
+        Assert.assertEquals(EnumSet.of(Script.KANA, Script.HAN), Script.forLocaleCode("ja"));
+    }
+}
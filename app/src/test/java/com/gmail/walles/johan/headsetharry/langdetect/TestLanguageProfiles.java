@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Johan Walles <johan.walles@gmail.com>
+ *
+ * This file is part of Headset Harry.
+ *
+ * Headset Harry is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Headset Harry is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Headset Harry.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gmail.walles.johan.headsetharry.langdetect;
+
+import org.junit.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Give unit tests access to the language profiles compiled by build.gradle.
+ */
+public class TestLanguageProfiles {
+    private static BinaryLanguageProfiles profiles;
+
+    private TestLanguageProfiles() {
+        throw new UnsupportedOperationException("Utility class, don't instantiate");
+    }
+
+    public static synchronized BinaryLanguageProfiles get() throws IOException {
+        if (profiles != null) {
+            return profiles;
+        }
+
+        String path = System.getProperty("languageProfiles");
+        Assert.assertNotNull("System property languageProfiles not set, run tests through Gradle", path);
+        profiles = BinaryLanguageProfiles.map(new File(path));
+        return profiles;
+    }
+
+    public static List<BinaryLanguageProfile> get(String ... localeCodes) throws IOException {
+        List<BinaryLanguageProfile> returnMe = new ArrayList<>(localeCodes.length);
+        for (String localeCode: localeCodes) {
+            BinaryLanguageProfile profile = get().get(localeCode);
+            Assert.assertNotNull("No profile for " + localeCode, profile);
+            returnMe.add(profile);
+        }
+        return returnMe;
+    }
+}